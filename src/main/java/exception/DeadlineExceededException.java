@@ -0,0 +1,16 @@
+package exception;
+
+/**
+ * Thrown to indicate that an evaluation was not started before its deadline.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    /**
+     * Constructs and initializes a deadline exceeded exception with the given detail message.
+     *
+     * @param message the detail message
+     */
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
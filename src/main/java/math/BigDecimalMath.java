@@ -0,0 +1,347 @@
+package math;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Arbitrary-precision kernels for the transcendental functions on {@link BigDecimal}. Every kernel
+ * takes the {@link MathContext} the result should be rounded to and computes internally with a few
+ * guard digits, so the cost grows with the requested number of digits only.
+ *
+ * <ul>
+ *     <li>{@link #exp(BigDecimal, MathContext)} reduces the argument by multiples of ln(2) and
+ *     by repeated halving before summing the Taylor series.</li>
+ *     <li>{@link #ln(BigDecimal, MathContext)} reduces the argument by powers of ten and refines a
+ *     double precision estimate with Halley iterations on exp, doubling the working precision in
+ *     each step.</li>
+ * </ul>
+ *
+ * <p>The constants e, pi, ln(2) and ln(10) are computed lazily and cached, so repeated requests
+ * never recompute digits which are already known.
+ */
+public final class BigDecimalMath {
+
+    /**
+     * The number of extra digits used by the kernels to compensate rounding errors.
+     */
+    private static final int GUARD_DIGITS = 10;
+
+    /**
+     * The number of correct digits of the double precision estimates.
+     */
+    private static final int DOUBLE_DIGITS = 15;
+
+    /**
+     * The constant 2 as a {@link BigDecimal}.
+     */
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
+    /**
+     * The constant 0.1 as a {@link BigDecimal}.
+     */
+    private static final BigDecimal ONE_TENTH = BigDecimal.valueOf(1, 1);
+
+    /**
+     * Euler's number, e = sum of 1 / n!.
+     */
+    private static final LazyConstant E = new LazyConstant(digits -> new BigDecimal(inverseFactorialSum(digits), digits));
+
+    /**
+     * The ratio of the circumference of a circle to its diameter, pi = 16 atan(1/5) - 4 atan(1/239)
+     * (Machin's formula).
+     */
+    private static final LazyConstant PI = new LazyConstant(digits -> new BigDecimal(atanInverse(5, digits).shiftLeft(4).subtract(atanInverse(239, digits).shiftLeft(2)), digits));
+
+    /**
+     * The natural logarithm of 2, ln(2) = 2 atanh(1/3).
+     */
+    private static final LazyConstant LN2 = new LazyConstant(digits -> new BigDecimal(atanhInverse(3, digits).shiftLeft(1), digits));
+
+    /**
+     * The natural logarithm of 10, ln(10) = 6 atanh(1/3) + 2 atanh(1/9).
+     */
+    private static final LazyConstant LN10 = new LazyConstant(digits -> new BigDecimal(atanhInverse(3, digits).multiply(BigInteger.valueOf(6)).add(atanhInverse(9, digits).shiftLeft(1)), digits));
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private BigDecimalMath() {
+    }
+
+    /**
+     * Returns Euler's number e rounded to the given math context.
+     *
+     * @param mc the math context to round to
+     * @return e
+     * @throws ArithmeticException if the precision of the math context is unlimited
+     */
+    public static BigDecimal e(MathContext mc) {
+        checkPrecision(mc);
+        return E.get(mc);
+    }
+
+    /**
+     * Returns pi rounded to the given math context.
+     *
+     * @param mc the math context to round to
+     * @return pi
+     * @throws ArithmeticException if the precision of the math context is unlimited
+     */
+    public static BigDecimal pi(MathContext mc) {
+        checkPrecision(mc);
+        return PI.get(mc);
+    }
+
+    /**
+     * Returns the natural logarithm of 2 rounded to the given math context.
+     *
+     * @param mc the math context to round to
+     * @return ln(2)
+     * @throws ArithmeticException if the precision of the math context is unlimited
+     */
+    public static BigDecimal ln2(MathContext mc) {
+        checkPrecision(mc);
+        return LN2.get(mc);
+    }
+
+    /**
+     * Returns the natural logarithm of 10 rounded to the given math context.
+     *
+     * @param mc the math context to round to
+     * @return ln(10)
+     * @throws ArithmeticException if the precision of the math context is unlimited
+     */
+    public static BigDecimal ln10(MathContext mc) {
+        checkPrecision(mc);
+        return LN10.get(mc);
+    }
+
+    /**
+     * Returns Euler's number raised to the power of {@code x} (exp(x)) rounded to the given math
+     * context.
+     *
+     * @param x  the exponent
+     * @param mc the math context to round to
+     * @return exp(x)
+     * @throws ArithmeticException if the precision of the math context is unlimited or the result
+     *                             overflows
+     */
+    public static BigDecimal exp(BigDecimal x, MathContext mc) {
+        checkPrecision(mc);
+        if (x.signum() == 0) return BigDecimal.ONE.round(mc);
+        // |x| >= 10^10 needs more than an int of powers of 2, reject it before ln(2) is computed
+        if (magnitude(x) > 10) throw new ArithmeticException("Overflow");
+        final int precision = mc.getPrecision() + GUARD_DIGITS + Math.max(0, magnitude(x));
+        final int halvings = (int) Math.sqrt(precision);
+        final MathContext wc = new MathContext(precision + halvings / 3 + 1);
+
+        // x = k * ln(2) + r with |r| <= ln(2) / 2
+        final BigDecimal k = x.divide(LN2.get(wc), 0, RoundingMode.HALF_EVEN);
+        final int power;
+        try {
+            power = k.intValueExact();
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Overflow");
+        }
+        BigDecimal r = x.subtract(LN2.get(wc).multiply(k), wc);
+
+        // exp(r) = exp(r / 2^s)^(2^s)
+        r = r.divide(TWO.pow(halvings), wc);
+        BigDecimal y = taylorExp(r, wc);
+        for (int i = 0; i < halvings; i++) y = y.multiply(y, wc);
+        return y.multiply(TWO.pow(power, wc), mc);
+    }
+
+    /**
+     * Returns the natural logarithm of {@code x} (ln(x)) rounded to the given math context.
+     *
+     * @param x  the number to compute the natural logarithm of
+     * @param mc the math context to round to
+     * @return ln(x)
+     * @throws ArithmeticException if {@code x} is not positive or the precision of the math context
+     *                             is unlimited
+     */
+    public static BigDecimal ln(BigDecimal x, MathContext mc) {
+        checkPrecision(mc);
+        if (x.signum() <= 0) throw new ArithmeticException("Logarithm of non-positive number");
+        if (x.compareTo(BigDecimal.ONE) == 0) return BigDecimal.ZERO;
+
+        // x = u * 10^e with 0.1 <= u < 10
+        final int e = x.compareTo(ONE_TENTH) >= 0 && x.compareTo(BigDecimal.TEN) < 0 ? 0 : magnitude(x) - 1;
+        final BigDecimal u = x.movePointLeft(e);
+        final BigDecimal d = u.subtract(BigDecimal.ONE);
+        final int cancellation = d.signum() == 0 ? 0 : Math.max(0, -magnitude(d));
+        final int precision = mc.getPrecision() + GUARD_DIGITS + cancellation + digits(e);
+        final MathContext wc = new MathContext(precision);
+        final BigDecimal lnU = d.signum() == 0 ? BigDecimal.ZERO : halleyLn(u, precision);
+        return e == 0 ? lnU.round(mc) : lnU.add(LN10.get(wc).multiply(BigDecimal.valueOf(e)), wc).round(mc);
+    }
+
+    /**
+     * Returns the logarithm of {@code x} with base {@code base} (log_base(x)) rounded to the given
+     * math context.
+     *
+     * @param x    the number to compute the logarithm of
+     * @param base the base of the logarithm
+     * @param mc   the math context to round to
+     * @return log_base(x)
+     * @throws ArithmeticException if {@code x} or {@code base} is not positive, {@code base} is one
+     *                             or the precision of the math context is unlimited
+     */
+    public static BigDecimal log(BigDecimal x, BigDecimal base, MathContext mc) {
+        checkPrecision(mc);
+        if (base.compareTo(BigDecimal.ONE) == 0) throw new ArithmeticException("Logarithm with base one");
+        final MathContext wc = new MathContext(mc.getPrecision() + GUARD_DIGITS);
+        return ln(x, wc).divide(ln(base, wc), mc);
+    }
+
+    /**
+     * Returns {@code x} raised to the power of {@code y} (x^y) rounded to the given math context.
+     *
+     * @param x  the base
+     * @param y  the exponent
+     * @param mc the math context to round to
+     * @return x^y
+     * @throws ArithmeticException if {@code x} is not positive, the precision of the math context is
+     *                             unlimited or the result overflows
+     */
+    public static BigDecimal pow(BigDecimal x, BigDecimal y, MathContext mc) {
+        checkPrecision(mc);
+        if (x.signum() <= 0) throw new ArithmeticException("Power of non-positive number");
+        if (y.signum() == 0) return BigDecimal.ONE.round(mc);
+        if (isIntegral(y) && magnitude(y) <= 9) {
+            final int n = y.intValueExact();
+            return x.pow(n, new MathContext(mc.getPrecision() + GUARD_DIGITS)).round(mc);
+        }
+        // the absolute error of y * ln(x) is the relative error of the result
+        final BigDecimal estimate = y.multiply(ln(x, MathContext.DECIMAL64));
+        final MathContext wc = new MathContext(mc.getPrecision() + GUARD_DIGITS + Math.max(0, magnitude(estimate)));
+        return exp(y.multiply(ln(x, wc), wc), mc);
+    }
+
+    /**
+     * Sums the Taylor series of exp(r) for small {@code |r|}.
+     *
+     * @param r  the exponent
+     * @param mc the working precision
+     * @return exp(r)
+     */
+    private static BigDecimal taylorExp(BigDecimal r, MathContext mc) {
+        final BigDecimal epsilon = BigDecimal.ONE.movePointLeft(mc.getPrecision());
+        BigDecimal sum = BigDecimal.ONE.add(r, mc);
+        BigDecimal term = r;
+        for (int n = 2; term.abs().compareTo(epsilon) > 0; n++) {
+            term = term.multiply(r, mc).divide(BigDecimal.valueOf(n), mc);
+            sum = sum.add(term, mc);
+        }
+        return sum;
+    }
+
+    /**
+     * Computes ln(u) for 0.1 <= u < 10 by Halley iterations y = y + 2 (u - exp(y)) / (u + exp(y))
+     * starting from the double precision estimate. Every iteration at least doubles the number of
+     * correct digits, so the working precision is doubled from step to step.
+     *
+     * @param u         the number to compute the natural logarithm of
+     * @param precision the target precision
+     * @return ln(u)
+     */
+    private static BigDecimal halleyLn(BigDecimal u, int precision) {
+        final Deque<Integer> steps = new ArrayDeque<>();
+        for (int p = precision; p > DOUBLE_DIGITS; p = p / 2 + 1) steps.push(p);
+        BigDecimal y = BigDecimal.valueOf(Math.log(u.doubleValue()));
+        if (steps.isEmpty()) steps.push(precision);
+        while (!steps.isEmpty()) {
+            final MathContext mc = new MathContext(steps.pop() + 2);
+            final BigDecimal ey = exp(y, mc);
+            y = y.add(TWO.multiply(u.subtract(ey, mc)).divide(u.add(ey, mc), mc), mc);
+        }
+        return y;
+    }
+
+    /**
+     * Computes the sum of 1 / k! for k >= 0 as an integer scaled by {@code 10^digits}.
+     *
+     * @param digits the number of decimal digits
+     * @return e * 10^digits
+     */
+    private static BigInteger inverseFactorialSum(int digits) {
+        BigInteger term = BigInteger.TEN.pow(digits);
+        BigInteger sum = term;
+        for (long k = 1; term.signum() != 0; k++) {
+            term = term.divide(BigInteger.valueOf(k));
+            sum = sum.add(term);
+        }
+        return sum;
+    }
+
+    /**
+     * Computes atan(1 / n) as an integer scaled by {@code 10^digits}.
+     *
+     * @param n      the inverse of the argument, at least 2
+     * @param digits the number of decimal digits
+     * @return atan(1 / n) * 10^digits
+     */
+    private static BigInteger atanInverse(int n, int digits) {
+        final BigInteger n2 = BigInteger.valueOf((long) n * n);
+        BigInteger power = BigInteger.TEN.pow(digits).divide(BigInteger.valueOf(n));
+        BigInteger sum = power;
+        for (long k = 3; power.signum() != 0; k += 2) {
+            power = power.divide(n2);
+            final BigInteger term = power.divide(BigInteger.valueOf(k));
+            sum = (k & 2) == 0 ? sum.add(term) : sum.subtract(term);
+        }
+        return sum;
+    }
+
+    /**
+     * Computes atanh(1 / n) as an integer scaled by {@code 10^digits}.
+     *
+     * @param n      the inverse of the argument, at least 2
+     * @param digits the number of decimal digits
+     * @return atanh(1 / n) * 10^digits
+     */
+    private static BigInteger atanhInverse(int n, int digits) {
+        final BigInteger n2 = BigInteger.valueOf((long) n * n);
+        BigInteger power = BigInteger.TEN.pow(digits).divide(BigInteger.valueOf(n));
+        BigInteger sum = power;
+        for (long k = 3; power.signum() != 0; k += 2) {
+            power = power.divide(n2);
+            sum = sum.add(power.divide(BigInteger.valueOf(k)));
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the position of the most significant digit of {@code x} relative to the decimal point,
+     * that is {@code floor(log10(|x|)) + 1} for non-zero {@code x}.
+     *
+     * @param x the number
+     * @return the position of the most significant digit
+     */
+    static int magnitude(BigDecimal x) {
+        return x.precision() - x.scale();
+    }
+
+    /**
+     * Returns {@code true} if the given number has no fractional part.
+     *
+     * @param x the number to check
+     * @return {@code true} if the given number has no fractional part
+     */
+    static boolean isIntegral(BigDecimal x) {
+        return x.signum() == 0 || x.scale() <= 0 || x.stripTrailingZeros().scale() <= 0;
+    }
+
+    private static int digits(int n) {
+        return n == 0 ? 0 : (int) Math.log10(Math.abs((long) n)) + 1;
+    }
+
+    private static void checkPrecision(MathContext mc) {
+        if (mc.getPrecision() == 0) throw new ArithmeticException("Unlimited precision");
+    }
+}
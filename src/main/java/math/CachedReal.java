@@ -0,0 +1,45 @@
+package math;
+
+import java.math.BigDecimal;
+
+/**
+ * An immutable cached real representation of a number together with the evaluation context it was
+ * computed in. Numbers keep one instance, so repeated conversions in the same context do not
+ * allocate.
+ */
+final class CachedReal {
+
+    /**
+     * The evaluation context the value was computed in.
+     */
+    private final EvaluationContext context;
+
+    /**
+     * The real representation of the number.
+     */
+    private final BigDecimal value;
+
+    /**
+     * Constructs and initializes a cached real representation.
+     *
+     * @param context the evaluation context the value was computed in
+     * @param value   the real representation of the number
+     */
+    CachedReal(EvaluationContext context, BigDecimal value) {
+        this.context = context;
+        this.value = value;
+    }
+
+    /**
+     * Returns the cached value if it was computed in the given evaluation context.
+     *
+     * @param cache   the cache to look up, may be {@code null}
+     * @param context the evaluation context
+     * @return the cached value or {@code null} if there is none for the evaluation context
+     */
+    static BigDecimal lookup(CachedReal cache, EvaluationContext context) {
+        if (cache == null) return null;
+        final EvaluationContext c = cache.context;
+        return c == context || c.getScale() == context.getScale() && c.getRoundingMode() == context.getRoundingMode() ? cache.value : null;
+    }
+}
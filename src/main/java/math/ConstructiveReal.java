@@ -0,0 +1,694 @@
+package math;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Represents an exact (constructive) real number. A constructive real is a lazily evaluated
+ * expression DAG which can be approximated to any requested precision, so no working precision
+ * has to be chosen upfront.
+ *
+ * <p>An approximation to precision {@code p} is an integer {@code a} with
+ * {@code |a * 2^p - x| < 2^p}. Every node caches its best approximation: a request for a coarser
+ * precision is answered by scaling the cached approximation, only a request for a finer precision
+ * recomputes the node. Square roots refine their previous approximation with a Newton step, so
+ * evaluating at a higher precision reuses the work done at a lower one.
+ *
+ * <p>The sign of a constructive real equal to 0 cannot be decided, therefore all comparisons take
+ * a precision below which numbers are considered equal. Inverting a number equal to 0 does not
+ * terminate, callers must check it against 0 to a sufficient precision first.
+ *
+ * <p>Constructive reals are immutable and can be shared between threads, concurrent approximations
+ * only race to store the cached approximation.
+ *
+ * @see <a href="https://doi.org/10.1145/91556.91644">H.-J. Boehm, Constructive real interpretation of numerical programs</a>
+ */
+public abstract class ConstructiveReal {
+
+    /**
+     * The constant 0 as a {@link ConstructiveReal}.
+     */
+    public static final ConstructiveReal ZERO = valueOf(BigInteger.ZERO);
+
+    /**
+     * The constant 1 as a {@link ConstructiveReal}.
+     */
+    public static final ConstructiveReal ONE = valueOf(BigInteger.ONE);
+
+    /**
+     * The constant <i>pi</i> as a {@link ConstructiveReal}.
+     */
+    public static final ConstructiveReal PI = new Constant(BigDecimalMath::pi);
+
+    /**
+     * The constant <i>e</i> as a {@link ConstructiveReal}.
+     */
+    public static final ConstructiveReal E = new Constant(BigDecimalMath::e);
+
+    /**
+     * The constant ln(2) as a {@link ConstructiveReal}.
+     */
+    private static final ConstructiveReal LN2 = new Constant(BigDecimalMath::ln2);
+
+    /**
+     * log10(2), used to convert binary to decimal precisions.
+     */
+    private static final double LOG10_2 = Math.log10(2);
+
+    /**
+     * The largest binary precision (in either direction) an approximation may be requested with.
+     */
+    private static final int MAX_PRECISION = 1 << 28;
+
+    private static final BigInteger FIVE = BigInteger.valueOf(5);
+
+    /**
+     * The best approximation computed so far or {@code null} if there is none yet.
+     */
+    private volatile Approximation approximation;
+
+    /**
+     * Computes an approximation of this number to the given precision, that is an integer
+     * {@code a} with {@code |a * 2^p - x| < 2^p}. This method is only called by
+     * {@link #getApproximation(int)} if the cached approximation is not precise enough.
+     *
+     * @param p the binary precision
+     * @return an approximation of this number to the given precision
+     */
+    protected abstract BigInteger approximate(int p);
+
+    /**
+     * Returns the given integer as a constructive real.
+     *
+     * @param value the integer
+     * @return the given integer as a constructive real
+     */
+    public static ConstructiveReal valueOf(BigInteger value) {
+        return new Whole(Objects.requireNonNull(value, "value null"));
+    }
+
+    /**
+     * Returns the given rational number as a constructive real.
+     *
+     * @param value the rational number
+     * @return the given rational number as a constructive real
+     */
+    public static ConstructiveReal valueOf(Rational value) {
+        return value.getDenominator().equals(BigInteger.ONE) ? valueOf(value.getNumerator())
+                : new Quotient(value.getNumerator(), value.getDenominator());
+    }
+
+    /**
+     * Returns the exact value of the given decimal number as a constructive real.
+     *
+     * @param value the decimal number
+     * @return the given decimal number as a constructive real
+     */
+    public static ConstructiveReal valueOf(BigDecimal value) {
+        final int scale = value.scale();
+        return scale <= 0 ? valueOf(value.toBigInteger()) : new Quotient(value.unscaledValue(), BigInteger.TEN.pow(scale));
+    }
+
+    /**
+     * Returns an approximation of this number to the given binary precision, that is an integer
+     * {@code a} with {@code |a * 2^p - x| < 2^p}.
+     *
+     * @param p the binary precision
+     * @return an approximation of this number to the given precision
+     * @throws ArithmeticException if the precision is out of range
+     */
+    public final BigInteger getApproximation(int p) {
+        if (p < -MAX_PRECISION || p > MAX_PRECISION) throw new ArithmeticException("Precision overflow");
+        final Approximation a = approximation;
+        if (a != null && p >= a.precision) return scale(a.value, a.precision - p);
+        final BigInteger value = approximate(p);
+        if (a == null || p < a.precision) approximation = new Approximation(p, value);
+        return value;
+    }
+
+    /**
+     * Returns the binary precision of the best approximation computed so far.
+     *
+     * @return the binary precision of the best approximation or {@link Integer#MAX_VALUE}
+     * if there is none
+     */
+    public final int getCachedPrecision() {
+        final Approximation a = approximation;
+        return a == null ? Integer.MAX_VALUE : a.precision;
+    }
+
+    /**
+     * Returns the position of the most significant bit of this number, if it can be determined
+     * with an approximation to precision {@code p - 1}. The result {@code m} satisfies
+     * {@code 2^(m-1) < |x| < 2^(m+1)}.
+     *
+     * @param p the precision
+     * @return the position of the most significant bit or {@link Integer#MIN_VALUE} if
+     * {@code |x|} might be less than {@code 2^p}
+     */
+    final int msd(int p) {
+        final Approximation a = approximation;
+        if (a != null && a.value.abs().compareTo(BigInteger.ONE) > 0) return a.precision + a.value.abs().bitLength() - 1;
+        final BigInteger value = getApproximation(p - 1).abs();
+        return value.compareTo(BigInteger.ONE) <= 0 ? Integer.MIN_VALUE : p - 1 + value.bitLength() - 1;
+    }
+
+    /**
+     * Returns the same as {@link #msd(int)}, but tries coarse precisions first, so large numbers
+     * are not approximated to precision {@code p}.
+     *
+     * @param p the finest precision
+     * @return the position of the most significant bit or {@link Integer#MIN_VALUE} if
+     * {@code |x|} might be less than {@code 2^p}
+     */
+    final int iterMsd(int p) {
+        for (int prec = 0; prec > p + 30; prec = prec * 3 / 2 - 16) {
+            final int msd = msd(prec);
+            if (msd != Integer.MIN_VALUE) return msd;
+        }
+        return msd(p);
+    }
+
+    /**
+     * Returns the position of the most significant bit of this number. If this number is 0, the
+     * precision is refined until it overflows.
+     *
+     * @return the position of the most significant bit
+     * @throws ArithmeticException if this number is 0
+     */
+    final int msd() {
+        int msd;
+        for (int prec = 0; (msd = msd(prec)) == Integer.MIN_VALUE; prec = prec * 3 / 2 - 16)
+            if (prec < -MAX_PRECISION) throw new ArithmeticException("Precision overflow");
+        return msd;
+    }
+
+    /**
+     * Returns the sign of this number, if {@code |x| >= 2^p}.
+     *
+     * @param p the precision below which this number is considered 0
+     * @return -1, 0 or 1 if this number is negative, less than {@code 2^p} in magnitude or positive
+     */
+    public final int signum(int p) {
+        final BigInteger a = getApproximation(p - 1);
+        return a.abs().compareTo(BigInteger.ONE) <= 0 ? 0 : a.signum();
+    }
+
+    /**
+     * Compares this number with the given number, if they differ by at least {@code 2^p}.
+     *
+     * @param other the number to compare with
+     * @param p     the precision below which both numbers are considered equal
+     * @return -1, 0 or 1 if this number is less than, approximately equal to or greater than the
+     * given number
+     */
+    public final int compareTo(ConstructiveReal other, int p) {
+        return subtract(other).signum(p);
+    }
+
+    /**
+     * Returns the sum of this number and the given number.
+     *
+     * @param other the number to add
+     * @return {@code this + other}
+     */
+    public final ConstructiveReal add(ConstructiveReal other) {
+        return new Sum(this, other);
+    }
+
+    /**
+     * Returns the negation of this number.
+     *
+     * @return {@code -this}
+     */
+    public final ConstructiveReal negate() {
+        return new Negation(this);
+    }
+
+    /**
+     * Returns the difference of this number and the given number.
+     *
+     * @param other the number to subtract
+     * @return {@code this - other}
+     */
+    public final ConstructiveReal subtract(ConstructiveReal other) {
+        return new Sum(this, other.negate());
+    }
+
+    /**
+     * Returns the product of this number and the given number.
+     *
+     * @param other the number to multiply with
+     * @return {@code this * other}
+     */
+    public final ConstructiveReal multiply(ConstructiveReal other) {
+        return new Product(this, other);
+    }
+
+    /**
+     * Returns the multiplicative inverse of this number. Approximating the result does not
+     * terminate if this number is 0.
+     *
+     * @return {@code 1 / this}
+     */
+    public final ConstructiveReal inverse() {
+        return new Inverse(this);
+    }
+
+    /**
+     * Returns the quotient of this number and the given number. Approximating the result does not
+     * terminate if the given number is 0.
+     *
+     * @param other the divisor
+     * @return {@code this / other}
+     */
+    public final ConstructiveReal divide(ConstructiveReal other) {
+        return new Product(this, other.inverse());
+    }
+
+    /**
+     * Returns this number multiplied by {@code 2^n}.
+     *
+     * @param n the number of bits to shift by, may be negative
+     * @return {@code this * 2^n}
+     */
+    public final ConstructiveReal shiftLeft(int n) {
+        return n == 0 ? this : new Shift(this, n);
+    }
+
+    /**
+     * Returns this number raised to the power of the given integer, computed by repeated squaring.
+     * Approximating the result does not terminate if this number is 0 and the exponent is negative.
+     *
+     * @param n the exponent
+     * @return {@code this^n}
+     */
+    public final ConstructiveReal pow(BigInteger n) {
+        if (n.signum() < 0) return pow(n.negate()).inverse();
+        ConstructiveReal result = ONE, square = this;
+        for (int i = 0, length = n.bitLength(); i < length; i++) {
+            if (n.testBit(i)) result = result == ONE ? square : result.multiply(square);
+            if (i + 1 < length) square = square.multiply(square);
+        }
+        return result;
+    }
+
+    /**
+     * Returns this number raised to the power of the given number ({@code exp(y * ln(x))}). This
+     * number must be positive.
+     *
+     * @param y the exponent
+     * @return {@code this^y}
+     */
+    public final ConstructiveReal pow(ConstructiveReal y) {
+        return ln().multiply(y).exp();
+    }
+
+    /**
+     * Returns the square root of this number. Approximating the result throws an
+     * {@link ArithmeticException} if this number is negative.
+     *
+     * @return the square root of this number
+     */
+    public final ConstructiveReal sqrt() {
+        return new SquareRoot(this);
+    }
+
+    /**
+     * Returns Euler’s number raised to the power of this number. The argument is halved until it
+     * is at most 1/2 in magnitude and the result is squared as often.
+     *
+     * @return {@code exp(this)}
+     */
+    public final ConstructiveReal exp() {
+        final BigInteger rough = getApproximation(-10);
+        if (rough.abs().compareTo(BigInteger.valueOf(512)) > 0) {
+            final ConstructiveReal root = shiftLeft(-1).exp();
+            return root.multiply(root);
+        }
+        return new Exponential(this);
+    }
+
+    /**
+     * Returns the natural logarithm of this number. The argument is reduced to the interval
+     * (1/2, 3/2) by inversion, square roots and powers of two. This number must be positive.
+     *
+     * @return {@code ln(this)}
+     * @throws ArithmeticException if this number is negative
+     */
+    public final ConstructiveReal ln() {
+        final BigInteger rough = getApproximation(-4);
+        if (rough.signum() < 0) throw new ArithmeticException("Logarithm of a negative number");
+        if (rough.compareTo(BigInteger.valueOf(8)) <= 0) return inverse().ln().negate();
+        if (rough.compareTo(BigInteger.valueOf(24)) >= 0) {
+            if (rough.compareTo(BigInteger.valueOf(64)) <= 0) return sqrt().sqrt().ln().shiftLeft(2);
+            final int extraBits = rough.bitLength() - 3;
+            return shiftLeft(-extraBits).ln().add(valueOf(BigInteger.valueOf(extraBits)).multiply(LN2));
+        }
+        return new Logarithm(subtract(ONE));
+    }
+
+    /**
+     * Returns this number rounded to the given number of digits after the decimal point. The
+     * number is approximated to a few more binary digits than necessary, so the result is off by
+     * less than one unit in the last place.
+     *
+     * @param scale        the number of digits after the decimal point
+     * @param roundingMode the rounding mode
+     * @return this number rounded to the given scale
+     */
+    public final BigDecimal toBigDecimal(int scale, RoundingMode roundingMode) {
+        final int p = -(int) Math.ceil(scale / LOG10_2) - 4;
+        final BigInteger a = getApproximation(p);
+        final BigDecimal exact = p < 0 ? new BigDecimal(a.multiply(FIVE.pow(-p)), -p) : new BigDecimal(a.shiftLeft(p));
+        return exact.setScale(scale, roundingMode);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal(MyReal.SCALE, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Returns {@code k * 2^n} rounded to the nearest integer.
+     *
+     * @param k the integer to scale
+     * @param n the number of bits to shift by, may be negative
+     * @return the scaled integer
+     */
+    static BigInteger scale(BigInteger k, int n) {
+        return n >= 0 ? k.shiftLeft(n) : k.shiftRight(-n - 1).add(BigInteger.ONE).shiftRight(1);
+    }
+
+    /**
+     * Returns {@code ceil(log2(|n| + 1))}, an upper bound of the number of bits of {@code n}.
+     *
+     * @param n the number
+     * @return an upper bound of the number of bits of {@code n}
+     */
+    private static int boundLog2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(n));
+    }
+
+    /**
+     * An immutable approximation together with its binary precision.
+     */
+    private static final class Approximation {
+
+        /**
+         * The binary precision of the approximation.
+         */
+        private final int precision;
+
+        /**
+         * The approximation scaled by {@code 2^-precision}.
+         */
+        private final BigInteger value;
+
+        private Approximation(int precision, BigInteger value) {
+            this.precision = precision;
+            this.value = value;
+        }
+    }
+
+    /**
+     * An integer.
+     */
+    private static final class Whole extends ConstructiveReal {
+
+        private final BigInteger value;
+
+        private Whole(BigInteger value) {
+            this.value = value;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            return scale(value, -p);
+        }
+    }
+
+    /**
+     * The quotient of two integers, rounded exactly to the requested precision.
+     */
+    private static final class Quotient extends ConstructiveReal {
+
+        private final BigInteger numerator;
+
+        private final BigInteger denominator;
+
+        private Quotient(BigInteger numerator, BigInteger denominator) {
+            this.numerator = numerator;
+            this.denominator = denominator;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            BigInteger n = numerator.abs(), d = denominator.abs();
+            if (p <= 0) n = n.shiftLeft(-p);
+            else d = d.shiftLeft(p);
+            final BigInteger q = n.shiftLeft(1).add(d).divide(d.shiftLeft(1));
+            return numerator.signum() * denominator.signum() < 0 ? q.negate() : q;
+        }
+    }
+
+    /**
+     * A constant computed by a {@link BigDecimalMath} kernel to the requested number of digits.
+     */
+    private static final class Constant extends ConstructiveReal {
+
+        private final Function<MathContext, BigDecimal> value;
+
+        private Constant(Function<MathContext, BigDecimal> value) {
+            this.value = value;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            final int digits = Math.max(0, (int) Math.ceil((3 - p) * LOG10_2)) + 2;
+            final BigDecimal v = value.apply(new MathContext(digits, RoundingMode.HALF_EVEN));
+            final BigDecimal scaled = p <= 0 ? v.multiply(new BigDecimal(BigInteger.ONE.shiftLeft(-p)))
+                    : v.divide(new BigDecimal(BigInteger.ONE.shiftLeft(p)));
+            return scaled.setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+        }
+    }
+
+    /**
+     * The sum of two numbers.
+     */
+    private static final class Sum extends ConstructiveReal {
+
+        private final ConstructiveReal a, b;
+
+        private Sum(ConstructiveReal a, ConstructiveReal b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            return scale(a.getApproximation(p - 2).add(b.getApproximation(p - 2)), -2);
+        }
+    }
+
+    /**
+     * The negation of a number.
+     */
+    private static final class Negation extends ConstructiveReal {
+
+        private final ConstructiveReal x;
+
+        private Negation(ConstructiveReal x) {
+            this.x = x;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            return x.getApproximation(p).negate();
+        }
+    }
+
+    /**
+     * A number multiplied by a power of two.
+     */
+    private static final class Shift extends ConstructiveReal {
+
+        private final ConstructiveReal x;
+
+        private final int n;
+
+        private Shift(ConstructiveReal x, int n) {
+            this.x = x;
+            this.n = n;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            return x.getApproximation(p - n);
+        }
+    }
+
+    /**
+     * The product of two numbers. Each factor is approximated only as precisely as the magnitude
+     * of the other factor requires.
+     */
+    private static final class Product extends ConstructiveReal {
+
+        private final ConstructiveReal a, b;
+
+        private Product(ConstructiveReal a, ConstructiveReal b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            final int halfPrecision = (p >> 1) - 1;
+            ConstructiveReal x = a, y = b;
+            int msdX = x.msd(halfPrecision);
+            if (msdX == Integer.MIN_VALUE) {
+                msdX = y.msd(halfPrecision);
+                if (msdX == Integer.MIN_VALUE) return BigInteger.ZERO;
+                x = b;
+                y = a;
+            }
+            final int precisionY = p - msdX - 3;
+            final BigInteger approximationY = y.getApproximation(precisionY);
+            if (approximationY.signum() == 0) return BigInteger.ZERO;
+            final int msdY = precisionY + approximationY.abs().bitLength() - 1;
+            final int precisionX = p - msdY - 3;
+            final BigInteger approximationX = x.getApproximation(precisionX);
+            return scale(approximationX.multiply(approximationY), precisionX + precisionY - p);
+        }
+    }
+
+    /**
+     * The multiplicative inverse of a number.
+     */
+    private static final class Inverse extends ConstructiveReal {
+
+        private final ConstructiveReal x;
+
+        private Inverse(ConstructiveReal x) {
+            this.x = x;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            final int msd = x.msd();
+            final int precision = msd - (1 - msd - p + 3);
+            final int logScale = -p - precision;
+            if (logScale < 0) return BigInteger.ZERO;
+            final BigInteger divisor = x.getApproximation(precision);
+            final BigInteger abs = divisor.abs();
+            final BigInteger q = BigInteger.ONE.shiftLeft(logScale).add(abs.shiftRight(1)).divide(abs);
+            return divisor.signum() < 0 ? q.negate() : q;
+        }
+    }
+
+    /**
+     * The square root of a number. Coarse approximations use double arithmetic, finer ones refine
+     * the cached approximation of this node with a Newton step.
+     */
+    private static final class SquareRoot extends ConstructiveReal {
+
+        /**
+         * The number of result bits computed with double arithmetic.
+         */
+        private static final int DOUBLE_BITS = 50;
+
+        /**
+         * The number of operand bits used for the double approximation.
+         */
+        private static final int DOUBLE_OPERAND_BITS = 60;
+
+        private final ConstructiveReal x;
+
+        private SquareRoot(ConstructiveReal x) {
+            this.x = x;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            final int maxPrecision = 2 * p - 1;
+            final int msd = x.iterMsd(maxPrecision);
+            if (msd <= maxPrecision) return BigInteger.ZERO;
+            final int resultMsd = msd / 2;
+            final int resultDigits = resultMsd - p;
+            if (resultDigits > DOUBLE_BITS) {
+                final int precision = resultMsd - (resultDigits / 2 + 6);
+                final BigInteger operand = x.getApproximation(2 * precision);
+                final BigInteger last = getApproximation(precision);
+                final BigInteger numerator = scale(last.multiply(last).add(operand), precision - p);
+                return numerator.divide(last).add(BigInteger.ONE).shiftRight(1);
+            }
+            final int precision = (msd - DOUBLE_OPERAND_BITS) & ~1;
+            final int working = precision - DOUBLE_OPERAND_BITS;
+            final double operand = x.getApproximation(precision).shiftLeft(DOUBLE_OPERAND_BITS).doubleValue();
+            if (operand < 0) throw new ArithmeticException("Square root of a negative number");
+            return scale(BigInteger.valueOf((long) Math.sqrt(operand)), working / 2 - p);
+        }
+    }
+
+    /**
+     * Euler’s number raised to the power of a number of magnitude at most 1/2, computed by its
+     * Taylor series.
+     */
+    private static final class Exponential extends ConstructiveReal {
+
+        private final ConstructiveReal x;
+
+        private Exponential(ConstructiveReal x) {
+            this.x = x;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            if (p >= 1) return BigInteger.ZERO;
+            final int calcPrecision = p - boundLog2(2 * (2 - p)) - 4;
+            final int operandPrecision = p - 3;
+            final BigInteger operand = x.getApproximation(operandPrecision);
+            final BigInteger one = BigInteger.ONE.shiftLeft(-calcPrecision);
+            final BigInteger maxError = BigInteger.ONE.shiftLeft(p - 4 - calcPrecision);
+            BigInteger term = one, sum = one;
+            for (int n = 1; term.abs().compareTo(maxError) >= 0; n++) {
+                term = scale(term.multiply(operand), operandPrecision).divide(BigInteger.valueOf(n));
+                sum = sum.add(term);
+            }
+            return scale(sum, calcPrecision - p);
+        }
+    }
+
+    /**
+     * The natural logarithm of {@code 1 + x} for a number {@code x} of magnitude at most 1/2 plus
+     * a bit, computed by its Taylor series.
+     */
+    private static final class Logarithm extends ConstructiveReal {
+
+        private final ConstructiveReal x;
+
+        private Logarithm(ConstructiveReal x) {
+            this.x = x;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            if (p >= 0) return BigInteger.ZERO;
+            final int calcPrecision = p - boundLog2(2 * (2 - 2 * p)) - 4;
+            final int operandPrecision = p - 3;
+            final BigInteger operand = x.getApproximation(operandPrecision);
+            final BigInteger maxError = BigInteger.ONE.shiftLeft(p - 4 - calcPrecision);
+            BigInteger power = scale(operand, operandPrecision - calcPrecision), term = power, sum = power;
+            for (int n = 2; term.abs().compareTo(maxError) >= 0; n++) {
+                power = scale(power.multiply(operand), operandPrecision);
+                term = power.divide(BigInteger.valueOf((n & 1) == 0 ? -n : n));
+                sum = sum.add(term);
+            }
+            return scale(sum, calcPrecision - p);
+        }
+    }
+}
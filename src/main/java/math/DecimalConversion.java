@@ -0,0 +1,293 @@
+package math;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts big integers and decimals from and to their decimal representation in subquadratic
+ * time. Long digit strings are split at a power of ten {@code 10^(LEAF_DIGITS * 2^i)} and both
+ * halves are converted recursively, so the work is dominated by a few multiplications or divisions
+ * of balanced size instead of one digit (or word) at a time.
+ *
+ * <p>Digits are read directly from a {@link CharSequence} range and written directly to an
+ * {@link Appendable}, without copying the whole representation into intermediate strings.
+ */
+public final class DecimalConversion {
+
+    /**
+     * The number of digits converted by {@link BigInteger} itself.
+     */
+    private static final int LEAF_DIGITS = 512;
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private DecimalConversion() {
+    }
+
+    /**
+     * Parses a decimal integer with an optional sign from the given range of characters.
+     *
+     * @param s    the characters to parse
+     * @param from the index of the first character (inclusive)
+     * @param to   the index of the last character (exclusive)
+     * @return the parsed integer
+     * @throws NumberFormatException if the range is not a decimal integer
+     */
+    public static BigInteger parseInteger(CharSequence s, int from, int to) {
+        if (to - from <= LEAF_DIGITS) return new BigInteger(s.subSequence(from, to).toString());
+        final char sign = s.charAt(from);
+        final boolean negative = sign == '-';
+        final int start = negative || sign == '+' ? from + 1 : from;
+        checkDigits(s, start, to);
+        final BigInteger magnitude = parseDigits(s, start, to, new ArrayList<>());
+        return negative ? magnitude.negate() : magnitude;
+    }
+
+    /**
+     * Parses a decimal number in the format of {@link BigDecimal#BigDecimal(String)} (an optional
+     * sign, digits with an optional decimal point and an optional exponent) from the given range
+     * of characters.
+     *
+     * @param s    the characters to parse
+     * @param from the index of the first character (inclusive)
+     * @param to   the index of the last character (exclusive)
+     * @return the parsed decimal number
+     * @throws NumberFormatException if the range is not a decimal number
+     */
+    public static BigDecimal parseDecimal(CharSequence s, int from, int to) {
+        if (to - from <= LEAF_DIGITS) return new BigDecimal(s.subSequence(from, to).toString());
+        int exponentStart = to;
+        for (int i = from; i < to; i++) {
+            final char c = s.charAt(i);
+            if (c == 'e' || c == 'E') {
+                exponentStart = i;
+                break;
+            }
+        }
+        final long exponent = exponentStart == to ? 0 : parseExponent(s, exponentStart + 1, to);
+        final char sign = s.charAt(from);
+        final boolean negative = sign == '-';
+        final int start = negative || sign == '+' ? from + 1 : from;
+        int point = exponentStart;
+        for (int i = start; i < exponentStart; i++)
+            if (s.charAt(i) == '.') {
+                point = i;
+                break;
+            }
+        final int fractionStart = Math.min(point + 1, exponentStart);
+        if (point == start && fractionStart == exponentStart) throw new NumberFormatException("No digits");
+        checkDigits(s, start, point);
+        checkDigits(s, fractionStart, exponentStart);
+        final List<BigInteger> powers = new ArrayList<>();
+        final int fractionDigits = exponentStart - fractionStart;
+        BigInteger unscaled = point == start ? BigInteger.ZERO : parseDigits(s, start, point, powers);
+        if (fractionDigits > 0)
+            unscaled = unscaled.multiply(BigInteger.TEN.pow(fractionDigits)).add(parseDigits(s, fractionStart, exponentStart, powers));
+        final long scale = fractionDigits - exponent;
+        if (scale != (int) scale) throw new NumberFormatException("Scale out of range");
+        return new BigDecimal(negative ? unscaled.negate() : unscaled, (int) scale);
+    }
+
+    /**
+     * Writes the given integer in decimal notation to the given output.
+     *
+     * @param x   the integer to write
+     * @param out the output
+     * @throws IOException if the output throws an exception
+     */
+    public static void writeInteger(BigInteger x, Appendable out) throws IOException {
+        if (x.signum() < 0) {
+            out.append('-');
+            x = x.negate();
+        }
+        if (x.bitLength() <= LEAF_DIGITS * 3) {
+            out.append(x.toString());
+            return;
+        }
+        final List<BigInteger> powers = new ArrayList<>();
+        int level = 0;
+        while (power(powers, level).bitLength() * 2L - 1 <= x.bitLength()) level++;
+        writeDigits(x, level, false, powers, out);
+    }
+
+    /**
+     * Writes the given decimal number to the given output in the format of
+     * {@link BigDecimal#toString()}.
+     *
+     * @param x   the decimal number to write
+     * @param out the output
+     * @throws IOException if the output throws an exception
+     */
+    public static void writeDecimal(BigDecimal x, Appendable out) throws IOException {
+        final BigInteger unscaled = x.unscaledValue();
+        if (unscaled.bitLength() <= LEAF_DIGITS * 3) {
+            out.append(x.toString());
+            return;
+        }
+        if (unscaled.signum() < 0) out.append('-');
+        final BigInteger coefficient = unscaled.abs();
+        final int scale = x.scale(), digits = x.precision();
+        final long adjusted = -(long) scale + digits - 1;
+        if (scale == 0) writeInteger(coefficient, out);
+        else if (scale > 0 && adjusted >= -6) {
+            if (digits > scale) {
+                final BigInteger[] qr = coefficient.divideAndRemainder(BigInteger.TEN.pow(scale));
+                writeInteger(qr[0], out);
+                out.append('.');
+                writePadded(qr[1], scale, out);
+            } else {
+                out.append("0.");
+                for (int i = digits; i < scale; i++) out.append('0');
+                writeInteger(coefficient, out);
+            }
+        } else {
+            final BigInteger[] qr = coefficient.divideAndRemainder(BigInteger.TEN.pow(digits - 1));
+            writeInteger(qr[0], out);
+            if (digits > 1) {
+                out.append('.');
+                writePadded(qr[1], digits - 1, out);
+            }
+            out.append('E');
+            if (adjusted > 0) out.append('+');
+            out.append(Long.toString(adjusted));
+        }
+    }
+
+    /**
+     * Returns the decimal representation written by the given writer as a string.
+     *
+     * @param writer the writer
+     * @return the written decimal representation
+     */
+    static String toString(Writer writer) {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            writer.write(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a decimal representation to an output.
+     */
+    @FunctionalInterface
+    interface Writer {
+
+        /**
+         * Writes the decimal representation to the given output.
+         *
+         * @param out the output
+         * @throws IOException if the output throws an exception
+         */
+        void write(Appendable out) throws IOException;
+    }
+
+    /**
+     * Returns {@code 10^(LEAF_DIGITS * 2^level)}, computing and caching it in the given list.
+     *
+     * @param powers the powers computed so far
+     * @param level  the level of the power
+     * @return the power of ten of the given level
+     */
+    private static BigInteger power(List<BigInteger> powers, int level) {
+        while (powers.size() <= level) {
+            final int size = powers.size();
+            powers.add(size == 0 ? BigInteger.TEN.pow(LEAF_DIGITS) : powers.get(size - 1).multiply(powers.get(size - 1)));
+        }
+        return powers.get(level);
+    }
+
+    /**
+     * Parses the digits of the given range, which must only contain decimal digits.
+     *
+     * @param s      the characters to parse
+     * @param from   the index of the first digit (inclusive)
+     * @param to     the index of the last digit (exclusive)
+     * @param powers the powers of ten computed so far
+     * @return the parsed digits
+     */
+    private static BigInteger parseDigits(CharSequence s, int from, int to, List<BigInteger> powers) {
+        final int n = to - from;
+        if (n <= LEAF_DIGITS) return new BigInteger(s.subSequence(from, to).toString());
+        int level = 0;
+        while ((long) LEAF_DIGITS << (level + 1) < n) level++;
+        final int split = to - (LEAF_DIGITS << level);
+        final BigInteger high = parseDigits(s, from, split, powers);
+        final BigInteger low = parseDigits(s, split, to, powers);
+        return high.multiply(power(powers, level)).add(low);
+    }
+
+    /**
+     * Writes the digits of the given non-negative integer, which must be less than
+     * {@code 10^(LEAF_DIGITS * 2^(level + 1))}.
+     *
+     * @param x      the integer to write
+     * @param level  the level of the integer
+     * @param padded {@code true} to pad the digits with leading zeros to
+     *               {@code LEAF_DIGITS * 2^(level + 1)} digits
+     * @param powers the powers of ten computed so far
+     * @param out    the output
+     * @throws IOException if the output throws an exception
+     */
+    private static void writeDigits(BigInteger x, int level, boolean padded, List<BigInteger> powers, Appendable out) throws IOException {
+        if (level < 0) {
+            final String digits = x.toString();
+            if (padded) for (int i = digits.length(); i < LEAF_DIGITS; i++) out.append('0');
+            out.append(digits);
+            return;
+        }
+        final BigInteger[] qr = x.divideAndRemainder(power(powers, level));
+        if (padded || qr[0].signum() != 0) writeDigits(qr[0], level - 1, padded, powers, out);
+        writeDigits(qr[1], level - 1, padded || qr[0].signum() != 0, powers, out);
+    }
+
+    /**
+     * Writes the given non-negative integer with leading zeros to the given number of digits.
+     *
+     * @param x      the integer to write
+     * @param digits the number of digits
+     * @param out    the output
+     * @throws IOException if the output throws an exception
+     */
+    private static void writePadded(BigInteger x, int digits, Appendable out) throws IOException {
+        final int length = x.signum() == 0 ? 1 : new BigDecimal(x).precision();
+        for (int i = length; i < digits; i++) out.append('0');
+        writeInteger(x, out);
+    }
+
+    /**
+     * Checks that the given range only contains decimal digits.
+     *
+     * @param s    the characters to check
+     * @param from the index of the first character (inclusive)
+     * @param to   the index of the last character (exclusive)
+     * @throws NumberFormatException if the range contains other characters
+     */
+    private static void checkDigits(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') throw new NumberFormatException("Illegal digit " + c);
+        }
+    }
+
+    /**
+     * Parses the exponent of a decimal number.
+     *
+     * @param s    the characters to parse
+     * @param from the index of the first character (inclusive)
+     * @param to   the index of the last character (exclusive)
+     * @return the exponent
+     * @throws NumberFormatException if the range is not an integer in range
+     */
+    private static long parseExponent(CharSequence s, int from, int to) {
+        if (to - from > 11) throw new NumberFormatException("Exponent overflow");
+        return Long.parseLong(s.subSequence(from, to).toString());
+    }
+}
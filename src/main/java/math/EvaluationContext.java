@@ -0,0 +1,318 @@
+package math;
+
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+/**
+ * Represents the precision settings of an evaluation. An evaluation context is passed through the
+ * evaluation of an arithmetic expression and all {@link MyNumber} operations, so the precision of
+ * inexact (real) numbers can be chosen per evaluation.
+ *
+ * <ul>
+ *     <li>The scale and rounding mode are used for every real result.</li>
+ *     <li>The math context is used for square roots, exponentials and logarithms.</li>
+ * </ul>
+ *
+ * <p>A context with deferred rounding ({@link #withDeferredRounding(int)}) evaluates whole
+ * subtrees in its {@link #intermediate()} context, which carries a few guard digits, and rounds
+ * only the final result with {@link #round(MyNumber)}.
+ *
+ * <p>A context with exact reals ({@link #withExactReals()}) turns every operand into a
+ * {@link MyConstructiveReal}, so no operation rounds at all and the scale only determines how the
+ * result is printed and compared.
+ */
+public final class EvaluationContext {
+
+    /**
+     * The number of significant digits the math context has more than the scale, if it is derived
+     * from the scale.
+     */
+    private static final int EXTRA_DIGITS = 19;
+
+    /**
+     * The default limit of the number of bits of a power computed by {@code expt}.
+     */
+    public static final long DEFAULT_POWER_LIMIT = 1L << 24;
+
+    /**
+     * The default evaluation context with scale {@link MyReal#SCALE}, rounding mode
+     * {@link RoundingMode#HALF_UP} and math context {@link MathContext#DECIMAL128}.
+     */
+    public static final EvaluationContext DEFAULT = new EvaluationContext(MyReal.SCALE, RoundingMode.HALF_UP, MathContext.DECIMAL128);
+
+    /**
+     * The scale of real numbers.
+     */
+    private final int scale;
+
+    /**
+     * The rounding mode of real numbers.
+     */
+    private final RoundingMode roundingMode;
+
+    /**
+     * The math context of square roots, exponentials and logarithms.
+     */
+    private final MathContext mathContext;
+
+    /**
+     * The number of guard digits of intermediate results if rounding is deferred, otherwise 0.
+     */
+    private final int guardDigits;
+
+    /**
+     * {@code true} if this is the intermediate context of a context with deferred rounding.
+     */
+    private final boolean intermediate;
+
+    /**
+     * {@code true} if operands are evaluated as exact (constructive) reals.
+     */
+    private final boolean exact;
+
+    /**
+     * The largest number of bits of the magnitude or exact representation of a power.
+     */
+    private final long powerLimit;
+
+    /**
+     * The intermediate context if rounding is deferred, otherwise this context.
+     */
+    private final EvaluationContext intermediateContext;
+
+    /**
+     * Constructs and initializes an evaluation context with the given scale and rounding mode
+     * {@link RoundingMode#HALF_UP}. The math context keeps 19 digits more than the scale.
+     *
+     * @param scale the scale of real numbers
+     * @throws IllegalArgumentException if the scale is negative
+     */
+    public EvaluationContext(int scale) {
+        this(scale, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * Constructs and initializes an evaluation context with the given scale and rounding mode. The
+     * math context keeps 19 digits more than the scale.
+     *
+     * @param scale        the scale of real numbers
+     * @param roundingMode the rounding mode of real numbers
+     * @throws IllegalArgumentException if the scale is negative
+     * @throws NullPointerException     if the rounding mode is {@code null}
+     */
+    public EvaluationContext(int scale, RoundingMode roundingMode) {
+        this(scale, roundingMode, new MathContext(scale + EXTRA_DIGITS, roundingMode));
+    }
+
+    /**
+     * Constructs and initializes an evaluation context with the given scale, rounding mode and math
+     * context.
+     *
+     * @param scale        the scale of real numbers
+     * @param roundingMode the rounding mode of real numbers
+     * @param mathContext  the math context of square roots, exponentials and logarithms
+     * @throws IllegalArgumentException if the scale is negative or the math context has unlimited
+     *                                  precision
+     * @throws NullPointerException     if the rounding mode or math context is {@code null}
+     */
+    public EvaluationContext(int scale, RoundingMode roundingMode, MathContext mathContext) {
+        this(scale, roundingMode, mathContext, 0, false, false, DEFAULT_POWER_LIMIT);
+    }
+
+    private EvaluationContext(int scale, RoundingMode roundingMode, MathContext mathContext, int guardDigits, boolean intermediate, boolean exact, long powerLimit) {
+        if (scale < 0) throw new IllegalArgumentException("negative scale");
+        if (Objects.requireNonNull(mathContext, "math context null").getPrecision() == 0)
+            throw new IllegalArgumentException("unlimited precision");
+        if (guardDigits < 0) throw new IllegalArgumentException("negative guard digits");
+        if (powerLimit <= 0) throw new IllegalArgumentException("non-positive power limit");
+        this.scale = scale;
+        this.roundingMode = Objects.requireNonNull(roundingMode, "rounding mode null");
+        this.mathContext = mathContext;
+        this.guardDigits = guardDigits;
+        this.intermediate = intermediate;
+        this.exact = exact;
+        this.powerLimit = powerLimit;
+        intermediateContext = guardDigits == 0 ? this : new EvaluationContext(scale + guardDigits, roundingMode,
+                new MathContext(mathContext.getPrecision() + guardDigits, mathContext.getRoundingMode()), 0, true, exact, powerLimit);
+    }
+
+    /**
+     * Returns a context with the same precision as this context, which defers rounding: subtrees
+     * are evaluated with the given number of guard digits and only the final result is rounded to
+     * the scale of this context.
+     *
+     * @param guardDigits the number of guard digits of intermediate results, 0 to round every
+     *                    operation
+     * @return a context with deferred rounding
+     * @throws IllegalArgumentException if the number of guard digits is negative
+     */
+    public EvaluationContext withDeferredRounding(int guardDigits) {
+        return new EvaluationContext(scale, roundingMode, mathContext, guardDigits, false, exact, powerLimit);
+    }
+
+    /**
+     * Returns a context with the same precision as this context, which evaluates operands as exact
+     * (constructive) reals. Results are {@link MyConstructiveReal}s, which are printed and compared
+     * at the scale of this context and can be converted to any other precision afterwards.
+     *
+     * @return a context with exact reals
+     */
+    public EvaluationContext withExactReals() {
+        return new EvaluationContext(scale, roundingMode, mathContext, guardDigits, intermediate, true, powerLimit);
+    }
+
+    /**
+     * Returns a context with the same precision as this context and the given power limit. A
+     * power whose magnitude would need more bits than the limit is rejected, an exact rational
+     * power whose numerator and denominator would need more bits is approximated by a real number.
+     *
+     * @param powerLimit the largest number of bits of a power
+     * @return a context with the given power limit
+     * @throws IllegalArgumentException if the power limit is not positive
+     */
+    public EvaluationContext withPowerLimit(long powerLimit) {
+        return new EvaluationContext(scale, roundingMode, mathContext, guardDigits, intermediate, exact, powerLimit);
+    }
+
+    /**
+     * Returns the scale of real numbers.
+     *
+     * @return the scale of real numbers
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Returns the rounding mode of real numbers.
+     *
+     * @return the rounding mode of real numbers
+     */
+    public RoundingMode getRoundingMode() {
+        return roundingMode;
+    }
+
+    /**
+     * Returns the math context of square roots, exponentials and logarithms.
+     *
+     * @return the math context of square roots, exponentials and logarithms
+     */
+    public MathContext getMathContext() {
+        return mathContext;
+    }
+
+    /**
+     * Returns the number of guard digits of intermediate results if rounding is deferred.
+     *
+     * @return the number of guard digits or 0 if every operation is rounded
+     */
+    public int getGuardDigits() {
+        return guardDigits;
+    }
+
+    /**
+     * Returns {@code true} if this context defers rounding to the final result.
+     *
+     * @return {@code true} if this context defers rounding to the final result
+     */
+    public boolean isDeferred() {
+        return guardDigits > 0;
+    }
+
+    /**
+     * Returns {@code true} if this is the intermediate context of a context with deferred rounding.
+     *
+     * @return {@code true} if this is an intermediate context
+     */
+    public boolean isIntermediate() {
+        return intermediate;
+    }
+
+    /**
+     * Returns the largest number of bits of the magnitude or exact representation of a power.
+     *
+     * @return the power limit in bits
+     */
+    public long getPowerLimit() {
+        return powerLimit;
+    }
+
+    /**
+     * Returns {@code true} if this context evaluates operands as exact (constructive) reals.
+     *
+     * @return {@code true} if this context evaluates operands as exact reals
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Returns the value of an operand (a literal or the value of an identifier) in this context.
+     * If this context evaluates with exact reals, the operand is converted to an exact real,
+     * otherwise it is returned as it is.
+     *
+     * @param n the value of the operand
+     * @return the value of the operand in this context
+     */
+    public MyNumber operand(MyNumber n) {
+        return exact ? MyConstructiveReal.valueOf(n, this) : n;
+    }
+
+    /**
+     * Returns the value bound to an identifier in this context. A rational number with the
+     * denominator 1 is normalized to an integer, like the results of all operations, so an
+     * identifier evaluates to the same number however its value was created; the value is then
+     * converted like {@link #operand(MyNumber) operands}.
+     *
+     * @param n the value bound to the identifier
+     * @return the value of the identifier in this context
+     */
+    public MyNumber identifier(MyNumber n) {
+        if (n instanceof MyRational && n.toRational().getDenominator().equals(BigInteger.ONE)) n = new MyInteger(n.toRational().getNumerator());
+        return operand(n);
+    }
+
+    /**
+     * Returns the context intermediate results are computed in. If rounding is deferred, it has the
+     * scale and precision of this context plus the guard digits, otherwise it is this context.
+     *
+     * @return the context intermediate results are computed in
+     */
+    public EvaluationContext intermediate() {
+        return intermediateContext;
+    }
+
+    /**
+     * Rounds a result computed in the {@link #intermediate()} context to this context. Real results
+     * are rounded to the scale of this context and converted to integers if possible, all other
+     * results are returned as they are.
+     *
+     * @param result the result to round
+     * @return the rounded result
+     */
+    public MyNumber round(MyNumber result) {
+        return result instanceof MyReal ? MyNumber.fromReal(result.toReal(this), this) : result;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(scale, roundingMode, mathContext, guardDigits, intermediate, exact, powerLimit);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EvaluationContext context)) return false;
+        return scale == context.scale && roundingMode == context.roundingMode && mathContext.equals(context.mathContext)
+                && guardDigits == context.guardDigits && intermediate == context.intermediate && exact == context.exact
+                && powerLimit == context.powerLimit;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("scale=%d roundingMode=%s %s guardDigits=%d powerLimit=%d%s%s", scale, roundingMode, mathContext,
+                guardDigits, powerLimit, intermediate ? " intermediate" : "", exact ? " exact" : "");
+    }
+}
@@ -0,0 +1,206 @@
+package math;
+
+import exception.BadOperationException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * The kernels of {@code expt}. The size of a power is estimated from the logarithms of its base
+ * before it is computed, so powers exceeding the power limit of the evaluation context are
+ * rejected (if their magnitude is too large) or approximated by a real number (if only their
+ * exact representation is too large) instead of exhausting memory. Real powers too small to show
+ * at the scale of the context are rounded without being computed, and real powers which are
+ * smaller still than the power limit allows, but not negligible at that scale, are rejected too.
+ *
+ * <ul>
+ *     <li>Rational (and integer) bases with integer exponents are computed exactly. The numerator
+ *     and denominator of a reduced fraction are coprime, so their powers are too and the result
+ *     needs no gcd.</li>
+ *     <li>Rational exponents {@code p/q} are computed exactly if the base is a perfect
+ *     {@code q}-th power, otherwise the exponent is approximated to the full precision of the
+ *     math context instead of the scale of real numbers.</li>
+ * </ul>
+ */
+final class Exponentiation {
+
+    /**
+     * ln(2), used to convert natural logarithms to binary logarithms.
+     */
+    private static final double LN2 = Math.log(2);
+
+    /**
+     * log2(10), used to convert decimal digits to bits.
+     */
+    private static final double LOG2_10 = Math.log(10) / LN2;
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private Exponentiation() {
+    }
+
+    /**
+     * Returns the rational base raised to the power of the given exponent. The base and exponent
+     * must be positive.
+     *
+     * @param base     the base
+     * @param exponent the exponent
+     * @param context  the evaluation context
+     * @return the power
+     * @throws BadOperationException if the magnitude of the power exceeds the power limit
+     */
+    static MyNumber power(Rational base, MyNumber exponent, EvaluationContext context) {
+        if (exponent instanceof MyInteger) return power(base, exponent.toInteger(), context);
+        if (exponent instanceof MyRational) {
+            final Rational e = exponent.toRational();
+            final BigInteger numerator = root(base.getNumerator(), e.getDenominator());
+            final BigInteger denominator = numerator == null ? null : root(base.getDenominator(), e.getDenominator());
+            if (denominator != null) return power(new Rational(numerator, denominator, false), e.getNumerator(), context);
+        }
+        final MathContext mc = context.getMathContext();
+        return power(new BigDecimal(base.getNumerator()).divide(new BigDecimal(base.getDenominator()), mc), exponent, context);
+    }
+
+    /**
+     * Returns the real base raised to the power of the given exponent. The base and exponent must
+     * be positive.
+     *
+     * @param base     the base
+     * @param exponent the exponent
+     * @param context  the evaluation context
+     * @return the power
+     * @throws BadOperationException if the magnitude of the power exceeds the power limit
+     */
+    static MyNumber power(BigDecimal base, MyNumber exponent, EvaluationContext context) {
+        final MathContext mc = context.getMathContext();
+        final BigDecimal y = exponent instanceof MyRational ? new BigDecimal(exponent.toRational().getNumerator())
+                .divide(new BigDecimal(exponent.toRational().getDenominator()), mc) : exponent.toReal(context);
+        if (checkLimit(y.doubleValue() * log2(base), context)) return negligible(context);
+        return MyNumber.fromReal(BigDecimalMath.pow(base, y, mc), context);
+    }
+
+    /**
+     * Returns the rational base raised to the power of the given positive integer.
+     *
+     * @param base     the base
+     * @param exponent the exponent
+     * @param context  the evaluation context
+     * @return the power
+     * @throws BadOperationException if the magnitude of the power exceeds the power limit
+     */
+    private static MyNumber power(Rational base, BigInteger exponent, EvaluationContext context) {
+        final BigInteger numerator = base.getNumerator(), denominator = base.getDenominator();
+        if (numerator.equals(denominator)) return MyInteger.ONE;
+        final double n = exponent.doubleValue(), log2Numerator = log2(numerator), log2Denominator = log2(denominator);
+        final boolean negligible = checkLimit(n * (log2Numerator - log2Denominator), context);
+        if (n * (log2Numerator + log2Denominator) > context.getPowerLimit()) {
+            if (negligible) return negligible(context);
+            final MathContext mc = context.getMathContext();
+            final BigDecimal x = new BigDecimal(numerator).divide(new BigDecimal(denominator), mc);
+            return MyNumber.fromReal(BigDecimalMath.pow(x, new BigDecimal(exponent), mc), context);
+        }
+        final int e = exponent.intValueExact();
+        return MyNumber.fromRational(new Rational(numerator.pow(e), denominator.pow(e), false));
+    }
+
+    /**
+     * Checks the magnitude of Euler's number raised to the power of the given positive exponent
+     * against the power limit before it is computed.
+     *
+     * @param x       the exponent
+     * @param context the evaluation context
+     * @throws BadOperationException if the magnitude of exp(x) exceeds the power limit
+     */
+    static void checkExp(BigDecimal x, EvaluationContext context) {
+        checkLimit(x.doubleValue() / LN2, context);
+    }
+
+    /**
+     * Returns the {@code k}-th root of the given non-negative integer if it is a perfect
+     * {@code k}-th power.
+     *
+     * @param a the integer
+     * @param k the degree of the root
+     * @return the {@code k}-th root or {@code null} if the integer is not a perfect power
+     */
+    static BigInteger root(BigInteger a, BigInteger k) {
+        if (a.compareTo(BigInteger.ONE) <= 0) return a;
+        if (k.compareTo(BigInteger.valueOf(a.bitLength())) >= 0) return null;
+        final int degree = k.intValue();
+        final BigInteger r = floorRoot(a, degree);
+        return r.pow(degree).equals(a) ? r : null;
+    }
+
+    /**
+     * Returns the integer part of the {@code k}-th root of the given positive integer, computed by
+     * Newton's method from an initial guess above the root.
+     *
+     * @param a the integer
+     * @param k the degree of the root
+     * @return the integer part of the {@code k}-th root
+     */
+    private static BigInteger floorRoot(BigInteger a, int k) {
+        if (k == 2) return a.sqrt();
+        final BigInteger degree = BigInteger.valueOf(k), previous = BigInteger.valueOf(k - 1);
+        BigInteger x = BigInteger.ONE.shiftLeft((a.bitLength() + k - 1) / k);
+        while (true) {
+            final BigInteger y = previous.multiply(x).add(a.divide(x.pow(k - 1))).divide(degree);
+            if (y.compareTo(x) >= 0) return x;
+            x = y;
+        }
+    }
+
+    /**
+     * Returns an estimate of the binary logarithm of the given positive integer.
+     *
+     * @param x the integer
+     * @return an estimate of log2(x)
+     */
+    private static double log2(BigInteger x) {
+        final int shift = Math.max(0, x.bitLength() - 63);
+        return shift + Math.log(x.shiftRight(shift).doubleValue()) / LN2;
+    }
+
+    /**
+     * Returns an estimate of the binary logarithm of the given positive real number.
+     *
+     * @param x the real number
+     * @return an estimate of log2(x)
+     */
+    private static double log2(BigDecimal x) {
+        return log2(x.unscaledValue()) - x.scale() / Math.log10(2);
+    }
+
+    /**
+     * Checks the estimated binary logarithm of the magnitude of a power against the power limit and
+     * the scale of the evaluation context.
+     *
+     * @param bits    the estimated binary logarithm of the power
+     * @param context the evaluation context
+     * @return {@code true} if the power is below 10^-(scale + 1), so as a real number it rounds
+     * like {@link #negligible(EvaluationContext)}
+     * @throws BadOperationException if the power exceeds the power limit, or its reciprocal does
+     *                               and the power is not negligible
+     */
+    private static boolean checkLimit(double bits, EvaluationContext context) {
+        if (bits > context.getPowerLimit())
+            throw new BadOperationException(String.format("The power would have about %.0f bits, but the limit is %d", bits, context.getPowerLimit()));
+        if (bits < -(context.getScale() + 2) * LOG2_10) return true;
+        if (-bits > context.getPowerLimit())
+            throw new BadOperationException(String.format("The power would have about %.0f fractional bits, but the limit is %d", -bits, context.getPowerLimit()));
+        return false;
+    }
+
+    /**
+     * Returns a positive power below 10^-(scale + 1) rounded to the scale of the evaluation
+     * context, which is 0 unless the rounding mode rounds away from 0.
+     *
+     * @param context the evaluation context
+     * @return the rounded power
+     */
+    private static MyNumber negligible(EvaluationContext context) {
+        return MyNumber.fromReal(BigDecimal.ONE.movePointLeft(context.getScale() + 2), context);
+    }
+}
@@ -0,0 +1,112 @@
+package math;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.function.IntFunction;
+
+/**
+ * Represents a mathematical constant which is computed on first use and cached. The cached value
+ * only ever grows in precision: a request for fewer digits than already known is answered by
+ * rounding the cached value, a request for more digits recomputes the constant once and replaces
+ * the cache. The cache is computed with guard digits on top of the requested precision and only
+ * answers requests it still has all guard digits for, so a warm cache rounds exactly like a cold
+ * computation.
+ *
+ * <p>Reads are lock-free, only growing the cache is synchronized.
+ */
+final class LazyConstant {
+
+    /**
+     * The computation of the constant for a given number of significant digits.
+     */
+    private final IntFunction<BigDecimal> computation;
+
+    /**
+     * The currently cached value or {@code null} if it was not computed yet.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Constructs and initializes a lazy constant with the given computation.
+     *
+     * @param computation the computation of the constant, given the number of significant digits
+     */
+    LazyConstant(IntFunction<BigDecimal> computation) {
+        this.computation = computation;
+    }
+
+    /**
+     * Returns the value of this constant rounded to the given math context.
+     *
+     * @param mc the math context to round to
+     * @return the value of this constant rounded to the given math context
+     */
+    BigDecimal get(MathContext mc) {
+        final int precision = mc.getPrecision();
+        Snapshot s = snapshot;
+        if (s == null || s.precision < precision) s = grow(precision);
+        return s.value.round(mc);
+    }
+
+    /**
+     * Returns the number of significant digits currently cached.
+     *
+     * @return the number of significant digits currently cached
+     */
+    int getCachedDigits() {
+        final Snapshot s = snapshot;
+        return s == null ? 0 : s.digits;
+    }
+
+    private synchronized Snapshot grow(int precision) {
+        Snapshot s = snapshot;
+        if (s != null && s.precision >= precision) return s;
+        final int digits = precision + guardDigits(precision);
+        s = new Snapshot(computation.apply(digits), digits, precision);
+        snapshot = s;
+        return s;
+    }
+
+    /**
+     * Returns the number of extra digits computed on top of the given precision, so the cached value
+     * can be rounded correctly to it. The series of the constants truncate every term to the
+     * computed digits and need at most one term per digit, with factors of up to 16 (Machin's
+     * formula), so the truncation error stays below {@code 64 * precision} units in the last place.
+     * Six more digits make a warm cache round like a cold computation but for values within a
+     * millionth of a unit of a rounding boundary.
+     *
+     * @param precision the requested precision
+     * @return the number of guard digits
+     */
+    private static int guardDigits(int precision) {
+        return Long.toString(64L * precision).length() + 6;
+    }
+
+    /**
+     * An immutable cached value together with the number of correct digits it was computed to.
+     */
+    private static final class Snapshot {
+
+        /**
+         * The cached value.
+         */
+        private final BigDecimal value;
+
+        /**
+         * The number of significant digits of the cached value.
+         */
+        private final int digits;
+
+        /**
+         * The largest precision the cached value can be rounded to, its digits without the guard
+         * digits.
+         */
+        private final int precision;
+
+        private Snapshot(BigDecimal value, int digits, int precision) {
+            this.value = value;
+            this.digits = digits;
+            this.precision = precision;
+        }
+    }
+}
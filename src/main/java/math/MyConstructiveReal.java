@@ -0,0 +1,249 @@
+package math;
+
+import exception.Comparison;
+import exception.WrongOperandException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Objects;
+
+/**
+ * Represents an exact real number backed by a {@link ConstructiveReal}. Operations never round,
+ * they build a lazily evaluated expression which is only approximated when the number is
+ * converted with {@link #toReal(EvaluationContext)}, so the same result can be printed to any
+ * number of correct digits. Approximations are cached in the constructive reals, converting to a
+ * higher precision reuses the work done for a lower one.
+ *
+ * <p>Operations with integers, rational and real numbers treat them as exact values, the result is
+ * always an exact real number. Checks which cannot be decided for exact reals are decided at the
+ * scale of the evaluation context: numbers less than one unit in the last place in magnitude are
+ * considered 0, and numbers are equal if they are equal after rounding.
+ */
+public final class MyConstructiveReal extends MyNumber {
+
+    /**
+     * log2(10), used to convert decimal to binary precisions.
+     */
+    private static final double LOG2_10 = Math.log(10) / Math.log(2);
+
+    /**
+     * The value of this exact real number.
+     */
+    private final ConstructiveReal value;
+
+    /**
+     * The evaluation context used for conversions and comparisons without an explicit context.
+     */
+    private final EvaluationContext context;
+
+    /**
+     * Constructs and initializes an exact real number with the specified value in the default
+     * evaluation context.
+     *
+     * @param value the value of the exact real number
+     * @throws NullPointerException if the value is null
+     */
+    public MyConstructiveReal(ConstructiveReal value) {
+        this(value, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Constructs and initializes an exact real number with the specified value, which is printed
+     * and compared at the scale of the given evaluation context.
+     *
+     * @param value   the value of the exact real number
+     * @param context the evaluation context
+     * @throws NullPointerException if the value or evaluation context is null
+     */
+    public MyConstructiveReal(ConstructiveReal value, EvaluationContext context) {
+        this.value = Objects.requireNonNull(value, "value null");
+        this.context = Objects.requireNonNull(context, "context null");
+    }
+
+    /**
+     * Returns the exact value of the given number.
+     *
+     * @param n       the number
+     * @param context the evaluation context
+     * @return the given number as an exact real number
+     */
+    public static MyConstructiveReal valueOf(MyNumber n, EvaluationContext context) {
+        return n instanceof MyConstructiveReal real ? real : new MyConstructiveReal(constructive(n, context), context);
+    }
+
+    /**
+     * Returns the exact value of the given number as a constructive real.
+     *
+     * @param n       the number
+     * @param context the evaluation context of numbers outside the tower
+     * @return the given number as a constructive real
+     */
+    private static ConstructiveReal constructive(MyNumber n, EvaluationContext context) {
+        if (n instanceof MyConstructiveReal real) return real.value;
+        return switch (n.rank) {
+            case NumericTower.INTEGER -> ConstructiveReal.valueOf(n.toInteger());
+            case NumericTower.RATIONAL -> ConstructiveReal.valueOf(n.toRational());
+            default -> ConstructiveReal.valueOf(n.toReal(context));
+        };
+    }
+
+    /**
+     * Returns the constructive real backing this number.
+     *
+     * @return the constructive real backing this number
+     */
+    public ConstructiveReal getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the sign of the given number at the scale of the given evaluation context.
+     *
+     * @param x       the number
+     * @param context the evaluation context
+     * @return -1, 0 or 1 if the number is negative, less than one unit in the last place in
+     * magnitude or positive
+     */
+    private static int signum(ConstructiveReal x, EvaluationContext context) {
+        return x.signum(-(int) Math.ceil(context.getScale() * LOG2_10));
+    }
+
+    /**
+     * Checks that the given number is positive.
+     *
+     * @param n       the number to check
+     * @param x       the value of the number
+     * @param context the evaluation context
+     * @throws WrongOperandException if the number is not positive
+     */
+    private static void checkPositive(MyNumber n, ConstructiveReal x, EvaluationContext context) {
+        if (signum(x, context) <= 0) throw new WrongOperandException(n, Comparison.GREATER_THAN, MyInteger.ZERO);
+    }
+
+    @Override
+    public BigInteger toInteger() {
+        return toReal().toBigInteger();
+    }
+
+    @Override
+    public Rational toRational() {
+        return new MyReal(toReal()).toRational();
+    }
+
+    /**
+     * Returns this number rounded to the scale of the given evaluation context. Repeated
+     * conversions reuse the approximations computed before.
+     *
+     * @param context the evaluation context
+     * @return this number rounded to the scale of the evaluation context
+     */
+    @Override
+    public BigDecimal toReal(EvaluationContext context) {
+        return value.toBigDecimal(context.getScale(), context.getRoundingMode());
+    }
+
+    @Override
+    public BigDecimal toReal() {
+        return toReal(context);
+    }
+
+    @Override
+    public boolean isZero() {
+        return signum(value, context) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return new MyReal(toReal(), context).hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MyConstructiveReal number)) return false;
+        return value == number.value || toReal().compareTo(number.toReal()) == 0;
+    }
+
+    @Override
+    public MyNumber negate() {
+        return new MyConstructiveReal(value.negate(), context);
+    }
+
+    @Override
+    public MyNumber plus(MyNumber other, EvaluationContext context) {
+        return new MyConstructiveReal(value.add(constructive(other, context)), context);
+    }
+
+    @Override
+    public MyNumber minus() {
+        return negate();
+    }
+
+    @Override
+    public MyNumber minus(MyNumber other, EvaluationContext context) {
+        return new MyConstructiveReal(value.subtract(constructive(other, context)), context);
+    }
+
+    @Override
+    public MyNumber times(MyNumber other, EvaluationContext context) {
+        return new MyConstructiveReal(value.multiply(constructive(other, context)), context);
+    }
+
+    @Override
+    public MyNumber divide(EvaluationContext context) {
+        if (signum(value, context) == 0) throw new WrongOperandException(this, Comparison.DIFFERENT_FROM, MyInteger.ZERO);
+        return new MyConstructiveReal(value.inverse(), context);
+    }
+
+    @Override
+    public MyNumber divide(MyNumber other, EvaluationContext context) {
+        final ConstructiveReal divisor = constructive(other, context);
+        if (signum(divisor, context) == 0) throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, MyInteger.ZERO);
+        return new MyConstructiveReal(value.divide(divisor), context);
+    }
+
+    @Override
+    public MyNumber sqrt(EvaluationContext context) {
+        if (signum(value, context) < 0) throw new WrongOperandException(this, Comparison.GREATER_THAN, MyInteger.ZERO);
+        return new MyConstructiveReal(value.sqrt(), context);
+    }
+
+    @Override
+    public MyNumber expt(MyNumber n, EvaluationContext context) {
+        checkPositive(this, value, context);
+        if (n.rank == NumericTower.INTEGER) {
+            if (n.toInteger().signum() <= 0) throw new WrongOperandException(n, Comparison.GREATER_THAN, MyInteger.ZERO);
+            return new MyConstructiveReal(value.pow(n.toInteger()), context);
+        }
+        final ConstructiveReal y = constructive(n, context);
+        checkPositive(n, y, context);
+        return new MyConstructiveReal(value.pow(y), context);
+    }
+
+    @Override
+    public MyNumber exp(EvaluationContext context) {
+        checkPositive(this, value, context);
+        return new MyConstructiveReal(value.exp(), context);
+    }
+
+    @Override
+    public MyNumber ln(EvaluationContext context) {
+        checkPositive(this, value, context);
+        return new MyConstructiveReal(value.ln(), context);
+    }
+
+    @Override
+    public MyNumber log(MyNumber base, EvaluationContext context) {
+        checkPositive(this, value, context);
+        final ConstructiveReal b = constructive(base, context);
+        checkPositive(base, b, context);
+        final ConstructiveReal lnBase = b.ln();
+        if (signum(lnBase, context) == 0) throw new ArithmeticException("Logarithm with base one");
+        return new MyConstructiveReal(value.ln().divide(lnBase), context);
+    }
+
+    @Override
+    public String toString() {
+        return toReal().stripTrailingZeros().toString();
+    }
+}
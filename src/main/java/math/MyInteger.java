@@ -3,6 +3,7 @@ package math;
 import exception.Comparison;
 import exception.WrongOperandException;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Objects;
@@ -29,6 +30,16 @@ public final class MyInteger extends MyNumber {
      */
     private final BigInteger value;
 
+    /**
+     * The cached representation of this integer as a rational number.
+     */
+    private Rational rational;
+
+    /**
+     * The cached representation of this integer as a real number.
+     */
+    private CachedReal real;
+
     /**
      * Constructs and initializes an integer with the specified value.
      *
@@ -36,6 +47,7 @@ public final class MyInteger extends MyNumber {
      * @throws NullPointerException if the value is null
      */
     public MyInteger(BigInteger value) {
+        super(NumericTower.INTEGER);
         this.value = Objects.requireNonNull(value, "value null");
     }
 
@@ -46,12 +58,19 @@ public final class MyInteger extends MyNumber {
 
     @Override
     public Rational toRational() {
-        return new Rational(value, BigInteger.ONE, false);
+        Rational r = rational;
+        if (r == null) rational = r = new Rational(value, BigInteger.ONE, false);
+        return r;
     }
 
     @Override
-    public BigDecimal toReal() {
-        return new BigDecimal(value).setScale(MyReal.SCALE, MyReal.ROUNDING_MODE);
+    public BigDecimal toReal(EvaluationContext context) {
+        BigDecimal r = CachedReal.lookup(real, context);
+        if (r == null) {
+            r = new BigDecimal(value).setScale(context.getScale(), context.getRoundingMode());
+            real = new CachedReal(context, r);
+        }
+        return r;
     }
 
     @Override
@@ -81,10 +100,8 @@ public final class MyInteger extends MyNumber {
     }
 
     @Override
-    public MyNumber plus(MyNumber other) {
-        if (other instanceof MyInteger) return new MyInteger(value.add((other.toInteger())));
-        if (other instanceof MyReal) return checkRealToInt(toReal().add(other.toReal()));
-        return checkRationalToInt(other.toRational().plus(value));
+    public MyNumber plus(MyNumber other, EvaluationContext context) {
+        return NumericTower.plus(this, other, context);
     }
 
     @Override
@@ -93,128 +110,71 @@ public final class MyInteger extends MyNumber {
     }
 
     @Override
-    public MyNumber minus(MyNumber other) {
-        if (other instanceof MyInteger) return new MyInteger(value.subtract(other.toInteger()));
-        if (other instanceof MyReal) return checkRealToInt(toReal().subtract(other.toReal()));
-        return checkRationalToInt(toRational().plus(other.toRational().negate()));
+    public MyNumber minus(MyNumber other, EvaluationContext context) {
+        return NumericTower.minus(this, other, context);
     }
 
     @Override
-    public MyNumber times(MyNumber other) {
-        if (other instanceof MyInteger) return new MyInteger(value.multiply(other.toInteger()));
-        if (other instanceof MyReal) return checkRealToInt(toReal().multiply(other.toReal()));
-        return checkRationalToInt(toRational().times(other.toRational()));
+    public MyNumber times(MyNumber other, EvaluationContext context) {
+        return NumericTower.times(this, other, context);
     }
 
     @Override
-    public MyNumber divide() {
+    public MyNumber divide(EvaluationContext context) {
         if (equals(ZERO)) throw new WrongOperandException(this, Comparison.DIFFERENT_FROM, ZERO);
         final Rational r = value.signum() == -1 ? new Rational(BigInteger.ONE.negate(), value.negate(), false) : new Rational(BigInteger.ONE, value, false);
         return new MyRational(r);
     }
 
     @Override
-    public MyNumber divide(MyNumber other) {
-        if (other instanceof MyInteger) {
-            if (other.equals(ZERO)) throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, ZERO);
-            return checkRationalToInt(new Rational(value, other.toInteger()));
-        }
-        if (other instanceof MyReal) {
-            if (other.equals(MyReal.ZERO))
-                throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, MyReal.ZERO);
-            return checkRealToInt(toReal().divide(other.toReal(), MyReal.SCALE, MyReal.ROUNDING_MODE));
-        }
-        if (other.equals(MyRational.ZERO))
-            throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, MyRational.ZERO);
-        final Rational r = toRational().times(other.toRational().invert());
-        return checkRationalToInt(new Rational(r.getNumerator(), r.getDenominator()));
+    public MyNumber divide(MyNumber other, EvaluationContext context) {
+        return NumericTower.divide(this, other, context);
     }
 
     @Override
-    public MyNumber expt(MyNumber n) {
+    public MyNumber expt(MyNumber n, EvaluationContext context) {
         if (value.compareTo(BigInteger.ZERO) <= 0) throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
         if (n instanceof MyInteger) {
             final BigInteger b = n.toInteger();
             if (b.compareTo(BigInteger.ZERO) <= 0) throw new WrongOperandException(n, Comparison.GREATER_THAN, ZERO);
-            return new MyInteger(value.pow(b.intValue()));
         }
-        if (n instanceof MyReal) if (n.toReal().compareTo(BigDecimal.ZERO) <= 0)
+        if (n instanceof MyReal) if (n.toReal(context).compareTo(BigDecimal.ZERO) <= 0)
             throw new WrongOperandException(n, Comparison.GREATER_THAN, MyReal.ZERO);
         if (n instanceof MyRational) {
             final Rational r = n.toRational();
             if (r.equals(Rational.ZERO) || r.getNumerator().signum() == -1)
                 throw new WrongOperandException(n, Comparison.GREATER_THAN, MyRational.ZERO);
         }
-        final BigDecimal x = log().toReal().multiply(n.toReal());
-        final BigInteger m = x.toBigInteger();
-        return checkRealToInt(BigDecimal.TEN.pow(m.intValue()).multiply(BigDecimal.valueOf(Math.pow(10, x.subtract(new BigDecimal(m)).doubleValue()))));
+        return Exponentiation.power(toRational(), n, context);
     }
 
     @Override
-    public MyNumber exp() {
+    public MyNumber exp(EvaluationContext context) {
         if (value.compareTo(BigInteger.ZERO) <= 0) throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
-        final BigDecimal x = BigDecimal.valueOf(Math.log10(Math.E)).multiply(toReal());
-        final BigInteger m = x.toBigInteger();
-        return checkRealToInt(BigDecimal.TEN.pow(m.intValue()).multiply(BigDecimal.valueOf(Math.pow(10, x.subtract(new BigDecimal(m)).doubleValue()))));
+        final BigDecimal x = new BigDecimal(value);
+        Exponentiation.checkExp(x, context);
+        return checkRealToInt(BigDecimalMath.exp(x, context.getMathContext()), context);
     }
 
     @Override
-    public MyNumber ln() {
+    public MyNumber ln(EvaluationContext context) {
         if (value.compareTo(BigInteger.ZERO) <= 0) throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
-        BigDecimal i = toReal();
-        double logarithm = 0;
-        if (i.compareTo(BigDecimal.TEN) > 0) do {
-            i = i.divide(BigDecimal.TEN, MyReal.SCALE, MyReal.ROUNDING_MODE);
-            logarithm++;
-        } while (i.compareTo(BigDecimal.TEN) > 0);
-        else if (i.compareTo(BigDecimal.ONE) < 0) do {
-            i = i.multiply(BigDecimal.TEN);
-            logarithm--;
-        } while (i.compareTo(BigDecimal.ONE) < 0);
-        return checkRealToInt(BigDecimal.valueOf(logarithm + Math.log10(i.doubleValue())).divide(BigDecimal.valueOf(Math.log10(Math.E)), MyReal.SCALE, MyReal.ROUNDING_MODE));
+        return checkRealToInt(BigDecimalMath.ln(new BigDecimal(value), context.getMathContext()), context);
     }
 
     @Override
-    public MyNumber log(MyNumber base) {
+    public MyNumber log(MyNumber base, EvaluationContext context) {
         if (value.compareTo(BigInteger.ZERO) <= 0) throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
-        if (base instanceof MyInteger) if (base.toInteger().compareTo(BigInteger.ZERO) <= 0)
-            throw new WrongOperandException(base, Comparison.GREATER_THAN, ZERO);
-        if (base instanceof MyReal) if (base.toReal().compareTo(BigDecimal.ZERO) <= 0)
-            throw new WrongOperandException(base, Comparison.GREATER_THAN, MyReal.ZERO);
-        if (base instanceof MyRational) {
-            final Rational r = base.toRational();
-            if (r.equals(Rational.ZERO) || r.getNumerator().signum() == -1)
-                throw new WrongOperandException(base, Comparison.GREATER_THAN, MyRational.ZERO);
-        }
-        BigDecimal i = toReal();
-        double logarithm = 0;
-        if (i.compareTo(BigDecimal.TEN) > 0) do {
-            i = i.divide(BigDecimal.TEN, MyReal.SCALE, MyReal.ROUNDING_MODE);
-            logarithm++;
-        } while (i.compareTo(BigDecimal.TEN) > 0);
-        else if (i.compareTo(BigDecimal.ONE) < 0) do {
-            i = i.multiply(BigDecimal.TEN);
-            logarithm--;
-        } while (i.compareTo(BigDecimal.ONE) < 0);
-        return checkRealToInt(BigDecimal.valueOf(logarithm + Math.log10(i.doubleValue())).divide(BigDecimal.valueOf(Math.log10(base.toReal().doubleValue())), MyReal.SCALE, MyReal.ROUNDING_MODE));
-    }
-
-    private MyNumber log() {
-        BigDecimal i = toReal();
-        double logarithm = 0;
-        if (i.compareTo(BigDecimal.TEN) > 0) do {
-            i = i.divide(BigDecimal.TEN, MyReal.SCALE, MyReal.ROUNDING_MODE);
-            logarithm++;
-        } while (i.compareTo(BigDecimal.TEN) > 0);
-        else if (i.compareTo(BigDecimal.ONE) < 0) do {
-            i = i.multiply(BigDecimal.TEN);
-            logarithm--;
-        } while (i.compareTo(BigDecimal.ONE) < 0);
-        return checkRealToInt(BigDecimal.valueOf(logarithm + Math.log10(i.doubleValue())));
+        return checkRealToInt(BigDecimalMath.log(new BigDecimal(value), logarithmBase(base, context), context.getMathContext()), context);
     }
 
     @Override
     public String toString() {
-        return value.toString();
+        return DecimalConversion.toString(this::appendTo);
+    }
+
+    @Override
+    public void appendTo(Appendable out) throws IOException {
+        DecimalConversion.writeInteger(value, out);
     }
 }
@@ -1,7 +1,10 @@
 package math;
 
+import exception.BadOperationException;
+import exception.Comparison;
 import exception.WrongOperandException;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.MathContext;
@@ -12,6 +15,27 @@ import java.math.MathContext;
  */
 public abstract class MyNumber {
 
+    /**
+     * The rank of this number in the {@link NumericTower}.
+     */
+    final int rank;
+
+    /**
+     * Constructs and initializes a number outside the numeric tower.
+     */
+    protected MyNumber() {
+        this(NumericTower.OTHER);
+    }
+
+    /**
+     * Constructs and initializes a number with the given rank in the numeric tower.
+     *
+     * @param rank the rank of this number
+     */
+    MyNumber(int rank) {
+        this.rank = rank;
+    }
+
     /**
      * Returns the representation of this number as an integer.
      *
@@ -31,7 +55,17 @@ public abstract class MyNumber {
      *
      * @return the representation of this number as a real number.
      */
-    public abstract BigDecimal toReal();
+    public BigDecimal toReal() {
+        return toReal(EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the representation of this number as a real number in the given evaluation context.
+     *
+     * @param context the evaluation context
+     * @return the representation of this number as a real number.
+     */
+    public abstract BigDecimal toReal(EvaluationContext context);
 
     /**
      * Returns {@code true} if this number is zero.
@@ -71,6 +105,17 @@ public abstract class MyNumber {
     @Override
     public abstract String toString();
 
+    /**
+     * Appends the string representation of this number ({@link #toString()}) to the given output.
+     * Numbers with many digits are written without building the whole string first.
+     *
+     * @param out the output
+     * @throws IOException if the output throws an exception
+     */
+    public void appendTo(Appendable out) throws IOException {
+        out.append(toString());
+    }
+
     /**
      * Returns a number whose value is {@code (-this)}.
      *
@@ -101,7 +146,18 @@ public abstract class MyNumber {
      * @param other the number to add
      * @return the sum of this number and the given number
      */
-    public abstract MyNumber plus(MyNumber other);
+    public MyNumber plus(MyNumber other) {
+        return plus(other, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #plus(MyNumber)} in the given evaluation context.
+     *
+     * @param other   the number to add
+     * @param context the evaluation context
+     * @return the sum of this number and the given number
+     */
+    public abstract MyNumber plus(MyNumber other, EvaluationContext context);
 
     /**
      * Returns the difference of this number and the neutral element 0 {@code 0 - this}.
@@ -124,7 +180,18 @@ public abstract class MyNumber {
      * @param other the number to subtract
      * @return the difference of this number and the given number
      */
-    public abstract MyNumber minus(MyNumber other);
+    public MyNumber minus(MyNumber other) {
+        return minus(other, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #minus(MyNumber)} in the given evaluation context.
+     *
+     * @param other   the number to subtract
+     * @param context the evaluation context
+     * @return the difference of this number and the given number
+     */
+    public abstract MyNumber minus(MyNumber other, EvaluationContext context);
 
     /**
      * Returns the product of this number and the neutral element 1 {@code 1 * this}.
@@ -149,7 +216,18 @@ public abstract class MyNumber {
      * @param other the number to multiply
      * @return the product of this number and the given number
      */
-    public abstract MyNumber times(MyNumber other);
+    public MyNumber times(MyNumber other) {
+        return times(other, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #times(MyNumber)} in the given evaluation context.
+     *
+     * @param other   the number to multiply
+     * @param context the evaluation context
+     * @return the product of this number and the given number
+     */
+    public abstract MyNumber times(MyNumber other, EvaluationContext context);
 
     /**
      * Returns the quotient of this number and the neutral element 1 ({@code 1 / this}).
@@ -163,7 +241,18 @@ public abstract class MyNumber {
      * @return the quotient of this number and the neutral element 1
      * @throws WrongOperandException if the number is 0
      */
-    public abstract MyNumber divide();
+    public MyNumber divide() {
+        return divide(EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #divide()} in the given evaluation context.
+     *
+     * @param context the evaluation context
+     * @return the quotient of this number and the neutral element 1
+     * @throws WrongOperandException if the number is 0
+     */
+    public abstract MyNumber divide(EvaluationContext context);
 
     /**
      * Returns the quotient of this number and the given number ({@code this / other}).
@@ -180,7 +269,19 @@ public abstract class MyNumber {
      * @return the quotient of this number and the given number
      * @throws WrongOperandException if the given number is 0
      */
-    public abstract MyNumber divide(MyNumber other);
+    public MyNumber divide(MyNumber other) {
+        return divide(other, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #divide(MyNumber)} in the given evaluation context.
+     *
+     * @param other   the number to divide
+     * @param context the evaluation context
+     * @return the quotient of this number and the given number
+     * @throws WrongOperandException if the given number is 0
+     */
+    public abstract MyNumber divide(MyNumber other, EvaluationContext context);
 
     /**
      * Returns the square root of this number. The result will always be real or an integer.
@@ -188,7 +289,17 @@ public abstract class MyNumber {
      * @return the square root of this number
      */
     public MyNumber sqrt() {
-        return checkRealToInt(toReal().sqrt(MathContext.DECIMAL128));
+        return sqrt(EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #sqrt()} in the given evaluation context.
+     *
+     * @param context the evaluation context
+     * @return the square root of this number
+     */
+    public MyNumber sqrt(EvaluationContext context) {
+        return checkRealToInt(toReal(context).sqrt(context.getMathContext()), context);
     }
 
     /**
@@ -198,7 +309,18 @@ public abstract class MyNumber {
      * @param n the exponent
      * @return {@code this} number raised to the power of {@code n}
      */
-    public abstract MyNumber expt(MyNumber n);
+    public MyNumber expt(MyNumber n) {
+        return expt(n, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #expt(MyNumber)} in the given evaluation context.
+     *
+     * @param n       the exponent
+     * @param context the evaluation context
+     * @return {@code this} number raised to the power of {@code n}
+     */
+    public abstract MyNumber expt(MyNumber n, EvaluationContext context);
 
     /**
      * Returns Euler’s number raised to the power of {@code this} number (exp(x)). The result will
@@ -207,7 +329,19 @@ public abstract class MyNumber {
      * @return Euler’s number raised to the power of {@code this}
      * @throws WrongOperandException if this number is not positive or the large
      */
-    public abstract MyNumber exp();
+    public MyNumber exp() {
+        return exp(EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #exp()} in the given evaluation context.
+     *
+     * @param context the evaluation context
+     * @return Euler’s number raised to the power of {@code this}
+     * @throws WrongOperandException if this number is not positive or the large
+     * @throws BadOperationException if the magnitude of the result exceeds the power limit
+     */
+    public abstract MyNumber exp(EvaluationContext context);
 
     /**
      * Returns the natural logarithm of this number (ln(x)). The result will always be real or an
@@ -216,7 +350,18 @@ public abstract class MyNumber {
      * @return the natural logarithm of this number
      * @throws WrongOperandException if this number is not positive
      */
-    public abstract MyNumber ln();
+    public MyNumber ln() {
+        return ln(EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #ln()} in the given evaluation context.
+     *
+     * @param context the evaluation context
+     * @return the natural logarithm of this number
+     * @throws WrongOperandException if this number is not positive
+     */
+    public abstract MyNumber ln(EvaluationContext context);
 
     /**
      * Returns the logarithm of this number with base {@code base} (log_x(y)). The result will
@@ -224,20 +369,34 @@ public abstract class MyNumber {
      *
      * @param base the base of the logarithm
      * @return the logarithm of this number with base {@code base}
-     * @throws WrongOperandException if this number is not positive or the base is not positive
+     * @throws WrongOperandException if this number is not positive or the base is not positive or
+     *                               one
      */
-    public abstract MyNumber log(MyNumber base);
+    public MyNumber log(MyNumber base) {
+        return log(base, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the same as {@link #log(MyNumber)} in the given evaluation context.
+     *
+     * @param base    the base of the logarithm
+     * @param context the evaluation context
+     * @return the logarithm of this number with base {@code base}
+     * @throws WrongOperandException if this number is not positive or the base is not positive or
+     *                               one
+     */
+    public abstract MyNumber log(MyNumber base, EvaluationContext context);
 
     /**
      * Checks if the given real number can be represented as an integer.
      *
-     * @param real the real number to check
+     * @param real    the real number to check
+     * @param context the evaluation context of the real number
      * @return an integer if the real number can be represented as an integer, otherwise the real
      * number
      */
-    protected MyNumber checkRealToInt(BigDecimal real) {
-        final BigDecimal stripped = real.stripTrailingZeros();
-        return stripped.scale() <= 0 ? new MyInteger(stripped.toBigIntegerExact()) : new MyReal(real);
+    protected MyNumber checkRealToInt(BigDecimal real, EvaluationContext context) {
+        return fromReal(real, context);
     }
 
     /**
@@ -248,6 +407,55 @@ public abstract class MyNumber {
      * rational number
      */
     protected MyNumber checkRationalToInt(Rational rational) {
+        return fromRational(rational);
+    }
+
+    /**
+     * Returns the given real number as an integer if it can be represented as an integer,
+     * otherwise as a real number.
+     *
+     * @param real    the real number
+     * @param context the evaluation context of the real number
+     * @return an integer if the real number can be represented as an integer, otherwise the real
+     * number
+     */
+    static MyNumber fromReal(BigDecimal real, EvaluationContext context) {
+        final BigDecimal stripped = real.stripTrailingZeros();
+        return stripped.scale() <= 0 ? new MyInteger(stripped.toBigIntegerExact()) : new MyReal(real, context);
+    }
+
+    /**
+     * Returns the given rational number as an integer if it can be represented as an integer,
+     * otherwise as a rational number.
+     *
+     * @param rational the rational number
+     * @return an integer if the rational number can be represented as an integer, otherwise the
+     * rational number
+     */
+    static MyNumber fromRational(Rational rational) {
         return rational.getDenominator().equals(BigInteger.ONE) ? new MyInteger(rational.getNumerator()) : new MyRational(rational);
     }
+
+    /**
+     * Returns the base of a logarithm as a real number. Like the base of a power, an integer or
+     * rational base is divided to the precision of the math context of the evaluation context
+     * instead of being rounded to the scale of real numbers, so a small base keeps its digits.
+     *
+     * @param base    the base of the logarithm
+     * @param context the evaluation context
+     * @return the base as a real number
+     * @throws WrongOperandException if the base is not positive or one
+     */
+    static BigDecimal logarithmBase(MyNumber base, EvaluationContext context) {
+        final MyNumber zero = base instanceof MyInteger ? MyInteger.ZERO : base instanceof MyRational ? MyRational.ZERO : MyReal.ZERO;
+        final BigDecimal b;
+        if (base instanceof MyInteger || base instanceof MyRational) {
+            final Rational r = base.toRational();
+            final MathContext mc = context.getMathContext();
+            b = new BigDecimal(r.getNumerator()).divide(new BigDecimal(r.getDenominator()), mc);
+        } else b = base.toReal(context);
+        if (b.signum() <= 0) throw new WrongOperandException(base, Comparison.GREATER_THAN, zero);
+        if (b.compareTo(BigDecimal.ONE) == 0) throw new WrongOperandException(base, Comparison.DIFFERENT_FROM, MyInteger.ONE);
+        return b;
+    }
 }
@@ -3,8 +3,10 @@ package math;
 import exception.Comparison;
 import exception.WrongOperandException;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.MathContext;
 import java.util.Objects;
 
 /**
@@ -29,6 +31,11 @@ public final class MyRational extends MyNumber {
      */
     private final Rational value;
 
+    /**
+     * The cached representation of this rational number as a real number.
+     */
+    private CachedReal real;
+
     /**
      * Constructs and initializes a rational number with the specified value.
      *
@@ -36,6 +43,7 @@ public final class MyRational extends MyNumber {
      * @throws NullPointerException if the value is null
      */
     public MyRational(Rational value) {
+        super(NumericTower.RATIONAL);
         this.value = Objects.requireNonNull(value, "value null");
     }
 
@@ -50,8 +58,24 @@ public final class MyRational extends MyNumber {
     }
 
     @Override
-    public BigDecimal toReal() {
-        return new BigDecimal(value.getNumerator()).divide(new BigDecimal(value.getDenominator()), MyReal.SCALE, MyReal.ROUNDING_MODE);
+    public BigDecimal toReal(EvaluationContext context) {
+        BigDecimal r = CachedReal.lookup(real, context);
+        if (r == null) {
+            r = new BigDecimal(value.getNumerator()).divide(new BigDecimal(value.getDenominator()), context.getScale(), context.getRoundingMode());
+            real = new CachedReal(context, r);
+        }
+        return r;
+    }
+
+    /**
+     * Returns the representation of this number as a real number rounded to the given math
+     * context.
+     *
+     * @param mc the math context to round to
+     * @return the representation of this number as a real number
+     */
+    private BigDecimal toReal(MathContext mc) {
+        return new BigDecimal(value.getNumerator()).divide(new BigDecimal(value.getDenominator()), mc);
     }
 
     @Override
@@ -77,10 +101,8 @@ public final class MyRational extends MyNumber {
     }
 
     @Override
-    public MyNumber plus(MyNumber other) {
-        if (other instanceof MyInteger) return checkRationalToInt(value.plus(other.toInteger()));
-        if (other instanceof MyReal) return checkRealToInt(toReal().add(other.toReal()));
-        return checkRationalToInt(value.plus(other.toRational()));
+    public MyNumber plus(MyNumber other, EvaluationContext context) {
+        return NumericTower.plus(this, other, context);
     }
 
     @Override
@@ -89,132 +111,75 @@ public final class MyRational extends MyNumber {
     }
 
     @Override
-    public MyNumber minus(MyNumber other) {
-        if (other instanceof MyInteger) return checkRationalToInt(value.plus(other.negate().toInteger()));
-        if (other instanceof MyReal) return checkRealToInt(toReal().subtract(other.toReal()));
-        return checkRationalToInt(value.plus(other.negate().toRational()));
+    public MyNumber minus(MyNumber other, EvaluationContext context) {
+        return NumericTower.minus(this, other, context);
     }
 
     @Override
-    public MyNumber times(MyNumber other) {
-        if (other instanceof MyReal) return checkRealToInt(toReal().multiply(other.toReal()));
-        return checkRationalToInt(value.times(other.toRational()));
+    public MyNumber times(MyNumber other, EvaluationContext context) {
+        return NumericTower.times(this, other, context);
     }
 
     @Override
-    public MyNumber divide() {
+    public MyNumber divide(EvaluationContext context) {
         if (equals(ZERO)) throw new WrongOperandException(this, Comparison.DIFFERENT_FROM, ZERO);
         return new MyRational(value.invert());
     }
 
     @Override
-    public MyNumber divide(MyNumber other) {
-        if (other instanceof MyInteger) {
-            if (other.equals(MyInteger.ZERO))
-                throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, MyInteger.ZERO);
-            final Rational r = value.times(other.toRational().invert());
-            return checkRationalToInt(new Rational(r.getNumerator(), r.getDenominator()));
-        }
-        if (other instanceof MyReal) {
-            if (other.equals(MyReal.ZERO))
-                throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, MyReal.ZERO);
-            return checkRealToInt(toReal().divide(other.toReal(), MyReal.SCALE, MyReal.ROUNDING_MODE));
-        }
-        if (other.equals(ZERO)) throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, ZERO);
-        final Rational r = value.times(other.toRational().invert());
-        return checkRationalToInt(new Rational(r.getNumerator(), r.getDenominator()));
+    public MyNumber divide(MyNumber other, EvaluationContext context) {
+        return NumericTower.divide(this, other, context);
     }
 
     @Override
-    public MyNumber expt(MyNumber n) {
+    public MyNumber expt(MyNumber n, EvaluationContext context) {
         if (value.equals(Rational.ZERO) || value.getNumerator().signum() < 0)
             throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
         if (n instanceof MyInteger) {
             final BigInteger b = n.toInteger();
             if (b.compareTo(BigInteger.ZERO) <= 0)
                 throw new WrongOperandException(n, Comparison.GREATER_THAN, MyInteger.ZERO);
-            return checkRealToInt(new BigDecimal(value.getNumerator().pow(b.intValue())).divide(new BigDecimal(value.getDenominator().pow(b.intValue())), MyReal.SCALE, MyReal.ROUNDING_MODE));
         }
-        if (n instanceof MyReal) if (n.toReal().compareTo(BigDecimal.ZERO) <= 0)
+        if (n instanceof MyReal) if (n.toReal(context).compareTo(BigDecimal.ZERO) <= 0)
             throw new WrongOperandException(n, Comparison.GREATER_THAN, MyReal.ZERO);
         if (n instanceof MyRational) {
             final Rational r = n.toRational();
             if (r.equals(Rational.ZERO) || r.getNumerator().signum() == -1)
                 throw new WrongOperandException(n, Comparison.GREATER_THAN, ZERO);
         }
-        final BigDecimal x = log().toReal().multiply(n.toReal());
-        final BigInteger m = x.toBigInteger();
-        return checkRealToInt(BigDecimal.TEN.pow(m.intValue()).multiply(BigDecimal.valueOf(Math.pow(10, x.subtract(new BigDecimal(m)).doubleValue()))));
+        return Exponentiation.power(value, n, context);
     }
 
     @Override
-    public MyNumber exp() {
+    public MyNumber exp(EvaluationContext context) {
         if (value.equals(Rational.ZERO) || value.getNumerator().signum() == -1)
             throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
-        final BigDecimal x = BigDecimal.valueOf(Math.log10(Math.E)).multiply(toReal());
-        final BigInteger m = x.toBigInteger();
-        return checkRealToInt(BigDecimal.TEN.pow(m.intValue()).multiply(BigDecimal.valueOf(Math.pow(10, x.subtract(new BigDecimal(m)).doubleValue()))));
+        final BigDecimal x = toReal(context.getMathContext());
+        Exponentiation.checkExp(x, context);
+        return checkRealToInt(BigDecimalMath.exp(x, context.getMathContext()), context);
     }
 
     @Override
-    public MyNumber ln() {
+    public MyNumber ln(EvaluationContext context) {
         if (value.equals(Rational.ZERO) || value.getNumerator().signum() == -1)
             throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
-        BigDecimal i = toReal();
-        double logarithm = 0;
-        if (i.compareTo(BigDecimal.TEN) > 0) do {
-            i = i.divide(BigDecimal.TEN, MyReal.SCALE, MyReal.ROUNDING_MODE);
-            logarithm++;
-        } while (i.compareTo(BigDecimal.TEN) > 0);
-        else if (i.compareTo(BigDecimal.ONE) < 0) do {
-            i = i.multiply(BigDecimal.TEN);
-            logarithm--;
-        } while (i.compareTo(BigDecimal.ONE) < 0);
-        return checkRealToInt(BigDecimal.valueOf(logarithm + Math.log10(i.doubleValue())).divide(BigDecimal.valueOf(Math.log10(Math.E)), MyReal.SCALE, MyReal.ROUNDING_MODE));
+        return checkRealToInt(BigDecimalMath.ln(toReal(context.getMathContext()), context.getMathContext()), context);
     }
 
     @Override
-    public MyNumber log(MyNumber base) {
+    public MyNumber log(MyNumber base, EvaluationContext context) {
         if (value.equals(Rational.ZERO) || value.getNumerator().signum() < 0)
             throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
-        if (base instanceof MyInteger) if (base.toInteger().compareTo(BigInteger.ZERO) <= 0)
-            throw new WrongOperandException(base, Comparison.GREATER_THAN, MyInteger.ZERO);
-        if (base instanceof MyReal) if (base.toReal().compareTo(BigDecimal.ZERO) <= 0)
-            throw new WrongOperandException(base, Comparison.GREATER_THAN, MyReal.ZERO);
-        if (base instanceof MyRational) {
-            final Rational r = base.toRational();
-            if (r.equals(Rational.ZERO) || r.getNumerator().signum() == -1)
-                throw new WrongOperandException(base, Comparison.GREATER_THAN, ZERO);
-        }
-        BigDecimal i = toReal();
-        double logarithm = 0;
-        if (i.compareTo(BigDecimal.TEN) > 0) do {
-            i = i.divide(BigDecimal.TEN, MyReal.SCALE, MyReal.ROUNDING_MODE);
-            logarithm++;
-        } while (i.compareTo(BigDecimal.TEN) > 0);
-        else if (i.compareTo(BigDecimal.ONE) < 0) do {
-            i = i.multiply(BigDecimal.TEN);
-            logarithm--;
-        } while (i.compareTo(BigDecimal.ONE) < 0);
-        return checkRealToInt(BigDecimal.valueOf(logarithm + Math.log10(i.doubleValue())).divide(BigDecimal.valueOf(Math.log10(base.toReal().doubleValue())), MyReal.SCALE, MyReal.ROUNDING_MODE));
-    }
-
-    private MyNumber log() {
-        BigDecimal i = toReal();
-        double logarithm = 0;
-        if (i.compareTo(BigDecimal.TEN) > 0) do {
-            i = i.divide(BigDecimal.TEN, MyReal.SCALE, MyReal.ROUNDING_MODE);
-            logarithm++;
-        } while (i.compareTo(BigDecimal.TEN) > 0);
-        else if (i.compareTo(BigDecimal.ONE) < 0) do {
-            i = i.multiply(BigDecimal.TEN);
-            logarithm--;
-        } while (i.compareTo(BigDecimal.ONE) < 0);
-        return checkRealToInt(BigDecimal.valueOf(logarithm + Math.log10(i.doubleValue())));
+        return checkRealToInt(BigDecimalMath.log(toReal(context.getMathContext()), logarithmBase(base, context), context.getMathContext()), context);
     }
 
     @Override
     public String toString() {
         return value.toString();
     }
+
+    @Override
+    public void appendTo(Appendable out) throws IOException {
+        value.appendTo(out);
+    }
 }
@@ -3,8 +3,10 @@ package math;
 import exception.Comparison;
 import exception.WrongOperandException;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.MathContext;
 import java.math.RoundingMode;
 import java.util.Objects;
 
@@ -14,14 +16,25 @@ import java.util.Objects;
 public final class MyReal extends MyNumber {
 
     /**
-     * The scale of the real number for inexact numbers.
+     * The default scale of the real number for inexact numbers.
+     *
+     * @see EvaluationContext#DEFAULT
      */
     public static final int SCALE = 15;
 
     /**
-     * The rounding mode of the real number for inexact numbers.
+     * The default rounding mode of the real number for inexact numbers.
+     *
+     * @see EvaluationContext#DEFAULT
+     */
+    public static final RoundingMode ROUNDING_MODE = EvaluationContext.DEFAULT.getRoundingMode();
+
+    /**
+     * The default math context of the real number for square roots, exponentials and logarithms.
+     *
+     * @see EvaluationContext#DEFAULT
      */
-    public static final RoundingMode ROUNDING_MODE = RoundingMode.HALF_UP;
+    public static final MathContext MATH_CONTEXT = EvaluationContext.DEFAULT.getMathContext();
 
     /**
      * The constant {@link MyNumber} 0 as a {@link MyReal}.
@@ -38,6 +51,11 @@ public final class MyReal extends MyNumber {
      */
     private final BigDecimal value;
 
+    /**
+     * The cached representation of this real number as a rational number.
+     */
+    private Rational rational;
+
     /**
      * Constructs and initializes a real number with the specified value.
      *
@@ -45,7 +63,25 @@ public final class MyReal extends MyNumber {
      * @throws NullPointerException if the value is null
      */
     public MyReal(BigDecimal value) {
-        this.value = Objects.requireNonNull(value, "value null").setScale(SCALE, ROUNDING_MODE);
+        this(value, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Constructs and initializes a real number with the specified value rounded to the scale of the
+     * given evaluation context.
+     *
+     * @param value   the value of the real number
+     * @param context the evaluation context
+     * @throws NullPointerException if the value or evaluation context is null
+     */
+    public MyReal(BigDecimal value, EvaluationContext context) {
+        super(NumericTower.REAL);
+        this.value = Objects.requireNonNull(value, "value null").setScale(context.getScale(), context.getRoundingMode());
+    }
+
+    private MyReal(BigDecimal value, boolean ignored) {
+        super(NumericTower.REAL);
+        this.value = value;
     }
 
     /**
@@ -59,12 +95,6 @@ public final class MyReal extends MyNumber {
         return sign == -1 ? rounded.negate() : rounded;
     }
 
-    private BigDecimal roundNumber(BigDecimal b) {
-        final int s = b.signum();
-        final BigDecimal r = b.abs();
-        return s == -1 ? r.negate() : r;
-    }
-
     @Override
     public BigInteger toInteger() {
         return round().toBigInteger();
@@ -72,155 +102,114 @@ public final class MyReal extends MyNumber {
 
     @Override
     public Rational toRational() {
-        return new Rational(roundNumber(BigDecimal.TEN.pow(SCALE).multiply(value)).toBigInteger(), BigInteger.TEN.pow(SCALE));
+        Rational r = rational;
+        if (r == null) {
+            final int scale = value.scale();
+            r = scale <= 0 ? new Rational(value.toBigInteger(), BigInteger.ONE, false) : new Rational(value.unscaledValue(), BigInteger.TEN.pow(scale));
+            rational = r;
+        }
+        return r;
     }
 
     @Override
-    public BigDecimal toReal() {
+    public BigDecimal toReal(EvaluationContext context) {
         return value;
     }
 
     @Override
     public boolean isZero() {
-        return this.equals(ZERO);
+        return value.signum() == 0;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(value);
+        return Objects.hash(value.signum() == 0 ? BigDecimal.ZERO : value.stripTrailingZeros());
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof MyReal number)) return false;
-        return value.equals(number.value);
+        return value.compareTo(number.value) == 0;
     }
 
     @Override
     public MyNumber negate() {
-        return new MyReal(value.negate());
+        return new MyReal(value.negate(), false);
     }
 
     @Override
-    public MyNumber plus(MyNumber other) {
-        return checkRealToInt(value.add(other.toReal()));
+    public MyNumber plus(MyNumber other, EvaluationContext context) {
+        return NumericTower.plus(this, other, context);
     }
 
     @Override
     public MyNumber minus() {
-        return new MyReal(value.negate());
+        return new MyReal(value.negate(), false);
     }
 
     @Override
-    public MyNumber minus(MyNumber other) {
-        return checkRealToInt(value.subtract(other.toReal()));
+    public MyNumber minus(MyNumber other, EvaluationContext context) {
+        return NumericTower.minus(this, other, context);
     }
 
     @Override
-    public MyNumber times(MyNumber other) {
-        return checkRealToInt(value.multiply(other.toReal()));
+    public MyNumber times(MyNumber other, EvaluationContext context) {
+        return NumericTower.times(this, other, context);
     }
 
     @Override
-    public MyNumber divide() {
-        if (equals(ZERO)) throw new WrongOperandException(this, Comparison.DIFFERENT_FROM, ZERO);
-        return new MyReal(BigDecimal.ONE.divide(value, SCALE, ROUNDING_MODE));
+    public MyNumber divide(EvaluationContext context) {
+        if (isZero()) throw new WrongOperandException(this, Comparison.DIFFERENT_FROM, ZERO);
+        return new MyReal(BigDecimal.ONE.divide(value, context.getScale(), context.getRoundingMode()), false);
     }
 
     @Override
-    public MyNumber divide(MyNumber other) {
-        if (other instanceof MyInteger) if (other.equals(MyInteger.ZERO))
-            throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, MyInteger.ZERO);
-        if (other instanceof MyReal)
-            if (other.equals(ZERO)) throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, ZERO);
-        if (other.equals(MyRational.ZERO))
-            throw new WrongOperandException(other, Comparison.DIFFERENT_FROM, MyRational.ZERO);
-        return checkRealToInt(value.divide(other.toReal(), SCALE, ROUNDING_MODE));
+    public MyNumber divide(MyNumber other, EvaluationContext context) {
+        return NumericTower.divide(this, other, context);
     }
 
     @Override
-    public MyNumber expt(MyNumber n) {
+    public MyNumber expt(MyNumber n, EvaluationContext context) {
         if (value.compareTo(BigDecimal.ZERO) <= 0) throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
         if (n instanceof MyInteger) if (n.toInteger().compareTo(BigInteger.ZERO) <= 0)
             throw new WrongOperandException(n, Comparison.GREATER_THAN, MyInteger.ZERO);
-        if (n instanceof MyReal) if (n.toReal().compareTo(BigDecimal.ZERO) <= 0)
+        if (n instanceof MyReal) if (n.toReal(context).compareTo(BigDecimal.ZERO) <= 0)
             throw new WrongOperandException(n, Comparison.GREATER_THAN, ZERO);
         if (n instanceof MyRational) {
             final Rational r = n.toRational();
             if (r.equals(Rational.ZERO) || r.getNumerator().signum() == -1)
                 throw new WrongOperandException(n, Comparison.GREATER_THAN, MyRational.ZERO);
         }
-        final BigDecimal x = log().toReal().multiply(n.toReal());
-        final BigInteger m = x.toBigInteger();
-        return checkRealToInt(BigDecimal.TEN.pow(m.intValue()).multiply(BigDecimal.valueOf(Math.pow(10, x.subtract(new BigDecimal(m)).doubleValue()))));
+        return Exponentiation.power(value, n, context);
     }
 
     @Override
-    public MyNumber exp() {
+    public MyNumber exp(EvaluationContext context) {
         if (value.compareTo(BigDecimal.ZERO) <= 0) throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
-        final BigDecimal x = BigDecimal.valueOf(Math.log10(Math.E)).multiply(value);
-        final BigInteger m = x.toBigInteger();
-        return checkRealToInt(BigDecimal.TEN.pow(m.intValue()).multiply(BigDecimal.valueOf(Math.pow(10, x.subtract(new BigDecimal(m)).doubleValue()))));
+        Exponentiation.checkExp(value, context);
+        return checkRealToInt(BigDecimalMath.exp(value, context.getMathContext()), context);
     }
 
     @Override
-    public MyNumber ln() {
+    public MyNumber ln(EvaluationContext context) {
         if (value.compareTo(BigDecimal.ZERO) <= 0) throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
-        BigDecimal i = new BigDecimal(String.valueOf(value));
-        double logarithm = 0;
-        if (i.compareTo(BigDecimal.TEN) > 0) do {
-            i = i.divide(BigDecimal.TEN, MyReal.SCALE, MyReal.ROUNDING_MODE);
-            logarithm++;
-        } while (i.compareTo(BigDecimal.TEN) > 0);
-        else if (i.compareTo(BigDecimal.ONE) < 0) do {
-            i = i.multiply(BigDecimal.TEN);
-            logarithm--;
-        } while (i.compareTo(BigDecimal.ONE) < 0);
-        return checkRealToInt(BigDecimal.valueOf(logarithm + Math.log10(i.doubleValue())).divide(BigDecimal.valueOf(Math.log10(Math.E)), MyReal.SCALE, MyReal.ROUNDING_MODE));
+        return checkRealToInt(BigDecimalMath.ln(value, context.getMathContext()), context);
     }
 
     @Override
-    public MyNumber log(MyNumber base) {
+    public MyNumber log(MyNumber base, EvaluationContext context) {
         if (value.compareTo(BigDecimal.ZERO) <= 0) throw new WrongOperandException(this, Comparison.GREATER_THAN, ZERO);
-        if (base instanceof MyInteger) if (base.toInteger().compareTo(BigInteger.ZERO) <= 0)
-            throw new WrongOperandException(base, Comparison.GREATER_THAN, MyInteger.ZERO);
-        if (base instanceof MyReal) if (base.toReal().compareTo(BigDecimal.ZERO) <= 0)
-            throw new WrongOperandException(base, Comparison.GREATER_THAN, ZERO);
-        if (base instanceof MyRational) {
-            final Rational r = base.toRational();
-            if (r.equals(Rational.ZERO) || r.getNumerator().signum() == -1)
-                throw new WrongOperandException(base, Comparison.GREATER_THAN, MyRational.ZERO);
-        }
-        BigDecimal i = new BigDecimal(String.valueOf(value));
-        double logarithm = 0;
-        if (i.compareTo(BigDecimal.TEN) > 0) do {
-            i = i.divide(BigDecimal.TEN, MyReal.SCALE, MyReal.ROUNDING_MODE);
-            logarithm++;
-        } while (i.compareTo(BigDecimal.TEN) > 0);
-        else if (i.compareTo(BigDecimal.ONE) < 0) do {
-            i = i.multiply(BigDecimal.TEN);
-            logarithm--;
-        } while (i.compareTo(BigDecimal.ONE) < 0);
-        return checkRealToInt(BigDecimal.valueOf(logarithm + Math.log10(i.doubleValue())).divide(BigDecimal.valueOf(Math.log10(base.toReal().doubleValue())), MyReal.SCALE, MyReal.ROUNDING_MODE));
-    }
-
-    private MyNumber log() {
-        BigDecimal i = new BigDecimal(String.valueOf(value));
-        double logarithm = 0;
-        if (i.compareTo(BigDecimal.TEN) > 0) do {
-            i = i.divide(BigDecimal.TEN, MyReal.SCALE, MyReal.ROUNDING_MODE);
-            logarithm++;
-        } while (i.compareTo(BigDecimal.TEN) > 0);
-        else if (i.compareTo(BigDecimal.ONE) < 0) do {
-            i = i.multiply(BigDecimal.TEN);
-            logarithm--;
-        } while (i.compareTo(BigDecimal.ONE) < 0);
-        return checkRealToInt(BigDecimal.valueOf(logarithm + Math.log10(i.doubleValue())));
+        return checkRealToInt(BigDecimalMath.log(value, logarithmBase(base, context), context.getMathContext()), context);
     }
 
     @Override
     public String toString() {
-        return value.stripTrailingZeros().toString();
+        return DecimalConversion.toString(this::appendTo);
+    }
+
+    @Override
+    public void appendTo(Appendable out) throws IOException {
+        DecimalConversion.writeDecimal(value.stripTrailingZeros(), out);
     }
 }
@@ -0,0 +1,197 @@
+package math;
+
+import exception.Comparison;
+import exception.WrongOperandException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * The numeric tower of integer, rational and real numbers. Binary arithmetic dispatches once on
+ * the rank pair of both operands and runs a kernel specialized for the (left type, right type,
+ * operator) triple, which works on the raw values and cached conversions of the operands.
+ *
+ * <p>The dispatch is a {@code switch} on a final field instead of a virtual call, so call sites
+ * stay monomorphic for the JIT regardless of how many number types flow through them. Numbers
+ * outside the tower are delegated to their own implementation.
+ *
+ * <p>The result types follow the rules of {@link MyNumber#plus(MyNumber)},
+ * {@link MyNumber#minus(MyNumber)}, {@link MyNumber#times(MyNumber)} and
+ * {@link MyNumber#divide(MyNumber)}.
+ */
+public final class NumericTower {
+
+    /**
+     * The rank of {@link MyInteger}.
+     */
+    static final int INTEGER = 0;
+
+    /**
+     * The rank of {@link MyRational}.
+     */
+    static final int RATIONAL = 1;
+
+    /**
+     * The rank of {@link MyReal}.
+     */
+    static final int REAL = 2;
+
+    /**
+     * The rank of numbers outside the tower.
+     */
+    static final int OTHER = 3;
+
+    private static final int II = INTEGER << 2 | INTEGER;
+    private static final int IQ = INTEGER << 2 | RATIONAL;
+    private static final int IR = INTEGER << 2 | REAL;
+    private static final int QI = RATIONAL << 2 | INTEGER;
+    private static final int QQ = RATIONAL << 2 | RATIONAL;
+    private static final int QR = RATIONAL << 2 | REAL;
+    private static final int RI = REAL << 2 | INTEGER;
+    private static final int RQ = REAL << 2 | RATIONAL;
+    private static final int RR = REAL << 2 | REAL;
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private NumericTower() {
+    }
+
+    /**
+     * Returns the sum of both numbers ({@code a + b}).
+     *
+     * @param a       the left operand
+     * @param b       the right operand
+     * @param context the evaluation context
+     * @return the sum of both numbers
+     */
+    public static MyNumber plus(MyNumber a, MyNumber b, EvaluationContext context) {
+        return switch (a.rank << 2 | b.rank) {
+            case II -> new MyInteger(integer(a).add(integer(b)));
+            case IQ -> MyNumber.fromRational(rational(b).plus(integer(a)));
+            case QI -> MyNumber.fromRational(rational(a).plus(integer(b)));
+            case QQ -> MyNumber.fromRational(rational(a).plus(rational(b)));
+            case IR, QR, RI, RQ, RR -> MyNumber.fromReal(real(a, context).add(real(b, context)), context);
+            default -> a.rank == OTHER ? a.plus(b, context) : b.plus(a, context);
+        };
+    }
+
+    /**
+     * Returns the difference of both numbers ({@code a - b}).
+     *
+     * @param a       the left operand
+     * @param b       the right operand
+     * @param context the evaluation context
+     * @return the difference of both numbers
+     */
+    public static MyNumber minus(MyNumber a, MyNumber b, EvaluationContext context) {
+        return switch (a.rank << 2 | b.rank) {
+            case II -> new MyInteger(integer(a).subtract(integer(b)));
+            case IQ -> MyNumber.fromRational(rational(b).negate().plus(integer(a)));
+            case QI -> MyNumber.fromRational(rational(a).plus(integer(b).negate()));
+            case QQ -> MyNumber.fromRational(rational(a).plus(rational(b).negate()));
+            case IR, QR, RI, RQ, RR -> MyNumber.fromReal(real(a, context).subtract(real(b, context)), context);
+            default -> a.rank == OTHER ? a.minus(b, context) : b.negate().plus(a, context);
+        };
+    }
+
+    /**
+     * Returns the product of both numbers ({@code a * b}).
+     *
+     * @param a       the left operand
+     * @param b       the right operand
+     * @param context the evaluation context
+     * @return the product of both numbers
+     */
+    public static MyNumber times(MyNumber a, MyNumber b, EvaluationContext context) {
+        return switch (a.rank << 2 | b.rank) {
+            case II -> new MyInteger(integer(a).multiply(integer(b)));
+            case IQ -> MyNumber.fromRational(rational(b).times(integer(a)));
+            case QI -> MyNumber.fromRational(rational(a).times(integer(b)));
+            case QQ -> MyNumber.fromRational(rational(a).times(rational(b)));
+            case IR, QR, RI, RQ, RR -> MyNumber.fromReal(real(a, context).multiply(real(b, context)), context);
+            default -> a.rank == OTHER ? a.times(b, context) : b.times(a, context);
+        };
+    }
+
+    /**
+     * Returns the quotient of both numbers ({@code a / b}).
+     *
+     * @param a       the left operand
+     * @param b       the right operand
+     * @param context the evaluation context
+     * @return the quotient of both numbers
+     * @throws WrongOperandException if the right operand is 0
+     */
+    public static MyNumber divide(MyNumber a, MyNumber b, EvaluationContext context) {
+        final int ranks = a.rank << 2 | b.rank;
+        if (a.rank != OTHER && b.rank != OTHER && b.isZero())
+            throw new WrongOperandException(b, Comparison.DIFFERENT_FROM, zero(b.rank));
+        return switch (ranks) {
+            case II -> MyNumber.fromRational(new Rational(integer(a), integer(b)));
+            case IQ -> {
+                final Rational r = rational(b);
+                yield MyNumber.fromRational(new Rational(integer(a).multiply(r.getDenominator()), r.getNumerator()));
+            }
+            case QI -> {
+                final Rational r = rational(a);
+                yield MyNumber.fromRational(new Rational(r.getNumerator(), r.getDenominator().multiply(integer(b))));
+            }
+            case QQ -> {
+                final Rational r = rational(a), s = rational(b);
+                yield MyNumber.fromRational(new Rational(r.getNumerator().multiply(s.getDenominator()), r.getDenominator().multiply(s.getNumerator())));
+            }
+            case IR, QR, RI, RQ, RR -> MyNumber.fromReal(real(a, context).divide(real(b, context), context.getScale(), context.getRoundingMode()), context);
+            default -> a.rank == OTHER ? a.divide(b, context) : b.divide(context).times(a, context);
+        };
+    }
+
+    /**
+     * Returns the value of the given integer.
+     *
+     * @param n the integer
+     * @return the value of the given integer
+     */
+    private static BigInteger integer(MyNumber n) {
+        return ((MyInteger) n).toInteger();
+    }
+
+    /**
+     * Returns the value of the given rational number.
+     *
+     * @param n the rational number
+     * @return the value of the given rational number
+     */
+    private static Rational rational(MyNumber n) {
+        return ((MyRational) n).toRational();
+    }
+
+    /**
+     * Returns the (cached) real representation of the given number of the tower.
+     *
+     * @param n       the number
+     * @param context the evaluation context
+     * @return the real representation of the given number
+     */
+    private static BigDecimal real(MyNumber n, EvaluationContext context) {
+        return switch (n.rank) {
+            case INTEGER -> ((MyInteger) n).toReal(context);
+            case RATIONAL -> ((MyRational) n).toReal(context);
+            default -> ((MyReal) n).toReal(context);
+        };
+    }
+
+    /**
+     * Returns the zero of the given rank.
+     *
+     * @param rank the rank
+     * @return the zero of the given rank
+     */
+    private static MyNumber zero(int rank) {
+        return switch (rank) {
+            case INTEGER -> MyInteger.ZERO;
+            case RATIONAL -> MyRational.ZERO;
+            default -> MyReal.ZERO;
+        };
+    }
+}
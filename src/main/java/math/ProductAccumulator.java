@@ -0,0 +1,256 @@
+package math;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A mutable accumulator for the product of many numbers. The operands are absorbed in place and
+ * only one {@link MyNumber} is created for the result, instead of one intermediate number per
+ * multiplication.
+ *
+ * <p>The type of the product follows the rules of {@link MyNumber#times(MyNumber)}:
+ * <ol>
+ *     <li>If all operands are integers, the result will be an integer</li>
+ *     <li>If one of the operands is outside the numeric tower (e.g. an exact real), the operands
+ *     of the tower are combined first and the result is determined by that number</li>
+ *     <li>If one of the operands is real, the result will be real</li>
+ *     <li>Otherwise (there are rational operands,) the result will be rational</li>
+ * </ol>
+ *
+ * <p>Every multiplied operand becomes the left operand of the product so far
+ * ({@code this = n * this}), so multiplying the operands from the last to the first gives the right
+ * fold {@code n1 * (n2 * (... * nk))} of {@link MyNumber#times(MyNumber)}, with the same results:
+ * exact operands are multiplied exactly, and a real product becomes an integer again whenever it is
+ * integral and is otherwise rounded to the scale of the evaluation context after every
+ * multiplication. In the intermediate context of a deferred evaluation that scale includes the
+ * guard digits, see {@link EvaluationContext#intermediate()}.
+ *
+ * <p>Notice if the result can be represented as an integer, it will be an integer. Small factors
+ * are multiplied into a running chunk; once a chunk exceeds {@link #CHUNK_BITS} bits it is set
+ * aside, and all chunks are multiplied with a balanced {@link ProductTree} when the result is
+ * built, so wide products over big integers multiply similarly sized numbers. Rational products
+ * cancel the common factors of the running chunks whenever they are set aside and are reduced
+ * once with {@link BigInteger#gcd(BigInteger)} when the result is built.
+ */
+public final class ProductAccumulator {
+
+    /**
+     * The accumulated value is an integer.
+     */
+    private static final int INTEGER = 0;
+
+    /**
+     * The accumulated value is a rational number.
+     */
+    private static final int RATIONAL = 1;
+
+    /**
+     * The accumulated value is a real number.
+     */
+    private static final int REAL = 2;
+
+    /**
+     * The number of bits above which a running numerator or denominator chunk is set aside for the
+     * product tree.
+     */
+    private static final int CHUNK_BITS = 2048;
+
+    /**
+     * The evaluation context of real operands.
+     */
+    private final EvaluationContext context;
+
+    /**
+     * The current kind of the product, one of {@link #INTEGER}, {@link #RATIONAL} or {@link #REAL}.
+     */
+    private int kind;
+
+    /**
+     * The running chunk of the integer product or the numerator of the rational product.
+     */
+    private BigInteger numerator;
+
+    /**
+     * The running chunk of the denominator of the rational product.
+     */
+    private BigInteger denominator;
+
+    /**
+     * The completed chunks of the numerator.
+     */
+    private final List<BigInteger> numerators = new ArrayList<>();
+
+    /**
+     * The completed chunks of the denominator.
+     */
+    private final List<BigInteger> denominators = new ArrayList<>();
+
+    /**
+     * The real product.
+     */
+    private BigDecimal real;
+
+    /**
+     * {@code true} if no number of the tower has been added yet, so a real number is taken as it
+     * is instead of being combined and rounded.
+     */
+    private boolean empty;
+
+    /**
+     * The product of all operands outside the numeric tower or {@code null} if there are none.
+     */
+    private MyNumber other;
+
+    /**
+     * Constructs and initializes an empty product accumulator.
+     *
+     * @param context the evaluation context of real operands
+     * @throws NullPointerException if the evaluation context is {@code null}
+     */
+    public ProductAccumulator(EvaluationContext context) {
+        this.context = Objects.requireNonNull(context, "context null");
+        reset();
+    }
+
+    /**
+     * Resets this accumulator to the empty product 1, so it can be reused.
+     */
+    public void reset() {
+        kind = INTEGER;
+        numerator = BigInteger.ONE;
+        denominator = BigInteger.ONE;
+        numerators.clear();
+        denominators.clear();
+        real = null;
+        other = null;
+        empty = true;
+    }
+
+    /**
+     * Multiplies this product with the given number ({@code this = n * this}).
+     *
+     * @param n the number to multiply
+     * @return this accumulator
+     */
+    public ProductAccumulator multiply(MyNumber n) {
+        if (n instanceof MyInteger) {
+            if (kind == REAL) multiplyReal(n.toReal(context));
+            else multiplyNumerator(n.toInteger());
+        } else if (n instanceof MyRational) {
+            if (kind == REAL) multiplyReal(n.toReal(context));
+            else {
+                final Rational r = n.toRational();
+                numerator = numerator.multiply(r.getNumerator());
+                denominator = denominator.multiply(r.getDenominator());
+                kind = RATIONAL;
+                if (numerator.bitLength() > CHUNK_BITS || denominator.bitLength() > CHUNK_BITS) setAside();
+            }
+        } else if (n instanceof MyReal) {
+            if (empty) {
+                real = n.toReal(context);
+                kind = REAL;
+            } else {
+                if (kind != REAL) toReal();
+                multiplyReal(n.toReal(context));
+            }
+        } else {
+            other = other == null ? n : other.times(n, context);
+            return this;
+        }
+        empty = false;
+        return this;
+    }
+
+    /**
+     * Returns the product of all multiplied numbers.
+     *
+     * @return the product of all multiplied numbers
+     */
+    public MyNumber result() {
+        final MyNumber result = switch (kind) {
+            case INTEGER -> {
+                collapse();
+                yield new MyInteger(numerator);
+            }
+            case RATIONAL -> {
+                collapse();
+                yield MyNumber.fromRational(Rational.reduce(numerator, denominator));
+            }
+            default -> new MyReal(real, context);
+        };
+        return other == null ? result : other.times(result, context);
+    }
+
+    private void multiplyNumerator(BigInteger x) {
+        numerator = numerator.multiply(x);
+        if (numerator.bitLength() > CHUNK_BITS) setAside();
+    }
+
+    /**
+     * Sets the running numerator and denominator chunks aside once they exceed {@link #CHUNK_BITS}
+     * bits. The factors the two chunks have in common are cancelled first, so the chunks and the
+     * final reduction stay smaller.
+     */
+    private void setAside() {
+        if (!denominator.equals(BigInteger.ONE)) {
+            final BigInteger g = numerator.gcd(denominator);
+            if (!g.equals(BigInteger.ONE)) {
+                numerator = numerator.divide(g);
+                denominator = denominator.divide(g);
+            }
+        }
+        if (numerator.bitLength() > CHUNK_BITS) {
+            numerators.add(numerator);
+            numerator = BigInteger.ONE;
+        }
+        if (denominator.bitLength() > CHUNK_BITS) {
+            denominators.add(denominator);
+            denominator = BigInteger.ONE;
+        }
+    }
+
+    /**
+     * Multiplies the completed chunks into the running numerator and denominator.
+     */
+    private void collapse() {
+        if (!numerators.isEmpty()) {
+            numerators.add(numerator);
+            numerator = ProductTree.multiply(numerators);
+            numerators.clear();
+        }
+        if (!denominators.isEmpty()) {
+            denominators.add(denominator);
+            denominator = ProductTree.multiply(denominators);
+            denominators.clear();
+        }
+    }
+
+    /**
+     * Multiplies the real product with the real number {@code x} like {@link MyNumber#times(MyNumber)}:
+     * the product becomes an integer if it is integral, otherwise it is rounded to the scale of the
+     * evaluation context. Products whose scale does not exceed that scale are exact and are kept as
+     * they are instead of being padded with zeros, which the result only does once.
+     *
+     * @param x the real number
+     */
+    private void multiplyReal(BigDecimal x) {
+        final BigDecimal stripped = real.multiply(x).stripTrailingZeros();
+        if (stripped.scale() <= 0) {
+            numerator = stripped.toBigIntegerExact();
+            denominator = BigInteger.ONE;
+            real = null;
+            kind = INTEGER;
+        } else if (stripped.scale() > context.getScale()) real = stripped.setScale(context.getScale(), context.getRoundingMode());
+        else real = stripped;
+    }
+
+    private void toReal() {
+        collapse();
+        final BigDecimal n = new BigDecimal(numerator);
+        real = kind == INTEGER ? n : n.divide(new BigDecimal(denominator), context.getScale(), context.getRoundingMode());
+        kind = REAL;
+    }
+}
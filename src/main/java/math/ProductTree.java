@@ -0,0 +1,95 @@
+package math;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Multiplies many big integers with a balanced product tree. Neighbouring factors are multiplied
+ * pairwise, so every multiplication combines operands of similar size and the subquadratic
+ * algorithms of {@link BigInteger} (Karatsuba, Toom-Cook) pay off, instead of multiplying a huge
+ * running product by one small factor at a time.
+ *
+ * <p>Subtrees whose factors have many bits in total are multiplied in parallel on the common
+ * {@link ForkJoinPool}.
+ */
+final class ProductTree {
+
+    /**
+     * The number of bits of a subtree below which it is multiplied sequentially.
+     */
+    private static final long PARALLEL_BITS = 1L << 18;
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private ProductTree() {
+    }
+
+    /**
+     * Returns the product of the given factors.
+     *
+     * @param factors the factors to multiply
+     * @return the product of the given factors, 1 if there are none
+     */
+    static BigInteger multiply(List<BigInteger> factors) {
+        final int size = factors.size();
+        if (size == 0) return BigInteger.ONE;
+        long bits = 0;
+        for (BigInteger factor : factors) bits += factor.bitLength();
+        return bits < PARALLEL_BITS ? multiply(factors, 0, size) : ForkJoinPool.commonPool().invoke(new Task(factors, 0, size, bits));
+    }
+
+    /**
+     * Returns the product of the factors in the given range.
+     *
+     * @param factors the factors to multiply
+     * @param from    the index of the first factor (inclusive)
+     * @param to      the index of the last factor (exclusive)
+     * @return the product of the factors in the given range
+     */
+    private static BigInteger multiply(List<BigInteger> factors, int from, int to) {
+        final int n = to - from;
+        if (n == 1) return factors.get(from);
+        if (n == 2) return factors.get(from).multiply(factors.get(from + 1));
+        final int middle = (from + to) >>> 1;
+        return multiply(factors, from, middle).multiply(multiply(factors, middle, to));
+    }
+
+    /**
+     * Multiplies a range of factors, forking the left half while it is large enough.
+     */
+    private static final class Task extends RecursiveTask<BigInteger> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<BigInteger> factors;
+
+        private final int from, to;
+
+        /**
+         * The total number of bits of the factors in the range.
+         */
+        private final long bits;
+
+        private Task(List<BigInteger> factors, int from, int to, long bits) {
+            this.factors = factors;
+            this.from = from;
+            this.to = to;
+            this.bits = bits;
+        }
+
+        @Override
+        protected BigInteger compute() {
+            if (bits < PARALLEL_BITS || to - from < 4) return multiply(factors, from, to);
+            final int middle = (from + to) >>> 1;
+            long leftBits = 0;
+            for (int i = from; i < middle; i++) leftBits += factors.get(i).bitLength();
+            final Task left = new Task(factors, from, middle, leftBits);
+            left.fork();
+            final BigInteger right = new Task(factors, middle, to, bits - leftBits).compute();
+            return left.join().multiply(right);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package math;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.Objects;
 
@@ -55,6 +56,39 @@ public final class Rational {
         denominator = d;
     }
 
+    /**
+     * Returns the rational number with the specified numerator and denominator in lowest terms.
+     * Unlike the constructor, the fraction is reduced with a single
+     * {@link BigInteger#gcd(BigInteger)} instead of a recursion per Euclidean step, so fractions
+     * with huge numerators and denominators, for example from untrusted input, can be reduced.
+     *
+     * @param numerator   the numerator of the rational number
+     * @param denominator the denominator of the rational number
+     * @return the rational number in lowest terms
+     * @throws ArithmeticException if the denominator is zero
+     */
+    public static Rational valueOf(BigInteger numerator, BigInteger denominator) {
+        Objects.requireNonNull(numerator, "numerator null");
+        Objects.requireNonNull(denominator, "denominator null");
+        final int signum = denominator.signum();
+        if (signum == 0) throw new ArithmeticException("Division by zero");
+        return signum == -1 ? reduce(numerator.negate(), denominator.negate()) : reduce(numerator, denominator);
+    }
+
+    /**
+     * Returns the fraction {@code n/d} in lowest terms. Unlike the public constructor, the
+     * fraction is reduced with a single {@link BigInteger#gcd(BigInteger)}, so huge numerators and
+     * denominators can be reduced without a recursion per Euclidean step.
+     *
+     * @param n the numerator
+     * @param d the (positive) denominator
+     * @return the reduced fraction
+     */
+    static Rational reduce(BigInteger n, BigInteger d) {
+        final BigInteger g = n.gcd(d);
+        return g.equals(BigInteger.ONE) ? new Rational(n, d, false) : new Rational(n.divide(g), d.divide(g), false);
+    }
+
     private static BigInteger computeRemainder(BigInteger greater, BigInteger lower) {
         return (lower.equals(BigInteger.ZERO)) ? greater : computeRemainder(lower, greater.remainder(lower));
     }
@@ -144,7 +178,19 @@ public final class Rational {
 
     @Override
     public String toString() {
-        if (numerator.signum() == -1) return String.format("-%s/%s", numerator.negate(), denominator);
-        return String.format("%s/%s", numerator, denominator);
+        return DecimalConversion.toString(this::appendTo);
+    }
+
+    /**
+     * Appends the string representation of this rational number ({@link #toString()}) to the given
+     * output.
+     *
+     * @param out the output
+     * @throws IOException if the output throws an exception
+     */
+    public void appendTo(Appendable out) throws IOException {
+        DecimalConversion.writeInteger(numerator, out);
+        out.append('/');
+        DecimalConversion.writeInteger(denominator, out);
     }
 }
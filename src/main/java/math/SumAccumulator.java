@@ -0,0 +1,207 @@
+package math;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Objects;
+
+/**
+ * A mutable accumulator for the sum of many numbers. The operands are absorbed in place and only
+ * one {@link MyNumber} is created for the result, instead of one intermediate number per addition.
+ *
+ * <p>The type of the sum follows the rules of {@link MyNumber#plus(MyNumber)}:
+ * <ol>
+ *     <li>If all operands are integers, the result will be an integer</li>
+ *     <li>If one of the operands is outside the numeric tower (e.g. an exact real), the operands
+ *     of the tower are combined first and the result is determined by that number</li>
+ *     <li>If one of the operands is real, the result will be real</li>
+ *     <li>Otherwise (there are rational operands,) the result will be rational</li>
+ * </ol>
+ *
+ * <p>Every added operand becomes the left operand of the sum so far ({@code this = n + this}), so
+ * adding the operands from the last to the first gives the right fold
+ * {@code n1 + (n2 + (... + nk))} of {@link MyNumber#plus(MyNumber)}, with the same results: exact
+ * operands are summed exactly, and a real sum becomes an integer again whenever it is integral and
+ * is otherwise rounded to the scale of the evaluation context after every addition.
+ *
+ * <p>Notice if the result can be represented as an integer, it will be an integer. Rational sums
+ * are kept over the least common multiple of the denominators seen so far, so the denominator only
+ * grows by the factors a new operand actually adds and runs of fractions with equal or dividing
+ * denominators cost one multiplication each. The sum is reduced once when the result is built.
+ */
+public final class SumAccumulator {
+
+    /**
+     * The accumulated value is an integer.
+     */
+    private static final int INTEGER = 0;
+
+    /**
+     * The accumulated value is a rational number.
+     */
+    private static final int RATIONAL = 1;
+
+    /**
+     * The accumulated value is a real number.
+     */
+    private static final int REAL = 2;
+
+    /**
+     * The evaluation context of real operands.
+     */
+    private final EvaluationContext context;
+
+    /**
+     * The current kind of the sum, one of {@link #INTEGER}, {@link #RATIONAL} or {@link #REAL}.
+     */
+    private int kind;
+
+    /**
+     * The integer sum or the numerator of the rational sum.
+     */
+    private BigInteger numerator;
+
+    /**
+     * The denominator of the rational sum, the least common multiple of all rational denominators.
+     */
+    private BigInteger denominator;
+
+    /**
+     * The real sum.
+     */
+    private BigDecimal real;
+
+    /**
+     * {@code true} if no number of the tower has been added yet, so a real number is taken as it
+     * is instead of being combined and rounded.
+     */
+    private boolean empty;
+
+    /**
+     * The sum of all operands outside the numeric tower or {@code null} if there are none.
+     */
+    private MyNumber other;
+
+    /**
+     * Constructs and initializes an empty sum accumulator.
+     *
+     * @param context the evaluation context of real operands
+     * @throws NullPointerException if the evaluation context is {@code null}
+     */
+    public SumAccumulator(EvaluationContext context) {
+        this.context = Objects.requireNonNull(context, "context null");
+        reset();
+    }
+
+    /**
+     * Resets this accumulator to the empty sum 0, so it can be reused.
+     */
+    public void reset() {
+        kind = INTEGER;
+        numerator = BigInteger.ZERO;
+        denominator = BigInteger.ONE;
+        real = null;
+        other = null;
+        empty = true;
+    }
+
+    /**
+     * Adds the given number to this sum ({@code this = n + this}).
+     *
+     * @param n the number to add
+     * @return this accumulator
+     */
+    public SumAccumulator add(MyNumber n) {
+        if (n instanceof MyInteger) {
+            final BigInteger i = n.toInteger();
+            switch (kind) {
+                case INTEGER -> numerator = numerator.add(i);
+                case RATIONAL -> numerator = numerator.add(denominator.multiply(i));
+                default -> addReal(n.toReal(context));
+            }
+        } else if (n instanceof MyRational) {
+            final Rational r = n.toRational();
+            switch (kind) {
+                case INTEGER -> {
+                    numerator = numerator.multiply(r.getDenominator()).add(r.getNumerator());
+                    denominator = r.getDenominator();
+                    kind = RATIONAL;
+                }
+                case RATIONAL -> addFraction(r.getNumerator(), r.getDenominator());
+                default -> addReal(n.toReal(context));
+            }
+        } else if (n instanceof MyReal) {
+            if (empty) {
+                real = n.toReal(context);
+                kind = REAL;
+            } else {
+                if (kind != REAL) toReal();
+                addReal(n.toReal(context));
+            }
+        } else {
+            other = other == null ? n : other.plus(n, context);
+            return this;
+        }
+        empty = false;
+        return this;
+    }
+
+    /**
+     * Returns the sum of all added numbers.
+     *
+     * @return the sum of all added numbers
+     */
+    public MyNumber result() {
+        final MyNumber result = switch (kind) {
+            case INTEGER -> new MyInteger(numerator);
+            case RATIONAL -> MyNumber.fromRational(Rational.reduce(numerator, denominator));
+            default -> new MyReal(real, context);
+        };
+        return other == null ? result : other.plus(result, context);
+    }
+
+    /**
+     * Adds the fraction {@code a/b} to the rational sum, extending the denominator to the least
+     * common multiple of both denominators.
+     *
+     * @param a the numerator of the fraction
+     * @param b the (positive) denominator of the fraction
+     */
+    private void addFraction(BigInteger a, BigInteger b) {
+        if (b.equals(denominator)) {
+            numerator = numerator.add(a);
+            return;
+        }
+        final BigInteger g = denominator.gcd(b);
+        final BigInteger scaleSum = b.divide(g), scaleFraction = denominator.divide(g);
+        if (!scaleSum.equals(BigInteger.ONE)) {
+            numerator = numerator.multiply(scaleSum);
+            denominator = denominator.multiply(scaleSum);
+        }
+        numerator = numerator.add(a.multiply(scaleFraction));
+    }
+
+    /**
+     * Adds the real number {@code x} to the real sum like {@link MyNumber#plus(MyNumber)}: the sum
+     * becomes an integer if it is integral, otherwise it is rounded to the scale of the evaluation
+     * context. Sums whose scale does not exceed that scale are exact and are kept as they are
+     * instead of being padded with zeros, which the result only does once.
+     *
+     * @param x the real number
+     */
+    private void addReal(BigDecimal x) {
+        final BigDecimal stripped = real.add(x).stripTrailingZeros();
+        if (stripped.scale() <= 0) {
+            numerator = stripped.toBigIntegerExact();
+            denominator = BigInteger.ONE;
+            real = null;
+            kind = INTEGER;
+        } else if (stripped.scale() > context.getScale()) real = stripped.setScale(context.getScale(), context.getRoundingMode());
+        else real = stripped;
+    }
+
+    private void toReal() {
+        final BigDecimal n = new BigDecimal(numerator);
+        real = kind == INTEGER ? n : n.divide(new BigDecimal(denominator), context.getScale(), context.getRoundingMode());
+        kind = REAL;
+    }
+}
@@ -1,15 +1,18 @@
 package tree;
 
 import exception.IllegalIdentifierExceptions;
+import math.EvaluationContext;
 import math.MyNumber;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * Evaluates an arithmetic expression by replacing the variables (identifiers) of the expression
- * with their values.
+ * with their values. An evaluator is not thread-safe; to evaluate one expression repeatedly or from
+ * several threads, share a {@link PreparedExpression} instead.
  */
 public class ArithmeticExpressionEvaluator {
 
@@ -23,6 +26,11 @@ public class ArithmeticExpressionEvaluator {
      */
     private final Map<String, MyNumber> identifiers;
 
+    /**
+     * The evaluation context determining the precision of real numbers.
+     */
+    private final EvaluationContext context;
+
     private boolean b = true;
 
     /**
@@ -32,8 +40,22 @@ public class ArithmeticExpressionEvaluator {
      * @param identifiers the map of variables and their values
      */
     public ArithmeticExpressionEvaluator(ArithmeticExpressionNode root, Map<String, MyNumber> identifiers) {
-        this.root = root.clone();
+        this(root, identifiers, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Constructs and initializes an arithmetic expression evaluator with the given evaluation
+     * context.
+     *
+     * @param root        the root of the arithmetic expression tree to evaluate
+     * @param identifiers the map of variables and their values
+     * @param context     the evaluation context determining the precision of real numbers
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public ArithmeticExpressionEvaluator(ArithmeticExpressionNode root, Map<String, MyNumber> identifiers, EvaluationContext context) {
+        this.root = Objects.requireNonNull(root, "root null");
         this.identifiers = identifiers;
+        this.context = context;
     }
 
     /**
@@ -54,78 +76,130 @@ public class ArithmeticExpressionEvaluator {
         return identifiers;
     }
 
+    /**
+     * Returns the evaluation context determining the precision of real numbers.
+     *
+     * @return the evaluation context determining the precision of real numbers
+     */
+    public EvaluationContext getContext() {
+        return context;
+    }
+
     /**
      * Evaluates the arithmetic expression tree by replacing the variables (identifiers) of the
-     * expression with their values and evaluates the most inner expressions.
+     * expression with their values and evaluates the most inner expressions. The new tree is built
+     * by path copying: only the operations above a replaced node are copied, all other subtrees are
+     * shared with the previous tree, and the tree is traversed iteratively, so it may be of any
+     * depth.
      *
      * @return the list of tokens representing the evaluation
      */
     public List<String> nextStep() {
         if (root instanceof LiteralExpressionNode) return ExpressionTreeHandler.reconstruct(root);
-        if (root instanceof IdentifierExpressionNode i) {
-            final MyNumber n;
-            if ((n = identifiers.get(i.getValue())) == null) throw new IllegalIdentifierExceptions("<unknown!>");
-            final ArrayList<String> a = new ArrayList<>(1);
-            a.add(n.toString());
-            return ExpressionTreeHandler.reconstruct(root = ExpressionTreeHandler.buildRecursively(a.iterator()));
-        }
+        if (root instanceof IdentifierExpressionNode i)
+            return ExpressionTreeHandler.reconstruct(root = new LiteralExpressionNode(bind(i)));
         if (b) {
-            final OperationExpressionNode o = (OperationExpressionNode) root;
-            if (checkIdentifiers(o)) {
-                final ArrayList<String> a = new ArrayList<>();
-                replaceIdentifiers(a, o);
-                root = ExpressionTreeHandler.buildRecursively(a.iterator());
-            }
+            root = rebuild((OperationExpressionNode) root, false);
             b = false;
         }
-        final ArrayList<String> a = new ArrayList<>();
-        buildList(a, (OperationExpressionNode) root);
-        root = ExpressionTreeHandler.buildRecursively(a.iterator());
-        return a;
+        root = rebuild((OperationExpressionNode) root, true);
+        return ExpressionTreeHandler.reconstruct(root);
     }
 
-    private boolean checkIdentifiers(OperationExpressionNode o) {
-        for (ListItem<ArithmeticExpressionNode> l = o.getOperands(); l != null; l = l.next) {
-            final ArithmeticExpressionNode a = l.key;
-            if (a instanceof IdentifierExpressionNode) return true;
-            if (a instanceof OperationExpressionNode op) if (checkIdentifiers(op)) return true;
-        }
-        return false;
-    }
+    /**
+     * Returns the tree with every identifier replaced by its value, or with every operation whose
+     * operands are all operands replaced by its value.
+     *
+     * @param o        the root of the tree
+     * @param evaluate {@code true} to evaluate the most inner operations, {@code false} to bind the
+     *                 identifiers
+     * @return the root of the new tree
+     */
+    private ArithmeticExpressionNode rebuild(OperationExpressionNode o, boolean evaluate) {
+        final ArrayDeque<Copy> stack = new ArrayDeque<>();
+        final ArithmeticExpressionNode[] result = new ArithmeticExpressionNode[1];
+        ExpressionTraversal.walk(o, new ExpressionTraversal.Listener<RuntimeException>() {
+            @Override
+            public boolean enter(OperationExpressionNode node) {
+                if (evaluate && checkEmbedded(node)) {
+                    add(new LiteralExpressionNode(node.evaluate(identifiers, context)));
+                    return false;
+                }
+                stack.push(new Copy(node));
+                return true;
+            }
 
-    private void replaceIdentifiers(ArrayList<String> a, OperationExpressionNode o) {
-        a.add("(");
-        a.add(o.getOperator().getSymbol());
-        for (ListItem<ArithmeticExpressionNode> l = o.getOperands(); l != null; l = l.next) {
-            final ArithmeticExpressionNode node = l.key;
-            if (node instanceof OperationExpressionNode op) replaceIdentifiers(a, op);
-            else if (node instanceof IdentifierExpressionNode i) {
-                final MyNumber n;
-                if ((n = identifiers.get(i.getValue())) == null) throw new IllegalIdentifierExceptions("<unknown!>");
-                a.add(n.toString());
-            } else a.add(node.toString());
-        }
-        a.add(")");
+            @Override
+            public void operand(OperandExpressionNode node) {
+                add(!evaluate && node instanceof IdentifierExpressionNode i ? new LiteralExpressionNode(bind(i)) : node);
+            }
+
+            @Override
+            public void exit(OperationExpressionNode node) {
+                final Copy copy = stack.pop();
+                add(copy.operands == null ? node : new OperationExpressionNode(node.getOperator(), copy.operands));
+            }
+
+            private void add(ArithmeticExpressionNode node) {
+                if (stack.isEmpty()) result[0] = node;
+                else stack.peek().add(node);
+            }
+        });
+        return result[0];
     }
 
-    private void buildList(ArrayList<String> a, OperationExpressionNode o) {
-        ListItem<ArithmeticExpressionNode> l = o.getOperands();
-        if (checkEmbedded(l)) {
-            a.add(o.evaluate(identifiers).toString());
-            return;
-        }
-        a.add("(");
-        a.add(o.getOperator().getSymbol());
-        for (; l != null; l = l.next) {
-            final ArithmeticExpressionNode node = l.key;
-            if (node instanceof OperationExpressionNode op) buildList(a, op);
-            else a.add(node.toString());
-        }
-        a.add(")");
+    /**
+     * Returns the value bound to the given identifier. Predefined identifiers (constants) are folded
+     * to their value in the evaluation context, all other identifiers are looked up in the map.
+     *
+     * @param i the identifier to bind
+     * @return the value bound to the identifier
+     * @throws IllegalIdentifierExceptions if the identifier is not defined in the map
+     */
+    private MyNumber bind(IdentifierExpressionNode i) {
+        final Identifier constant = i.getConstant();
+        if (constant != null) return constant.getValue(context);
+        final MyNumber n;
+        if ((n = identifiers.get(i.getValue())) == null) throw new IllegalIdentifierExceptions("<unknown!>");
+        return n;
     }
 
-    private boolean checkEmbedded(ListItem<ArithmeticExpressionNode> l) {
-        for (; l != null; l = l.next) if (l.key.isOperation()) return false;
+    private boolean checkEmbedded(OperationExpressionNode o) {
+        for (int k = 0; k < o.getOperandCount(); k++) if (o.getOperand(k).isOperation()) return false;
         return true;
     }
+
+    /**
+     * An operation being copied: its operands are copied once the first of them changes.
+     */
+    private static final class Copy {
+
+        /**
+         * The operation.
+         */
+        private final OperationExpressionNode node;
+
+        /**
+         * The new operands or {@code null} if no operand has changed so far.
+         */
+        private ArithmeticExpressionNode[] operands;
+
+        /**
+         * The index of the next operand.
+         */
+        private int index;
+
+        private Copy(OperationExpressionNode node) {
+            this.node = node;
+        }
+
+        private void add(ArithmeticExpressionNode operand) {
+            if (operands == null && operand != node.getOperand(index)) {
+                operands = new ArithmeticExpressionNode[node.getOperandCount()];
+                for (int k = 0; k < index; k++) operands[k] = node.getOperand(k);
+            }
+            if (operands != null) operands[index] = operand;
+            index++;
+        }
+    }
 }
@@ -2,6 +2,7 @@ package tree;
 
 import exception.IllegalIdentifierExceptions;
 import exception.UndefinedIdentifierException;
+import math.EvaluationContext;
 import math.MyNumber;
 
 import java.util.Map;
@@ -29,7 +30,22 @@ public interface ArithmeticExpressionNode extends Cloneable {
      * @throws IllegalIdentifierExceptions  if the identifier in the map is illegal to use
      * @throws UndefinedIdentifierException if the identifier is not defined for use in the map
      */
-    MyNumber evaluate(Map<String, MyNumber> identifiers);
+    default MyNumber evaluate(Map<String, MyNumber> identifiers) {
+        return evaluate(identifiers, EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Evaluates the arithmetic expression in the given evaluation context. If the context defers
+     * rounding, the whole expression is evaluated in its intermediate context and only the result
+     * is rounded.
+     *
+     * @param identifiers a map of identifiers and their values
+     * @param context     the evaluation context determining the precision of real numbers
+     * @return the result of the arithmetic expression
+     * @throws IllegalIdentifierExceptions  if the identifier in the map is illegal to use
+     * @throws UndefinedIdentifierException if the identifier is not defined for use in the map
+     */
+    MyNumber evaluate(Map<String, MyNumber> identifiers, EvaluationContext context);
 
     /**
      * Returns {@code true} if this node is an operand.
@@ -46,9 +62,25 @@ public interface ArithmeticExpressionNode extends Cloneable {
     boolean isOperation();
 
     /**
-     * Returns a clone of this node (deep copy).
+     * Returns the result of the given visitor for the tree rooted at this node. The tree is
+     * visited bottom-up with an explicit stack, see {@link ExpressionTraversal#fold(ArithmeticExpressionNode, ExpressionVisitor)}.
+     *
+     * @param visitor the visitor
+     * @param <R>     the type of the results
+     * @return the result of the visitor for this node
+     */
+    default <R> R accept(ExpressionVisitor<R> visitor) {
+        return ExpressionTraversal.fold(this, visitor);
+    }
+
+    /**
+     * Returns a clone of this node. Nodes are immutable, so every node returns itself and a tree
+     * is "copied" in constant time, sharing all its nodes with the original. Use
+     * {@link OperationExpressionNode#withOperand(int, ArithmeticExpressionNode)} or
+     * {@link ExpressionTreeHandler#replace(ArithmeticExpressionNode, int[], ArithmeticExpressionNode)}
+     * to derive a changed tree.
      *
-     * @return a clone of this node
+     * @return this node
      */
     ArithmeticExpressionNode clone();
 
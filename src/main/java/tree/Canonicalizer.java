@@ -0,0 +1,342 @@
+package tree;
+
+import math.MyNumber;
+import math.Rational;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Brings arithmetic expression trees into a canonical form, so that trees differing only in the
+ * order or grouping of the operands of commutative operators become structurally equal, for
+ * example {@code (+ a b)} and {@code (+ b a)}, or {@code (* 2 x y)} and {@code (* y (* x 2))}.
+ *
+ * <p>The operands of {@code +} and {@code *} are flattened (operands with the same operator are
+ * replaced by their operands) and sorted by the structural order of {@link #compare(ArithmeticExpressionNode, ArithmeticExpressionNode)}:
+ * literals by value before identifiers by name before operations. All other operators keep the
+ * order of their operands. The canonical form is mathematically equal to the original tree, but
+ * real results may differ in the last digit since operations are rounded in a different order.
+ *
+ * <p>The structural hash and {@link CanonicalKey canonical keys} identify structurally equal trees,
+ * so caches and tables keyed on the canonical form share the entries of all orderings. All
+ * methods traverse the trees iteratively and share unchanged subtrees.
+ */
+public final class Canonicalizer {
+
+    /**
+     * The multiplier of the structural hash.
+     */
+    private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    /**
+     * The order of operands of commutative operators. Nodes are compared by their kind, value and
+     * operator first, then by their hash and only if these are equal by their structure.
+     */
+    private static final Comparator<Canonical> ORDER = (a, b) -> {
+        final int c = compareNodes(a.node, b.node);
+        if (c != 0) return c;
+        final int h = Long.compare(a.hash, b.hash);
+        return h != 0 ? h : compare(a.node, b.node);
+    };
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private Canonicalizer() {
+    }
+
+    /**
+     * Returns the canonical form of the given tree.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return the root node of the canonical form
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public static ArithmeticExpressionNode canonicalize(ArithmeticExpressionNode root) {
+        return canonical(root).node;
+    }
+
+    /**
+     * Returns the canonical key of the given tree: its canonical form with a precomputed
+     * structural hash.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return the canonical key of the tree
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public static CanonicalKey key(ArithmeticExpressionNode root) {
+        final Canonical c = canonical(root);
+        return new CanonicalKey(c.node, c.hash);
+    }
+
+    /**
+     * Returns the structural hash of the given tree. Structurally equal trees have equal hashes,
+     * the hash of the canonical form is the same for all orderings of commutative operands.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return the structural hash of the tree
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public static long structuralHash(ArithmeticExpressionNode root) {
+        return root.accept(new ExpressionVisitor<Long>() {
+            @Override
+            public Long visitLiteral(LiteralExpressionNode node) {
+                return hash(node);
+            }
+
+            @Override
+            public Long visitIdentifier(IdentifierExpressionNode node) {
+                return hash(node);
+            }
+
+            @Override
+            public Long visitOperation(OperationExpressionNode node, List<Long> operands) {
+                long h = operatorHash(node);
+                for (long operand : operands) h = h * MULTIPLIER + operand;
+                return h;
+            }
+        });
+    }
+
+    /**
+     * Returns {@code true} if the trees are structurally equal: literals with equal values,
+     * identifiers with equal names and operations with the same operator and structurally equal
+     * operands in the same order.
+     *
+     * @param a the first tree
+     * @param b the second tree
+     * @return {@code true} if the trees are structurally equal
+     * @throws NullPointerException if a tree is {@code null}
+     */
+    public static boolean structurallyEqual(ArithmeticExpressionNode a, ArithmeticExpressionNode b) {
+        return a == b || compare(a, b) == 0;
+    }
+
+    /**
+     * Compares the trees by the structural order. Literals precede identifiers, which precede
+     * operations. Literals are ordered by value (and by type if their values are equal),
+     * identifiers by name and operations by operator, number of operands and then by their
+     * operands. The order is total and consistent with {@link #structurallyEqual(ArithmeticExpressionNode, ArithmeticExpressionNode)}.
+     *
+     * @param a the first tree
+     * @param b the second tree
+     * @return a negative integer, zero or a positive integer if the first tree is less than, equal
+     * to or greater than the second tree
+     * @throws NullPointerException if a tree is {@code null}
+     */
+    public static int compare(ArithmeticExpressionNode a, ArithmeticExpressionNode b) {
+        if (a == b) return 0;
+        // The pre-order sequence of the nodes with their number of operands determines a tree.
+        final Iterator<ArithmeticExpressionNode> i = ExpressionTraversal.preOrder(a), j = ExpressionTraversal.preOrder(b);
+        while (i.hasNext() && j.hasNext()) {
+            final int c = compareNodes(i.next(), j.next());
+            if (c != 0) return c;
+        }
+        return Boolean.compare(i.hasNext(), j.hasNext());
+    }
+
+    /**
+     * Compares two nodes without their operands.
+     *
+     * @param a the first node
+     * @param b the second node
+     * @return the result of the comparison
+     */
+    private static int compareNodes(ArithmeticExpressionNode a, ArithmeticExpressionNode b) {
+        final int c = Integer.compare(rank(a), rank(b));
+        if (c != 0) return c;
+        if (a instanceof LiteralExpressionNode l) return compareValues(l.getValue(), ((LiteralExpressionNode) b).getValue());
+        if (a instanceof IdentifierExpressionNode i) return i.getValue().compareTo(((IdentifierExpressionNode) b).getValue());
+        final OperationExpressionNode o = (OperationExpressionNode) a, p = (OperationExpressionNode) b;
+        final int d = o.getOperator().compareTo(p.getOperator());
+        return d != 0 ? d : Integer.compare(o.getOperandCount(), p.getOperandCount());
+    }
+
+    private static int rank(ArithmeticExpressionNode node) {
+        return node instanceof LiteralExpressionNode ? 0 : node instanceof IdentifierExpressionNode ? 1 : 2;
+    }
+
+    private static int compareValues(MyNumber a, MyNumber b) {
+        if (a.equals(b)) return 0;
+        final Rational x = a.toRational(), y = b.toRational();
+        final int c = x.getNumerator().multiply(y.getDenominator()).compareTo(y.getNumerator().multiply(x.getDenominator()));
+        return c != 0 ? c : a.getClass().getName().compareTo(b.getClass().getName());
+    }
+
+    private static long hash(ArithmeticExpressionNode leaf) {
+        return leaf instanceof LiteralExpressionNode l ? l.getValue().hashCode() : ~(long) ((IdentifierExpressionNode) leaf).getValue().hashCode();
+    }
+
+    private static long operatorHash(OperationExpressionNode node) {
+        return ((long) node.getOperator().ordinal() << 32) + node.getOperandCount();
+    }
+
+    /**
+     * Returns the canonical form of the given tree with its hash.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return the canonical form with its hash
+     */
+    private static Canonical canonical(ArithmeticExpressionNode root) {
+        final Canonical c = root.accept(new ExpressionVisitor<Canonical>() {
+            @Override
+            public Canonical visitLiteral(LiteralExpressionNode node) {
+                return new Canonical(node, hash(node), null);
+            }
+
+            @Override
+            public Canonical visitIdentifier(IdentifierExpressionNode node) {
+                return new Canonical(node, hash(node), null);
+            }
+
+            @Override
+            public Canonical visitOperation(OperationExpressionNode node, List<Canonical> operands) {
+                final Operator operator = node.getOperator();
+                final boolean commutative = operator == Operator.ADD || operator == Operator.MUL;
+                final Canonical[] a = new Canonical[operands.size()];
+                for (int i = 0; i < a.length; i++) {
+                    final Canonical operand = operands.get(i);
+                    final boolean flatten = commutative && operand.parts != null && ((OperationExpressionNode) operand.node).getOperator() == operator;
+                    a[i] = operand.parts == null || flatten ? operand : close(operand);
+                }
+                return commutative ? new Canonical(node, 0, a) : build(node, a);
+            }
+        });
+        return c.parts == null ? c : close(c);
+    }
+
+    /**
+     * Flattens and sorts the operands of an open commutative operation and builds its canonical
+     * form.
+     *
+     * @param open the open operation
+     * @return the canonical form of the operation
+     */
+    private static Canonical close(Canonical open) {
+        final ArrayList<Canonical> flat = new ArrayList<>();
+        final ArrayDeque<Canonical> stack = new ArrayDeque<>();
+        stack.push(open);
+        while (!stack.isEmpty()) {
+            final Canonical c = stack.pop();
+            if (c.parts == null) flat.add(c);
+            else for (int i = c.parts.length - 1; i >= 0; i--) stack.push(c.parts[i]);
+        }
+        final Canonical[] a = flat.toArray(new Canonical[0]);
+        Arrays.sort(a, ORDER);
+        return build((OperationExpressionNode) open.node, a);
+    }
+
+    /**
+     * Builds the canonical form of an operation from the canonical forms of its operands. The
+     * operation itself is reused if its operands are unchanged.
+     *
+     * @param node     the operation
+     * @param operands the canonical forms of the operands
+     * @return the canonical form of the operation
+     */
+    private static Canonical build(OperationExpressionNode node, Canonical[] operands) {
+        boolean changed = operands.length != node.getOperandCount();
+        final ArithmeticExpressionNode[] nodes = new ArithmeticExpressionNode[operands.length];
+        for (int i = 0; i < operands.length; i++) {
+            nodes[i] = operands[i].node;
+            if (!changed && nodes[i] != node.getOperand(i)) changed = true;
+        }
+        final OperationExpressionNode result = changed ? new OperationExpressionNode(node.getOperator(), nodes) : node;
+        long h = operatorHash(result);
+        for (Canonical operand : operands) h = h * MULTIPLIER + operand.hash;
+        return new Canonical(result, h, null);
+    }
+
+    /**
+     * A node of a canonical form with its hash. The operands of commutative operations are
+     * collected without flattening them until the operation is an operand of another operator or
+     * the root, so a chain of nested operations with the same operator is flattened and sorted
+     * only once.
+     */
+    private static final class Canonical {
+
+        /**
+         * The node, or the original operation if this operation is open.
+         */
+        private final ArithmeticExpressionNode node;
+
+        /**
+         * The structural hash of the node, undefined if this operation is open.
+         */
+        private final long hash;
+
+        /**
+         * The operands of an open commutative operation, which may be open operations with the same
+         * operator, or {@code null} if the node is canonical.
+         */
+        private final Canonical[] parts;
+
+        private Canonical(ArithmeticExpressionNode node, long hash, Canonical[] parts) {
+            this.node = node;
+            this.hash = hash;
+            this.parts = parts;
+        }
+    }
+
+    /**
+     * The key of a tree in caches and tables: its canonical form with its structural hash. Keys
+     * are equal if the canonical forms are structurally equal, that is if the trees differ at most
+     * in the order and grouping of the operands of commutative operators.
+     */
+    public static final class CanonicalKey {
+
+        /**
+         * The canonical form.
+         */
+        private final ArithmeticExpressionNode tree;
+
+        /**
+         * The structural hash of the canonical form.
+         */
+        private final long hash;
+
+        private CanonicalKey(ArithmeticExpressionNode tree, long hash) {
+            this.tree = tree;
+            this.hash = hash;
+        }
+
+        /**
+         * Returns the canonical form of the tree.
+         *
+         * @return the canonical form of the tree
+         */
+        public ArithmeticExpressionNode getTree() {
+            return tree;
+        }
+
+        /**
+         * Returns the structural hash of the canonical form.
+         *
+         * @return the structural hash of the canonical form
+         */
+        public long getHash() {
+            return hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CanonicalKey key)) return false;
+            return hash == key.hash && structurallyEqual(tree, key.tree);
+        }
+
+        @Override
+        public String toString() {
+            return tree.toString();
+        }
+    }
+}
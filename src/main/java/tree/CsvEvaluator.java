@@ -0,0 +1,477 @@
+package tree;
+
+import exception.UndefinedIdentifierException;
+import math.DecimalConversion;
+import math.EvaluationContext;
+import math.MyInteger;
+import math.MyNumber;
+import math.MyRational;
+import math.MyReal;
+import math.Rational;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates one arithmetic expression for every row of a CSV file of identifier values and writes
+ * the results in the order of the rows, one per line.
+ *
+ * <p>The first line of the file names the columns, every further line holds the values of one row
+ * separated by commas. Columns whose name is not an identifier of the expression are ignored,
+ * blank lines are skipped and values are parsed like literals: integers, decimal numbers and
+ * fractions {@code a/b}. Quoted fields are not supported.
+ *
+ * <p>The input is read in chunks of whole rows which are evaluated by a pool of worker threads,
+ * while the calling thread reads ahead and writes the results of finished chunks in order. At
+ * most two chunks per thread are in flight, so the memory used is independent of the size of the
+ * input. Values are parsed directly from the bytes of the input into numbers and bound to the
+ * identifiers by their slot in a {@link PreparedExpression.Scope} per chunk, without a string per
+ * field or a map per row.
+ */
+public final class CsvEvaluator {
+
+    /**
+     * The default size of a chunk in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The maximum number of digits of a value parsed into a long.
+     */
+    private static final int LONG_DIGITS = 18;
+
+    /**
+     * The expression.
+     */
+    private final PreparedExpression expression;
+
+    /**
+     * The evaluation context.
+     */
+    private final EvaluationContext context;
+
+    /**
+     * The number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * The size of a chunk in bytes.
+     */
+    private final int chunkSize;
+
+    /**
+     * Constructs and initializes an evaluator with one worker thread per processor and the default
+     * chunk size.
+     *
+     * @param expression the root node of the arithmetic expression tree
+     * @param context    the evaluation context
+     * @throws NullPointerException if an argument is {@code null}
+     */
+    public CsvEvaluator(ArithmeticExpressionNode expression, EvaluationContext context) {
+        this(expression, context, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs and initializes an evaluator with the given number of worker threads and chunk
+     * size.
+     *
+     * @param expression the root node of the arithmetic expression tree
+     * @param context    the evaluation context
+     * @param threads    the number of worker threads
+     * @param chunkSize  the size of a chunk in bytes; longer rows make their chunk longer
+     * @throws NullPointerException     if the expression or context is {@code null}
+     * @throws IllegalArgumentException if the number of threads or the chunk size is not positive
+     */
+    public CsvEvaluator(ArithmeticExpressionNode expression, EvaluationContext context, int threads, int chunkSize) {
+        if (threads <= 0) throw new IllegalArgumentException("Number of threads not positive");
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size not positive");
+        this.expression = new PreparedExpression(expression);
+        this.context = Objects.requireNonNull(context, "context null");
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Evaluates the expression for every row of the given file.
+     *
+     * @param input  the CSV file
+     * @param output the output of the results
+     * @return the number of rows
+     * @throws IOException                  if the file cannot be read, the output cannot be written
+     *                                      or a row is malformed
+     * @throws UndefinedIdentifierException if an identifier of the expression is neither a column
+     *                                      nor a constant
+     */
+    public long evaluate(Path input, OutputStream output) throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            return evaluate(channel, output);
+        }
+    }
+
+    /**
+     * Evaluates the expression for every row read from the given channel. The evaluation stops at
+     * the first row which is malformed or cannot be evaluated, the results of all previous rows
+     * have been written by then.
+     *
+     * @param input  the channel of the CSV data
+     * @param output the output of the results
+     * @return the number of rows
+     * @throws IOException                  if the input cannot be read, the output cannot be written
+     *                                      or a row is malformed
+     * @throws UndefinedIdentifierException if an identifier of the expression is neither a column
+     *                                      nor a constant
+     */
+    public long evaluate(ReadableByteChannel input, OutputStream output) throws IOException {
+        final Reader reader = new Reader(input, chunkSize);
+        final int[] columns = columns(reader.header());
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        final ArrayDeque<Future<Results>> pending = new ArrayDeque<>();
+        long rows = 0;
+        try {
+            for (Chunk chunk; (chunk = reader.next()) != null; ) {
+                final Chunk c = chunk;
+                pending.add(workers.submit(() -> evaluate(c, columns)));
+                if (pending.size() == 2 * threads) rows += write(pending.poll(), output);
+            }
+            while (!pending.isEmpty()) rows += write(pending.poll(), output);
+        } finally {
+            workers.shutdownNow();
+        }
+        output.flush();
+        return rows;
+    }
+
+    /**
+     * Returns the slots of the identifiers by column.
+     *
+     * @param header the names of the columns
+     * @return the slot of the identifier of every column or -1 if the column is ignored
+     * @throws IOException                  if a column is named twice
+     * @throws UndefinedIdentifierException if an identifier is neither a column nor a constant
+     */
+    private int[] columns(String[] header) throws IOException {
+        final int[] columns = new int[header.length];
+        final Set<String> names = new HashSet<>();
+        for (int i = 0; i < header.length; i++) {
+            if (!names.add(header[i])) throw new IOException("Duplicate column " + header[i]);
+            columns[i] = expression.getSlot(header[i]);
+        }
+        for (int i = 0; i < expression.getIdentifierCount(); i++)
+            if (!names.contains(expression.getIdentifier(i))) throw new UndefinedIdentifierException(expression.getIdentifier(i));
+        return columns;
+    }
+
+    /**
+     * Waits for the results of a chunk and writes them.
+     *
+     * @param future the results of the chunk
+     * @param output the output
+     * @return the number of rows of the chunk
+     * @throws IOException if the output cannot be written or the chunk is malformed
+     */
+    private static long write(Future<Results> future, OutputStream output) throws IOException {
+        final Results results;
+        try {
+            results = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException r) throw r;
+            if (cause instanceof Error error) throw error;
+            throw new IOException(cause);
+        }
+        output.write(results.bytes, 0, results.size);
+        return results.rows;
+    }
+
+    /**
+     * Evaluates the expression for every row of a chunk.
+     *
+     * @param chunk   the chunk
+     * @param columns the slots of the identifiers by column
+     * @return the results
+     * @throws IOException if a row is malformed
+     */
+    private Results evaluate(Chunk chunk, int[] columns) throws IOException {
+        final byte[] bytes = chunk.bytes;
+        final Results results = new Results(Math.max(16, chunk.length / 2));
+        final PreparedExpression.Scope scope = expression.newScope();
+        int start = 0;
+        while (start < chunk.length) {
+            int end = start;
+            while (end < chunk.length && bytes[end] != '\n') end++;
+            final int next = end + 1;
+            if (end > start && bytes[end - 1] == '\r') end--;
+            if (!blank(bytes, start, end)) {
+                try {
+                    int column = 0;
+                    for (int from = start; ; column++) {
+                        int to = from;
+                        while (to < end && bytes[to] != ',') to++;
+                        if (column >= columns.length) throw new NumberFormatException("Too many fields");
+                        if (columns[column] >= 0) scope.bind(columns[column], parse(bytes, from, to));
+                        if (to == end) break;
+                        from = to + 1;
+                    }
+                    if (column + 1 < columns.length) throw new NumberFormatException("Too few fields");
+                } catch (NumberFormatException | ArithmeticException e) {
+                    throw new IOException("Malformed row at byte " + (chunk.position + start), e);
+                }
+                expression.evaluate(scope, context).appendTo(results);
+                results.append('\n');
+                results.rows++;
+            }
+            start = next;
+        }
+        return results;
+    }
+
+    private static boolean blank(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) if (bytes[i] != ' ' && bytes[i] != '\t') return false;
+        return true;
+    }
+
+    /**
+     * Parses a value like a literal. Integers and decimal numbers of up to {@value #LONG_DIGITS}
+     * digits are parsed directly from the bytes, all other values from a string.
+     *
+     * @param bytes the bytes
+     * @param from  the index of the first byte (inclusive)
+     * @param to    the index of the last byte (exclusive)
+     * @return the value
+     * @throws NumberFormatException if the bytes are not a number
+     * @throws ArithmeticException   if the value is a fraction with denominator 0
+     */
+    private static MyNumber parse(byte[] bytes, int from, int to) {
+        while (from < to && (bytes[from] == ' ' || bytes[from] == '\t')) from++;
+        while (to > from && (bytes[to - 1] == ' ' || bytes[to - 1] == '\t')) to--;
+        final boolean negative = from < to && bytes[from] == '-';
+        int i = negative || from < to && bytes[from] == '+' ? from + 1 : from;
+        long unscaled = 0;
+        int digits = 0, scale = -1;
+        for (; i < to; i++) {
+            final byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                unscaled = unscaled * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) scale++;
+            } else if (b == '.' && scale < 0) scale = 0;
+            else break;
+        }
+        if (i < to || digits == 0 || digits > LONG_DIGITS) return parse(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+        if (negative) unscaled = -unscaled;
+        return scale < 0 ? new MyInteger(BigInteger.valueOf(unscaled)) : new MyReal(BigDecimal.valueOf(unscaled, scale));
+    }
+
+    private static MyNumber parse(String s) {
+        try {
+            return new MyInteger(DecimalConversion.parseInteger(s, 0, s.length()));
+        } catch (NumberFormatException e) {
+            try {
+                return new MyReal(DecimalConversion.parseDecimal(s, 0, s.length()));
+            } catch (NumberFormatException ex) {
+                if (!s.matches("-?\\d+/\\d+")) throw new NumberFormatException("Not a number: " + s);
+                final int slash = s.indexOf('/');
+                final BigInteger numerator = DecimalConversion.parseInteger(s, 0, slash);
+                return new MyRational(Rational.valueOf(numerator, DecimalConversion.parseInteger(s, slash + 1, s.length())));
+            }
+        }
+    }
+
+    /**
+     * A chunk of whole rows of the input.
+     */
+    private static final class Chunk {
+
+        /**
+         * The bytes of the rows.
+         */
+        private final byte[] bytes;
+
+        /**
+         * The number of bytes.
+         */
+        private final int length;
+
+        /**
+         * The position of the chunk in the input.
+         */
+        private final long position;
+
+        private Chunk(byte[] bytes, int length, long position) {
+            this.bytes = bytes;
+            this.length = length;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Splits the input into chunks ending at the end of a row.
+     */
+    private static final class Reader {
+
+        /**
+         * The input.
+         */
+        private final ReadableByteChannel input;
+
+        /**
+         * The buffer of the input not yet returned in a chunk.
+         */
+        private byte[] buffer;
+
+        /**
+         * The number of bytes in the buffer.
+         */
+        private int filled;
+
+        /**
+         * The position of the buffer in the input.
+         */
+        private long position;
+
+        /**
+         * {@code true} if the end of the input has been reached.
+         */
+        private boolean eof;
+
+        private Reader(ReadableByteChannel input, int chunkSize) {
+            this.input = input;
+            this.buffer = new byte[chunkSize];
+        }
+
+        /**
+         * Reads the first line and returns the names of the columns.
+         *
+         * @return the names of the columns
+         * @throws IOException if the input cannot be read or is empty
+         */
+        private String[] header() throws IOException {
+            int end;
+            while ((end = indexOf(0)) < 0 && !eof) {
+                if (filled == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                fill();
+            }
+            if (filled == 0) throw new IOException("No header");
+            final int length = end < 0 ? filled : end;
+            int from = length >= 3 && buffer[0] == (byte) 0xef && buffer[1] == (byte) 0xbb && buffer[2] == (byte) 0xbf ? 3 : 0;
+            final String line = new String(buffer, from, length - from, StandardCharsets.UTF_8).strip();
+            consume(end < 0 ? filled : end + 1);
+            final String[] names = line.split(",", -1);
+            for (int i = 0; i < names.length; i++) names[i] = names[i].strip();
+            return names;
+        }
+
+        /**
+         * Returns the next chunk of whole rows.
+         *
+         * @return the next chunk or {@code null} at the end of the input
+         * @throws IOException if the input cannot be read
+         */
+        private Chunk next() throws IOException {
+            while (!eof && filled < buffer.length) fill();
+            if (filled == 0) return null;
+            int end = filled;
+            if (!eof) {
+                end = lastIndexOf();
+                if (end < 0) {
+                    // A row longer than the buffer.
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    return next();
+                }
+                end++;
+            }
+            final Chunk chunk = new Chunk(Arrays.copyOf(buffer, end), end, position);
+            consume(end);
+            return chunk;
+        }
+
+        private void fill() throws IOException {
+            final int n = input.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled));
+            if (n < 0) eof = true;
+            else filled += n;
+        }
+
+        private void consume(int n) {
+            System.arraycopy(buffer, n, buffer, 0, filled - n);
+            filled -= n;
+            position += n;
+        }
+
+        private int indexOf(int from) {
+            for (int i = from; i < filled; i++) if (buffer[i] == '\n') return i;
+            return -1;
+        }
+
+        private int lastIndexOf() {
+            for (int i = filled - 1; i >= 0; i--) if (buffer[i] == '\n') return i;
+            return -1;
+        }
+    }
+
+    /**
+     * The results of a chunk, one per line.
+     */
+    private static final class Results implements Appendable {
+
+        /**
+         * The characters of the results, which are all ASCII.
+         */
+        private byte[] bytes;
+
+        /**
+         * The number of bytes.
+         */
+        private int size;
+
+        /**
+         * The number of rows.
+         */
+        private long rows;
+
+        private Results(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            if (size + end - start > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + end - start));
+            for (int i = start; i < end; i++) bytes[size++] = (byte) csq.charAt(i);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[size++] = (byte) c;
+            return this;
+        }
+    }
+}
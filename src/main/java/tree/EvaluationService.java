@@ -0,0 +1,543 @@
+package tree;
+
+import exception.DeadlineExceededException;
+import math.EvaluationContext;
+import math.MyNumber;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates prepared expressions asynchronously on a fixed number of worker threads. Submitting
+ * an evaluation never blocks: it returns a {@link CompletableFuture} which is completed with the
+ * result or the exception of the evaluation, or fails at once with a
+ * {@link RejectedExecutionException} if the queue is full or the service is closed.
+ *
+ * <p>Queued evaluations are started by {@link Priority priority}, within a priority by the earliest
+ * deadline and then in the order of submission. An evaluation which has not been started when its
+ * deadline passes fails with a {@link DeadlineExceededException} at the deadline and leaves the
+ * queue; an evaluation which is already running is not interrupted. Evaluations whose future is
+ * cancelled (or otherwise completed) before they are started leave the queue as well, so neither
+ * take up its capacity. If a {@link ResultCache} is given, every evaluation goes through the cache.
+ *
+ * <p>The service counts the evaluations by outcome and measures the time they wait in the queue
+ * and their latency from submission to completion, see {@link #getQueueDepth()} and the other
+ * getters.
+ */
+public final class EvaluationService implements AutoCloseable {
+
+    /**
+     * The priority classes of evaluations, the most urgent first.
+     */
+    public enum Priority {
+
+        /**
+         * Evaluations started before all others.
+         */
+        HIGH,
+
+        /**
+         * The priority of evaluations submitted without a priority.
+         */
+        NORMAL,
+
+        /**
+         * Evaluations started after all others.
+         */
+        LOW
+    }
+
+    /**
+     * The order of the queue: by priority, deadline and submission.
+     */
+    private static final Comparator<Task> ORDER = Comparator.<Task>comparingInt(t -> t.rank)
+            .thenComparingLong(t -> t.deadline).thenComparingLong(t -> t.sequence);
+
+    /**
+     * The queue of evaluations.
+     */
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>(16, ORDER);
+
+    /**
+     * The maximum number of queued evaluations.
+     */
+    private final int capacity;
+
+    /**
+     * The number of queued evaluations.
+     */
+    private final AtomicInteger depth = new AtomicInteger();
+
+    /**
+     * The number of submitted evaluations, which orders evaluations with equal priority and
+     * deadline.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The result cache or {@code null}.
+     */
+    private final ResultCache cache;
+
+    /**
+     * The worker threads.
+     */
+    private final Thread[] workers;
+
+    /**
+     * The number of worker threads which have not terminated.
+     */
+    private final AtomicInteger running;
+
+    /**
+     * The thread failing evaluations at their deadline.
+     */
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+        final Thread t = new Thread(r, "evaluation-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * {@code true} if the service accepts no more evaluations.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The metrics.
+     */
+    private final LongAdder submitted = new LongAdder(), rejected = new LongAdder(), expired = new LongAdder(),
+            completed = new LongAdder(), failed = new LongAdder(), queueTime = new LongAdder(), latency = new LongAdder();
+
+    /**
+     * The maximum latency.
+     */
+    private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructs and initializes a service without a result cache.
+     *
+     * @param parallelism the number of worker threads
+     * @param capacity    the maximum number of queued evaluations
+     * @throws IllegalArgumentException if an argument is not positive
+     */
+    public EvaluationService(int parallelism, int capacity) {
+        this(parallelism, capacity, null);
+    }
+
+    /**
+     * Constructs and initializes a service evaluating through the given result cache.
+     *
+     * @param parallelism the number of worker threads
+     * @param capacity    the maximum number of queued evaluations
+     * @param cache       the result cache or {@code null}
+     * @throws IllegalArgumentException if the parallelism or capacity is not positive
+     */
+    public EvaluationService(int parallelism, int capacity, ResultCache cache) {
+        if (parallelism <= 0) throw new IllegalArgumentException("Parallelism not positive");
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity not positive");
+        this.capacity = capacity;
+        this.cache = cache;
+        this.workers = new Thread[parallelism];
+        this.running = new AtomicInteger(parallelism);
+        timer.setRemoveOnCancelPolicy(true);
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Thread(this::work, "evaluation-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Submits an evaluation with normal priority and without a deadline.
+     *
+     * @param expression  the expression
+     * @param identifiers the values of the identifiers
+     * @param context     the evaluation context
+     * @return the future result of the evaluation
+     * @throws NullPointerException if an argument is {@code null}
+     */
+    public CompletableFuture<MyNumber> submit(PreparedExpression expression, Map<String, MyNumber> identifiers, EvaluationContext context) {
+        return submit(expression, identifiers, context, Priority.NORMAL, null);
+    }
+
+    /**
+     * Submits an evaluation with the given priority which fails if it is not started within the
+     * given timeout.
+     *
+     * @param expression  the expression
+     * @param identifiers the values of the identifiers, copied on submission
+     * @param context     the evaluation context
+     * @param priority    the priority
+     * @param timeout     the time from now until the deadline or {@code null} for no deadline
+     * @return the future result of the evaluation
+     * @throws NullPointerException if an argument other than the timeout is {@code null}
+     */
+    public CompletableFuture<MyNumber> submit(PreparedExpression expression, Map<String, MyNumber> identifiers, EvaluationContext context,
+                                              Priority priority, Duration timeout) {
+        final long now = System.nanoTime();
+        final Task task = new Task(expression.newScope().bindAll(identifiers), Objects.requireNonNull(context, "context null"),
+                Objects.requireNonNull(priority, "priority null").ordinal(), timeout == null ? Long.MAX_VALUE : deadline(now, timeout),
+                sequence.getAndIncrement(), now);
+        submitted.increment();
+        if (closed) return reject(task, "Service closed");
+        if (task.deadline != Long.MAX_VALUE && task.deadline - now <= 0) {
+            expired.increment();
+            task.future.completeExceptionally(new DeadlineExceededException("Deadline passed on submission"));
+            return task.future;
+        }
+        if (depth.incrementAndGet() > capacity) {
+            depth.decrementAndGet();
+            purge();
+            if (depth.incrementAndGet() > capacity) {
+                depth.decrementAndGet();
+                return reject(task, "Queue full");
+            }
+        }
+        queue.add(task);
+        // The worker threads may have stopped if the service was closed meanwhile.
+        if (closed && queue.remove(task)) {
+            depth.decrementAndGet();
+            return reject(task, "Service closed");
+        }
+        if (task.deadline != Long.MAX_VALUE) {
+            try {
+                task.timeout = timer.schedule(() -> expire(task), task.deadline - now, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // The timer stops after the last worker thread, which has started the task then.
+            }
+        }
+        // A task completed before it is started, for example by cancellation, leaves the queue.
+        task.future.whenComplete((result, e) -> {
+            if (task.claim() && queue.remove(task)) depth.decrementAndGet();
+        });
+        return task.future;
+    }
+
+    private static long deadline(long now, Duration timeout) {
+        final long nanos = timeout.toNanos();
+        // Deadlines too far in the future to be represented are no deadlines.
+        return nanos >= Long.MAX_VALUE / 2 ? Long.MAX_VALUE : now + nanos;
+    }
+
+    /**
+     * Fails a queued evaluation whose deadline has passed and removes it from the queue, unless it
+     * has been started or completed meanwhile.
+     *
+     * @param task the evaluation
+     */
+    private void expire(Task task) {
+        if (!task.claim()) return;
+        if (queue.remove(task)) depth.decrementAndGet();
+        queueTime.add(System.nanoTime() - task.submitted);
+        expired.increment();
+        task.future.completeExceptionally(new DeadlineExceededException(
+                String.format("Deadline passed %d ns before the start", System.nanoTime() - task.deadline)));
+    }
+
+    /**
+     * Removes the queued evaluations which have been completed or whose deadline has passed, in
+     * case the timer has not removed them yet.
+     */
+    private void purge() {
+        final long now = System.nanoTime();
+        for (Task task : queue) {
+            if (task.scope == null) continue;
+            if (task.future.isDone()) {
+                if (task.claim() && queue.remove(task)) depth.decrementAndGet();
+            } else if (task.deadline != Long.MAX_VALUE && task.deadline - now <= 0) expire(task);
+        }
+    }
+
+    private CompletableFuture<MyNumber> reject(Task task, String message) {
+        rejected.increment();
+        task.future.completeExceptionally(new RejectedExecutionException(message));
+        return task.future;
+    }
+
+    /**
+     * Takes evaluations from the queue and runs them until the service is closed and the queue is
+     * empty.
+     */
+    private void work() {
+        try {
+            while (true) {
+                final Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task.scope == null) return;
+                depth.decrementAndGet();
+                if (!task.claim()) continue;
+                if (task.timeout != null) task.timeout.cancel(false);
+                final long start = System.nanoTime();
+                queueTime.add(start - task.submitted);
+                if (task.deadline != Long.MAX_VALUE && task.deadline - start < 0) {
+                    expired.increment();
+                    task.future.completeExceptionally(new DeadlineExceededException(
+                            String.format("Deadline passed %d ns before the start", start - task.deadline)));
+                    continue;
+                }
+                try {
+                    final MyNumber result = cache == null ? task.scope.getExpression().evaluate(task.scope, task.context)
+                            : cache.evaluate(task.scope, task.context);
+                    completed.increment();
+                    record(task);
+                    task.future.complete(result);
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    record(task);
+                    task.future.completeExceptionally(e);
+                } catch (Error e) {
+                    // The caller learns of the error, but it still terminates the worker thread.
+                    failed.increment();
+                    record(task);
+                    task.future.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        } finally {
+            if (running.decrementAndGet() == 0) timer.shutdownNow();
+        }
+    }
+
+    private void record(Task task) {
+        final long l = System.nanoTime() - task.submitted;
+        latency.add(l);
+        maxLatency.accumulate(l);
+    }
+
+    /**
+     * Stops accepting evaluations. The queued evaluations are still run, then the worker threads
+     * terminate. This method does not wait for them.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (int i = 0; i < workers.length; i++) queue.add(new Task(null, null, Priority.values().length, Long.MAX_VALUE, Long.MAX_VALUE, 0));
+    }
+
+    /**
+     * Waits until all worker threads have terminated after the service has been closed.
+     *
+     * @param timeout the maximum time to wait
+     * @return {@code true} if all worker threads have terminated
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitTermination(Duration timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        for (Thread worker : workers) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining > 0) worker.join(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            if (worker.isAlive()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return the number of worker threads
+     */
+    public int getParallelism() {
+        return workers.length;
+    }
+
+    /**
+     * Returns the maximum number of queued evaluations.
+     *
+     * @return the capacity of the queue
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of queued evaluations which have not been started.
+     *
+     * @return the number of queued evaluations
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns the number of submitted evaluations.
+     *
+     * @return the number of submitted evaluations
+     */
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * Returns the number of evaluations rejected since the queue was full or the service was closed.
+     *
+     * @return the number of rejected evaluations
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the number of evaluations which failed since their deadline had passed.
+     *
+     * @return the number of expired evaluations
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /**
+     * Returns the number of evaluations completed with a result.
+     *
+     * @return the number of completed evaluations
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Returns the number of evaluations completed with an exception.
+     *
+     * @return the number of failed evaluations
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the average time evaluations waited in the queue until they were started or their
+     * deadline passed. Evaluations whose deadline had passed on submission waited 0 ns.
+     *
+     * @return the average queue time
+     */
+    public Duration getAverageQueueTime() {
+        final long n = completed.sum() + failed.sum() + expired.sum();
+        return Duration.ofNanos(n == 0 ? 0 : queueTime.sum() / n);
+    }
+
+    /**
+     * Returns the average time from submission to completion of the evaluations which were run.
+     *
+     * @return the average latency
+     */
+    public Duration getAverageLatency() {
+        final long n = completed.sum() + failed.sum();
+        return Duration.ofNanos(n == 0 ? 0 : latency.sum() / n);
+    }
+
+    /**
+     * Returns the maximum time from submission to completion of the evaluations which were run.
+     *
+     * @return the maximum latency
+     */
+    public Duration getMaxLatency() {
+        return Duration.ofNanos(maxLatency.get());
+    }
+
+    /**
+     * Resets the metrics to 0, except for the queue depth.
+     */
+    public void resetStatistics() {
+        submitted.reset();
+        rejected.reset();
+        expired.reset();
+        completed.reset();
+        failed.reset();
+        queueTime.reset();
+        latency.reset();
+        maxLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EvaluationService[parallelism=%d, queued=%d/%d, completed=%d, failed=%d, expired=%d, rejected=%d]",
+                workers.length, getQueueDepth(), capacity, getCompletedCount(), getFailedCount(), getExpiredCount(), getRejectedCount());
+    }
+
+    /**
+     * A queued evaluation. A task without a scope stops a worker thread.
+     */
+    private static final class Task {
+
+        /**
+         * The scope with the values of the identifiers.
+         */
+        private final PreparedExpression.Scope scope;
+
+        /**
+         * The evaluation context.
+         */
+        private final EvaluationContext context;
+
+        /**
+         * The ordinal of the priority.
+         */
+        private final int rank;
+
+        /**
+         * The deadline in the time of {@link System#nanoTime()}, or {@link Long#MAX_VALUE}.
+         */
+        private final long deadline;
+
+        /**
+         * The number of the submission.
+         */
+        private final long sequence;
+
+        /**
+         * The time of the submission.
+         */
+        private final long submitted;
+
+        /**
+         * The future result.
+         */
+        private final CompletableFuture<MyNumber> future = new CompletableFuture<>();
+
+        /**
+         * {@code true} once a worker thread has started the task or it has left the queue otherwise.
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        /**
+         * The scheduled failure at the deadline or {@code null}.
+         */
+        private volatile ScheduledFuture<?> timeout;
+
+        private Task(PreparedExpression.Scope scope, EvaluationContext context, int rank, long deadline, long sequence, long submitted) {
+            this.scope = scope;
+            this.context = context;
+            this.rank = rank;
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.submitted = submitted;
+        }
+
+        /**
+         * Claims the task for a worker thread or for leaving the queue.
+         *
+         * @return {@code true} if the task had not been claimed before
+         */
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package tree;
+
+import math.MyInteger;
+import math.MyNumber;
+import math.MyRational;
+import math.MyReal;
+import math.Rational;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A library of named arithmetic expression trees stored in a binary file. Opening a library only
+ * maps the file into memory and checks its header, so it takes the same time for any number of
+ * trees. A tree is looked up by binary search in the index of the file and decoded on its first
+ * access; decoded trees are cached.
+ *
+ * <p>Every entry stores the source form of a tree and optionally a pre-optimized form (for
+ * example its {@link Canonicalizer canonical} or {@link RewriteEngine rewritten} form), so the
+ * optimization does not need to be repeated when the library is loaded.
+ *
+ * <p>The file consists of a header (magic number, version and number of entries), an index
+ * sorted by name with the offsets of the name, source and optimized form of every entry, and the
+ * data. Trees are encoded in pre-order: every operation as its operator and number of operands,
+ * every literal and identifier as its value. Libraries are limited to 2 GB. A library is
+ * immutable and thread-safe.
+ */
+public final class ExpressionLibrary {
+
+    /**
+     * The magic number at the start of a library file.
+     */
+    private static final int MAGIC = 0x45584c42;
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the header in bytes.
+     */
+    private static final int HEADER = 3 * Integer.BYTES;
+
+    /**
+     * The size of an entry of the index in bytes.
+     */
+    private static final int ENTRY = 3 * Integer.BYTES;
+
+    /**
+     * The tags of the encoded nodes.
+     */
+    private static final byte OPERATION = 0, LONG = 1, INTEGER = 2, RATIONAL = 3, REAL = 4, IDENTIFIER = 5;
+
+    /**
+     * The operators indexed by their ordinal.
+     */
+    private static final Operator[] OPERATORS = Operator.values();
+
+    /**
+     * The mapped file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The number of entries.
+     */
+    private final int size;
+
+    /**
+     * The decoded trees by their offset.
+     */
+    private final Map<Integer, ArithmeticExpressionNode> trees = new ConcurrentHashMap<>();
+
+    private ExpressionLibrary(ByteBuffer buffer, int size) {
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    /**
+     * Opens the library in the given file by mapping it into memory.
+     *
+     * @param file the file
+     * @return the library
+     * @throws IOException if the file cannot be read or is not a library
+     */
+    public static ExpressionLibrary open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long length = channel.size();
+            if (length > Integer.MAX_VALUE) throw new IOException("Library larger than 2 GB");
+            if (length < HEADER) throw new IOException("Not a library: " + file);
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC) throw new IOException("Not a library: " + file);
+            if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported library version " + buffer.getInt(4));
+            final int size = buffer.getInt(8);
+            if (size < 0 || HEADER + (long) size * ENTRY > length) throw new IOException("Corrupt library: " + file);
+            return new ExpressionLibrary(buffer, size);
+        }
+    }
+
+    /**
+     * Returns a builder of a library file.
+     *
+     * @return a builder of a library file
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the number of entries of this library.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the name of the entry at the given index. The entries are sorted by name.
+     *
+     * @param index the index of the entry
+     * @return the name of the entry
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public String getName(int index) {
+        return string(offset(Objects.checkIndex(index, size), 0));
+    }
+
+    /**
+     * Returns {@code true} if this library contains an entry with the given name.
+     *
+     * @param name the name
+     * @return {@code true} if this library contains the entry
+     */
+    public boolean contains(String name) {
+        return find(name) >= 0;
+    }
+
+    /**
+     * Returns the source form of the tree with the given name.
+     *
+     * @param name the name of the tree
+     * @return the source form of the tree or {@code null} if the library contains no such tree
+     * @throws IllegalStateException if the entry is corrupt
+     */
+    public ArithmeticExpressionNode getSource(String name) {
+        final int index = find(name);
+        return index < 0 ? null : tree(offset(index, 1));
+    }
+
+    /**
+     * Returns the optimized form of the tree with the given name, or its source form if no
+     * optimized form is stored.
+     *
+     * @param name the name of the tree
+     * @return the optimized form of the tree or {@code null} if the library contains no such tree
+     * @throws IllegalStateException if the entry is corrupt
+     */
+    public ArithmeticExpressionNode getOptimized(String name) {
+        final int index = find(name);
+        return index < 0 ? null : tree(offset(index, 2));
+    }
+
+    /**
+     * Returns the index of the entry with the given name by binary search.
+     *
+     * @param name the name
+     * @return the index of the entry or a negative number if there is no such entry
+     */
+    private int find(String name) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int c = string(offset(mid, 0)).compareTo(name);
+            if (c < 0) low = mid + 1;
+            else if (c > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private int offset(int index, int field) {
+        return buffer.getInt(HEADER + index * ENTRY + field * Integer.BYTES);
+    }
+
+    private String string(int offset) {
+        final byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ArithmeticExpressionNode tree(int offset) {
+        return trees.computeIfAbsent(offset, o -> {
+            try {
+                return decode(o);
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("Corrupt library entry at " + o, e);
+            }
+        });
+    }
+
+    /**
+     * Decodes the tree at the given offset with an explicit stack.
+     *
+     * @param offset the offset of the tree
+     * @return the decoded tree
+     */
+    private ArithmeticExpressionNode decode(int offset) {
+        final ArrayDeque<Operator> operators = new ArrayDeque<>();
+        final ArrayDeque<Integer> counts = new ArrayDeque<>();
+        final ArrayDeque<ArrayList<ArithmeticExpressionNode>> operands = new ArrayDeque<>();
+        int position = offset;
+        while (true) {
+            ArithmeticExpressionNode node = null;
+            final byte tag = buffer.get(position++);
+            switch (tag) {
+                case OPERATION -> {
+                    operators.push(OPERATORS[buffer.get(position++)]);
+                    final int count = buffer.getInt(position);
+                    position += Integer.BYTES;
+                    counts.push(count);
+                    operands.push(new ArrayList<>(Math.min(count, 1 << 16)));
+                }
+                case LONG -> {
+                    node = new LiteralExpressionNode(new MyInteger(BigInteger.valueOf(buffer.getLong(position))));
+                    position += Long.BYTES;
+                }
+                case INTEGER, RATIONAL, REAL -> {
+                    final BigInteger a = integer(position);
+                    position += Integer.BYTES + buffer.getInt(position);
+                    if (tag == INTEGER) node = new LiteralExpressionNode(new MyInteger(a));
+                    else if (tag == RATIONAL) {
+                        final BigInteger b = integer(position);
+                        position += Integer.BYTES + buffer.getInt(position);
+                        node = new LiteralExpressionNode(new MyRational(Rational.valueOf(a, b)));
+                    } else {
+                        node = new LiteralExpressionNode(new MyReal(new BigDecimal(a, buffer.getInt(position))));
+                        position += Integer.BYTES;
+                    }
+                }
+                case IDENTIFIER -> {
+                    node = new IdentifierExpressionNode(string(position));
+                    position += Integer.BYTES + buffer.getInt(position);
+                }
+                default -> throw new IllegalStateException("Unknown tag " + tag);
+            }
+            // Complete the operations whose operands have all been decoded.
+            while (true) {
+                if (node != null) {
+                    if (operands.isEmpty()) return node;
+                    operands.peek().add(node);
+                }
+                if (operands.isEmpty() || operands.peek().size() < counts.peek()) break;
+                counts.pop();
+                node = new OperationExpressionNode(operators.pop(), operands.pop());
+            }
+        }
+    }
+
+    private BigInteger integer(int offset) {
+        final byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + Integer.BYTES, bytes);
+        return new BigInteger(bytes);
+    }
+
+    /**
+     * Collects named trees and writes them to a library file.
+     */
+    public static final class Builder {
+
+        /**
+         * The source and optimized forms of the trees by name.
+         */
+        private final TreeMap<String, ArithmeticExpressionNode[]> entries = new TreeMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a tree without an optimized form, replacing any tree with the same name.
+         *
+         * @param name   the name of the tree
+         * @param source the source form of the tree
+         * @return this builder
+         * @throws NullPointerException if an argument is {@code null}
+         */
+        public Builder add(String name, ArithmeticExpressionNode source) {
+            return add(name, source, source);
+        }
+
+        /**
+         * Adds a tree with its optimized form, replacing any tree with the same name.
+         *
+         * @param name      the name of the tree
+         * @param source    the source form of the tree
+         * @param optimized the optimized form of the tree
+         * @return this builder
+         * @throws NullPointerException if an argument is {@code null}
+         */
+        public Builder add(String name, ArithmeticExpressionNode source, ArithmeticExpressionNode optimized) {
+            entries.put(Objects.requireNonNull(name, "name null"), new ArithmeticExpressionNode[]{
+                    Objects.requireNonNull(source, "source null"), Objects.requireNonNull(optimized, "optimized null")});
+            return this;
+        }
+
+        /**
+         * Writes the library to the given file, replacing an existing file.
+         *
+         * @param file the file
+         * @throws IOException              if the file cannot be written or the library is larger
+         *                                  than 2 GB
+         * @throws IllegalArgumentException if a tree contains a literal which is not an integer,
+         *                                  rational or real number
+         */
+        public void write(Path file) throws IOException {
+            final int size = entries.size();
+            final long dataStart = HEADER + (long) size * ENTRY;
+            final Data data = new Data();
+            final DataOutputStream out = new DataOutputStream(data);
+            final ByteBuffer index = ByteBuffer.allocate(size * ENTRY);
+            for (Map.Entry<String, ArithmeticExpressionNode[]> entry : entries.entrySet()) {
+                final ArithmeticExpressionNode[] forms = entry.getValue();
+                index.putInt(checkOffset(dataStart + out.size()));
+                writeString(out, entry.getKey());
+                final int source = checkOffset(dataStart + out.size());
+                encode(out, forms[0]);
+                final int optimized = forms[1] == forms[0] ? source : checkOffset(dataStart + out.size());
+                if (forms[1] != forms[0]) encode(out, forms[1]);
+                index.putInt(source).putInt(optimized);
+            }
+            checkOffset(dataStart + out.size());
+            final ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putInt(size);
+            try (OutputStream stream = Files.newOutputStream(file)) {
+                stream.write(header.array());
+                stream.write(index.array());
+                data.writeTo(stream);
+            }
+        }
+
+        private static int checkOffset(long offset) throws IOException {
+            if (offset > Integer.MAX_VALUE) throw new IOException("Library larger than 2 GB");
+            return (int) offset;
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static void writeInteger(DataOutputStream out, BigInteger x) throws IOException {
+            final byte[] bytes = x.toByteArray();
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static void encode(DataOutputStream out, ArithmeticExpressionNode root) throws IOException {
+            for (Iterator<ArithmeticExpressionNode> i = ExpressionTraversal.preOrder(root); i.hasNext(); ) {
+                final ArithmeticExpressionNode node = i.next();
+                if (node instanceof OperationExpressionNode o) {
+                    out.writeByte(OPERATION);
+                    out.writeByte(o.getOperator().ordinal());
+                    out.writeInt(o.getOperandCount());
+                } else if (node instanceof IdentifierExpressionNode id) {
+                    out.writeByte(IDENTIFIER);
+                    writeString(out, id.getValue());
+                } else encode(out, ((LiteralExpressionNode) node).getValue());
+            }
+        }
+
+        private static void encode(DataOutputStream out, MyNumber value) throws IOException {
+            if (value instanceof MyInteger) {
+                final BigInteger x = value.toInteger();
+                if (x.bitLength() < Long.SIZE) {
+                    out.writeByte(LONG);
+                    out.writeLong(x.longValue());
+                } else {
+                    out.writeByte(INTEGER);
+                    writeInteger(out, x);
+                }
+            } else if (value instanceof MyRational) {
+                final Rational r = value.toRational();
+                out.writeByte(RATIONAL);
+                writeInteger(out, r.getNumerator());
+                writeInteger(out, r.getDenominator());
+            } else if (value instanceof MyReal) {
+                final BigDecimal x = value.toReal();
+                out.writeByte(REAL);
+                writeInteger(out, x.unscaledValue());
+                out.writeInt(x.scale());
+            } else throw new IllegalArgumentException("Cannot store literal " + value);
+        }
+
+        /**
+         * The data section of a library, written after the header and index.
+         */
+        private static final class Data extends ByteArrayOutputStream {
+
+            /**
+             * Throws an exception instead of growing beyond the size of a library.
+             */
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                if ((long) count + len > Integer.MAX_VALUE - 8) throw new IllegalStateException("Library larger than 2 GB");
+                super.write(b, off, len);
+            }
+        }
+    }
+}
@@ -0,0 +1,622 @@
+package tree;
+
+import exception.UndefinedIdentifierException;
+import math.EvaluationContext;
+import math.MyInteger;
+import math.MyNumber;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A compact store for many arithmetic expression trees. Instead of one object per node, every node
+ * is a row of flat primitive columns kept off the heap in direct buffers:
+ *
+ * <ul>
+ *     <li>the kind of the node (a byte),</li>
+ *     <li>the operator of an operation (a byte),</li>
+ *     <li>the number of operands of an operation (an int),</li>
+ *     <li>the payload (a long): the index of the first operand of an operation, the slot of an
+ *     identifier, the value of an integer literal fitting in a long or the index of any other
+ *     literal in the literal pool.</li>
+ * </ul>
+ *
+ * <p>The operands of an operation are stored in consecutive rows, so a tree is laid out level by
+ * level and the {@code i}-th operand of an operation is found without following any reference.
+ * Identifier names and literals not fitting in a long live in pools on the heap, identifiers are
+ * stored once per name.
+ *
+ * <p>The columns are allocated in chunks of {@value #CHUNK_SIZE} rows, so the store grows
+ * without copying. Nodes are addressed by their row index, trees are added with
+ * {@link #add(ArithmeticExpressionNode)} and read with a {@link Cursor}, evaluated with
+ * {@link #evaluate(int, Map, EvaluationContext)} or converted back with {@link #toNode(int)}. Rows
+ * are never changed after they are written. The store is not thread-safe for writing, but can be
+ * read by any number of threads once all trees are added.
+ */
+public final class ExpressionStore {
+
+    /**
+     * The number of rows of a chunk.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The mask of the index of a row in its chunk.
+     */
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * The binary logarithm of the number of rows of a chunk.
+     */
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+
+    /**
+     * The kind of an integer literal stored in the payload column.
+     */
+    private static final byte SMALL_LITERAL = 0;
+
+    /**
+     * The kind of a literal stored in the literal pool.
+     */
+    private static final byte POOLED_LITERAL = 1;
+
+    /**
+     * The kind of an identifier.
+     */
+    private static final byte IDENTIFIER = 2;
+
+    /**
+     * The kind of an operation.
+     */
+    private static final byte OPERATION = 3;
+
+    /**
+     * The operators indexed by their ordinal.
+     */
+    private static final Operator[] OPERATORS = Operator.values();
+
+    /**
+     * The kind column of every chunk.
+     */
+    private ByteBuffer[] kinds = new ByteBuffer[0];
+
+    /**
+     * The operator column of every chunk.
+     */
+    private ByteBuffer[] operators = new ByteBuffer[0];
+
+    /**
+     * The operand count column of every chunk.
+     */
+    private ByteBuffer[] counts = new ByteBuffer[0];
+
+    /**
+     * The payload column of every chunk.
+     */
+    private ByteBuffer[] payloads = new ByteBuffer[0];
+
+    /**
+     * The number of rows.
+     */
+    private int size;
+
+    /**
+     * The literals not fitting in the payload column.
+     */
+    private final List<MyNumber> literals = new ArrayList<>();
+
+    /**
+     * The identifiers by slot.
+     */
+    private final List<IdentifierExpressionNode> identifiers = new ArrayList<>();
+
+    /**
+     * The slots of the identifiers by name.
+     */
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    /**
+     * The kind of a node.
+     */
+    public enum Kind {
+
+        /**
+         * A literal.
+         */
+        LITERAL,
+
+        /**
+         * An identifier.
+         */
+        IDENTIFIER,
+
+        /**
+         * An operation.
+         */
+        OPERATION
+    }
+
+    /**
+     * Returns the number of nodes in this store.
+     *
+     * @return the number of nodes in this store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of distinct identifiers in this store.
+     *
+     * @return the number of distinct identifiers in this store
+     */
+    public int getIdentifierCount() {
+        return identifiers.size();
+    }
+
+    /**
+     * Returns the slot of the identifier with the given name.
+     *
+     * @param name the name of the identifier
+     * @return the slot of the identifier or -1 if this store contains no such identifier
+     */
+    public int getIdentifierSlot(String name) {
+        final Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Returns the number of bytes allocated off the heap for the columns of this store.
+     *
+     * @return the number of bytes allocated off the heap
+     */
+    public long getAllocatedBytes() {
+        return (long) kinds.length * CHUNK_SIZE * (Byte.BYTES + Byte.BYTES + Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Adds the arithmetic expression tree to this store. The tree is traversed iteratively, so it
+     * may be of any depth.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return the index of the root node in this store
+     * @throws NullPointerException  if the root is {@code null}
+     * @throws IllegalStateException if the store is full
+     */
+    public int add(ArithmeticExpressionNode root) {
+        Objects.requireNonNull(root, "root null");
+        final ArrayDeque<OperationExpressionNode> queue = new ArrayDeque<>();
+        final int index = allocate(1);
+        write(index, root, queue);
+        // The operations are written in the order they are queued, so the next operation in the
+        // queue is the next row of kind OPERATION from the scan index on.
+        int scan = index;
+        while (!queue.isEmpty()) {
+            final OperationExpressionNode o = queue.poll();
+            while (kind(scan) != OPERATION) scan++;
+            final int first = allocate(o.getOperandCount());
+            chunk(payloads, scan).putLong(offset(scan) << 3, first);
+            for (int i = 0; i < o.getOperandCount(); i++) write(first + i, o.getOperand(i), queue);
+            scan++;
+        }
+        return index;
+    }
+
+    private void write(int index, ArithmeticExpressionNode node, ArrayDeque<OperationExpressionNode> queue) {
+        final int offset = offset(index);
+        if (node instanceof OperationExpressionNode o) {
+            chunk(kinds, index).put(offset, OPERATION);
+            chunk(operators, index).put(offset, (byte) o.getOperator().ordinal());
+            chunk(counts, index).putInt(offset << 2, o.getOperandCount());
+            queue.add(o);
+        } else if (node instanceof IdentifierExpressionNode i) {
+            chunk(kinds, index).put(offset, IDENTIFIER);
+            chunk(payloads, index).putLong(offset << 3, slot(i));
+        } else {
+            final MyNumber value = ((LiteralExpressionNode) node).getValue();
+            if (value instanceof MyInteger && value.toInteger().bitLength() < Long.SIZE) {
+                chunk(kinds, index).put(offset, SMALL_LITERAL);
+                chunk(payloads, index).putLong(offset << 3, value.toInteger().longValue());
+            } else {
+                chunk(kinds, index).put(offset, POOLED_LITERAL);
+                chunk(payloads, index).putLong(offset << 3, literals.size());
+                literals.add(value);
+            }
+        }
+    }
+
+    private int slot(IdentifierExpressionNode i) {
+        final Integer slot = slots.get(i.getValue());
+        if (slot != null) return slot;
+        slots.put(i.getValue(), identifiers.size());
+        identifiers.add(i);
+        return identifiers.size() - 1;
+    }
+
+    /**
+     * Allocates the given number of consecutive rows.
+     *
+     * @param n the number of rows
+     * @return the index of the first row
+     * @throws IllegalStateException if the store is full
+     */
+    private int allocate(int n) {
+        final int index = size;
+        if (n > Integer.MAX_VALUE - index) throw new IllegalStateException("Store full");
+        size += n;
+        final int chunks = (int) (((long) size + CHUNK_MASK) >>> CHUNK_SHIFT);
+        if (chunks > kinds.length) {
+            final int length = kinds.length;
+            kinds = Arrays.copyOf(kinds, chunks);
+            operators = Arrays.copyOf(operators, chunks);
+            counts = Arrays.copyOf(counts, chunks);
+            payloads = Arrays.copyOf(payloads, chunks);
+            for (int i = length; i < chunks; i++) {
+                kinds[i] = column(Byte.BYTES);
+                operators[i] = column(Byte.BYTES);
+                counts[i] = column(Integer.BYTES);
+                payloads[i] = column(Long.BYTES);
+            }
+        }
+        return index;
+    }
+
+    private static ByteBuffer column(int bytes) {
+        return ByteBuffer.allocateDirect(CHUNK_SIZE * bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private static ByteBuffer chunk(ByteBuffer[] column, int index) {
+        return column[index >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int index) {
+        return index & CHUNK_MASK;
+    }
+
+    private byte kind(int index) {
+        return chunk(kinds, index).get(offset(index));
+    }
+
+    private Operator operator(int index) {
+        return OPERATORS[chunk(operators, index).get(offset(index))];
+    }
+
+    private int count(int index) {
+        return chunk(counts, index).getInt(offset(index) << 2);
+    }
+
+    private long payload(int index) {
+        return chunk(payloads, index).getLong(offset(index) << 3);
+    }
+
+    private int first(int index) {
+        return (int) payload(index);
+    }
+
+    private MyNumber literal(int index) {
+        return kind(index) == SMALL_LITERAL ? new MyInteger(BigInteger.valueOf(payload(index))) : literals.get((int) payload(index));
+    }
+
+    private void checkIndex(int index) {
+        Objects.checkIndex(index, size);
+    }
+
+    /**
+     * Returns a cursor positioned at the given node.
+     *
+     * @param index the index of the node
+     * @return a cursor positioned at the node
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public Cursor cursor(int index) {
+        return new Cursor().moveTo(index);
+    }
+
+    /**
+     * Converts the tree rooted at the given node back to expression nodes.
+     *
+     * @param index the index of the root node
+     * @return the root node of the arithmetic expression tree
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public ArithmeticExpressionNode toNode(int index) {
+        checkIndex(index);
+        final ArrayList<ArithmeticExpressionNode> values = new ArrayList<>();
+        postOrder(index, new Visitor() {
+            @Override
+            public void leaf(int node) {
+                values.add(kind(node) == IDENTIFIER ? identifiers.get(first(node)) : new LiteralExpressionNode(literal(node)));
+            }
+
+            @Override
+            public void operation(int node, int count) {
+                final List<ArithmeticExpressionNode> operands = values.subList(values.size() - count, values.size());
+                final OperationExpressionNode o = new OperationExpressionNode(operator(node), operands);
+                operands.clear();
+                values.add(o);
+            }
+        });
+        return values.get(0);
+    }
+
+    /**
+     * Evaluates the tree rooted at the given node like {@link ArithmeticExpressionNode#evaluate(Map, EvaluationContext)}
+     * evaluates the equivalent expression nodes. The tree is evaluated iteratively with a stack of
+     * values, and every identifier is looked up once per evaluation.
+     *
+     * @param index       the index of the root node
+     * @param identifiers the values of the identifiers
+     * @param context     the evaluation context
+     * @return the value of the tree
+     * @throws IndexOutOfBoundsException    if the index is out of range
+     * @throws UndefinedIdentifierException if an identifier is not defined
+     */
+    public MyNumber evaluate(int index, Map<String, MyNumber> identifiers, EvaluationContext context) {
+        checkIndex(index);
+        if (context.isDeferred() && kind(index) == OPERATION)
+            return context.round(evaluate(index, identifiers, context.intermediate()));
+        return evaluate(index, new MyNumber[this.identifiers.size()], identifiers, context);
+    }
+
+    /**
+     * Evaluates the tree rooted at the given node with the values of the identifiers given by
+     * their {@link #getIdentifierSlot(String) slots} instead of their names, so no map needs to be
+     * built per evaluation. A {@code null} value (or a slot beyond the array) leaves a predefined
+     * constant at its value.
+     *
+     * @param index   the index of the root node
+     * @param values  the values of the identifiers by slot
+     * @param context the evaluation context
+     * @return the value of the tree
+     * @throws IndexOutOfBoundsException    if the index is out of range
+     * @throws UndefinedIdentifierException if an identifier which is not a constant has no value
+     */
+    public MyNumber evaluate(int index, MyNumber[] values, EvaluationContext context) {
+        checkIndex(index);
+        if (context.isDeferred() && kind(index) == OPERATION)
+            return context.round(evaluate(index, values, context.intermediate()));
+        final MyNumber[] bound = new MyNumber[identifiers.size()];
+        for (int i = 0; i < Math.min(values.length, bound.length); i++)
+            if (values[i] != null) bound[i] = context.identifier(values[i]);
+        return evaluate(index, bound, Map.of(), context);
+    }
+
+    /**
+     * Evaluates the tree rooted at the given node, looking up the identifiers without a bound
+     * value once.
+     *
+     * @param index       the index of the root node
+     * @param bound       the values of the identifiers by slot, filled in by the evaluation
+     * @param identifiers the values of the identifiers by name
+     * @param context     the evaluation context
+     * @return the value of the tree
+     */
+    private MyNumber evaluate(int index, MyNumber[] bound, Map<String, MyNumber> identifiers, EvaluationContext context) {
+        final MyNumber[][] stack = {new MyNumber[16]};
+        final int[] top = {0};
+        postOrder(index, new Visitor() {
+            @Override
+            public void leaf(int node) {
+                final MyNumber value;
+                if (kind(node) == IDENTIFIER) {
+                    final int slot = first(node);
+                    if (bound[slot] == null) bound[slot] = ExpressionStore.this.identifiers.get(slot).evaluate(identifiers, context);
+                    value = bound[slot];
+                } else value = context.operand(literal(node));
+                if (top[0] == stack[0].length) stack[0] = Arrays.copyOf(stack[0], top[0] * 2);
+                stack[0][top[0]++] = value;
+            }
+
+            @Override
+            public void operation(int node, int count) {
+                final int from = top[0] - count;
+                final MyNumber result = OperationExpressionNode.apply(operator(node), stack[0], from, top[0], context);
+                Arrays.fill(stack[0], from, top[0], null);
+                if (from == stack[0].length) stack[0] = Arrays.copyOf(stack[0], from * 2);
+                stack[0][from] = result;
+                top[0] = from + 1;
+            }
+        });
+        return stack[0][0];
+    }
+
+    /**
+     * Traverses the tree rooted at the given node in post-order with an explicit stack.
+     *
+     * @param index   the index of the root node
+     * @param visitor the visitor
+     */
+    private void postOrder(int index, Visitor visitor) {
+        if (kind(index) != OPERATION) {
+            visitor.leaf(index);
+            return;
+        }
+        // Every frame is an operation and the index of its next operand.
+        int[] nodes = new int[16], next = new int[16];
+        int depth = 0;
+        nodes[0] = index;
+        while (depth >= 0) {
+            final int node = nodes[depth], count = count(node);
+            if (next[depth] == count) {
+                visitor.operation(node, count);
+                depth--;
+                continue;
+            }
+            final int operand = first(node) + next[depth]++;
+            if (kind(operand) != OPERATION) visitor.leaf(operand);
+            else {
+                if (++depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                nodes[depth] = operand;
+                next[depth] = 0;
+            }
+        }
+    }
+
+    /**
+     * Receives the nodes of a tree from {@link #postOrder(int, Visitor)}.
+     */
+    private interface Visitor {
+
+        /**
+         * Receives a literal or identifier.
+         *
+         * @param node the index of the node
+         */
+        void leaf(int node);
+
+        /**
+         * Receives an operation after all its operands.
+         *
+         * @param node  the index of the node
+         * @param count the number of operands of the node
+         */
+        void operation(int node, int count);
+    }
+
+    /**
+     * A movable view of one node of the store. A cursor reads the columns of the store directly
+     * and creates no objects while moving, except for literals not fitting in a long. Cursors are
+     * not thread-safe, but any number of cursors can read the same store.
+     */
+    public final class Cursor {
+
+        /**
+         * The index of the current node.
+         */
+        private int index;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves this cursor to the given node.
+         *
+         * @param index the index of the node
+         * @return this cursor
+         * @throws IndexOutOfBoundsException if the index is out of range
+         */
+        public Cursor moveTo(int index) {
+            checkIndex(index);
+            this.index = index;
+            return this;
+        }
+
+        /**
+         * Moves this cursor to the given operand of the current operation.
+         *
+         * @param i the index of the operand
+         * @return this cursor
+         * @throws IllegalStateException     if the current node is not an operation
+         * @throws IndexOutOfBoundsException if the index is out of range
+         */
+        public Cursor moveToOperand(int i) {
+            index = getOperand(i);
+            return this;
+        }
+
+        /**
+         * Returns the index of the current node.
+         *
+         * @return the index of the current node
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the kind of the current node.
+         *
+         * @return the kind of the current node
+         */
+        public Kind getKind() {
+            return switch (kind(index)) {
+                case SMALL_LITERAL, POOLED_LITERAL -> Kind.LITERAL;
+                case IDENTIFIER -> Kind.IDENTIFIER;
+                default -> Kind.OPERATION;
+            };
+        }
+
+        /**
+         * Returns the operator of the current operation.
+         *
+         * @return the operator of the current operation
+         * @throws IllegalStateException if the current node is not an operation
+         */
+        public Operator getOperator() {
+            check(OPERATION);
+            return operator(index);
+        }
+
+        /**
+         * Returns the number of operands of the current operation.
+         *
+         * @return the number of operands of the current operation
+         * @throws IllegalStateException if the current node is not an operation
+         */
+        public int getOperandCount() {
+            check(OPERATION);
+            return count(index);
+        }
+
+        /**
+         * Returns the index of the given operand of the current operation.
+         *
+         * @param i the index of the operand
+         * @return the index of the node of the operand
+         * @throws IllegalStateException     if the current node is not an operation
+         * @throws IndexOutOfBoundsException if the index is out of range
+         */
+        public int getOperand(int i) {
+            check(OPERATION);
+            return first(index) + Objects.checkIndex(i, count(index));
+        }
+
+        /**
+         * Returns the value of the current literal.
+         *
+         * @return the value of the current literal
+         * @throws IllegalStateException if the current node is not a literal
+         */
+        public MyNumber getLiteral() {
+            if (getKind() != Kind.LITERAL) throw new IllegalStateException("Not a literal");
+            return literal(index);
+        }
+
+        /**
+         * Returns the name of the current identifier.
+         *
+         * @return the name of the current identifier
+         * @throws IllegalStateException if the current node is not an identifier
+         */
+        public String getIdentifier() {
+            return identifiers.get(getIdentifierSlot()).getValue();
+        }
+
+        /**
+         * Returns the slot of the current identifier. Identifiers with the same name share a slot,
+         * slots are numbered from 0 to {@link #getIdentifierCount()} (exclusive).
+         *
+         * @return the slot of the current identifier
+         * @throws IllegalStateException if the current node is not an identifier
+         */
+        public int getIdentifierSlot() {
+            check(IDENTIFIER);
+            return first(index);
+        }
+
+        private void check(byte kind) {
+            if (kind(index) != kind) throw new IllegalStateException("Not an " + (kind == OPERATION ? "operation" : "identifier"));
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Traverses arithmetic expression trees. All traversals use an explicit stack instead of
+ * recursion, so they work for trees of any depth; the memory used is proportional to the depth
+ * (and for pre-order, the width) of the tree.
+ *
+ * <ul>
+ *     <li>{@link #preOrder(ArithmeticExpressionNode)} and {@link #postOrder(ArithmeticExpressionNode)}
+ *     iterate over the nodes.</li>
+ *     <li>{@link #fold(ArithmeticExpressionNode, ExpressionVisitor)} computes a result bottom-up
+ *     with a typed visitor.</li>
+ *     <li>{@link #walk(ArithmeticExpressionNode, Listener)} reports the start and end of every
+ *     operation, for example to serialize a tree.</li>
+ *     <li>{@link #stream(ArithmeticExpressionNode, boolean)} streams the nodes in pre-order; the
+ *     spliterator splits at subtree boundaries, so parallel streams process disjoint subtrees.</li>
+ * </ul>
+ */
+public final class ExpressionTraversal {
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private ExpressionTraversal() {
+    }
+
+    /**
+     * Returns an iterator over the nodes of the tree in pre-order (every operation before its
+     * operands).
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return an iterator over the nodes in pre-order
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public static Iterator<ArithmeticExpressionNode> preOrder(ArithmeticExpressionNode root) {
+        final ArrayDeque<ArithmeticExpressionNode> stack = new ArrayDeque<>();
+        stack.push(Objects.requireNonNull(root, "root null"));
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public ArithmeticExpressionNode next() {
+                if (stack.isEmpty()) throw new NoSuchElementException();
+                final ArithmeticExpressionNode node = stack.pop();
+                pushOperands(node, stack);
+                return node;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the nodes of the tree in post-order (every operation after its
+     * operands).
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return an iterator over the nodes in post-order
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public static Iterator<ArithmeticExpressionNode> postOrder(ArithmeticExpressionNode root) {
+        final ArrayDeque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(Objects.requireNonNull(root, "root null")));
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public ArithmeticExpressionNode next() {
+                if (stack.isEmpty()) throw new NoSuchElementException();
+                while (true) {
+                    final Frame frame = stack.peek();
+                    if (frame.node instanceof OperationExpressionNode o && frame.index < o.getOperandCount())
+                        stack.push(new Frame(o.getOperand(frame.index++)));
+                    else return stack.pop().node;
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the result of the given visitor for the tree. The result of every operation is
+     * computed from the results of its operands, which are kept on an explicit stack.
+     *
+     * @param root    the root node of the arithmetic expression tree
+     * @param visitor the visitor
+     * @param <R>     the type of the results
+     * @return the result of the visitor for the root
+     * @throws NullPointerException     if the root or visitor is {@code null}
+     * @throws IllegalArgumentException if the tree contains a node of an unknown type
+     */
+    public static <R> R fold(ArithmeticExpressionNode root, ExpressionVisitor<R> visitor) {
+        Objects.requireNonNull(visitor, "visitor null");
+        final ArrayList<R> results = new ArrayList<>();
+        walk(root, new Listener<RuntimeException>() {
+            @Override
+            public boolean enter(OperationExpressionNode node) {
+                return true;
+            }
+
+            @Override
+            public void operand(OperandExpressionNode node) {
+                if (node instanceof LiteralExpressionNode l) results.add(visitor.visitLiteral(l));
+                else if (node instanceof IdentifierExpressionNode i) results.add(visitor.visitIdentifier(i));
+                else throw new IllegalArgumentException("Unknown node " + node.getClass().getName());
+            }
+
+            @Override
+            public void exit(OperationExpressionNode node) {
+                final List<R> operands = results.subList(results.size() - node.getOperandCount(), results.size());
+                final R result = visitor.visitOperation(node, Collections.unmodifiableList(operands));
+                operands.clear();
+                results.add(result);
+            }
+        });
+        return results.get(0);
+    }
+
+    /**
+     * Traverses the tree in pre-order and reports every operation when it is entered and left and
+     * every operand to the given listener.
+     *
+     * @param root     the root node of the arithmetic expression tree
+     * @param listener the listener
+     * @param <X>      the type of the exceptions thrown by the listener
+     * @throws X                    if the listener throws an exception
+     * @throws NullPointerException if the root or listener is {@code null}
+     */
+    public static <X extends Exception> void walk(ArithmeticExpressionNode root, Listener<X> listener) throws X {
+        Objects.requireNonNull(listener, "listener null");
+        if (!(Objects.requireNonNull(root, "root null") instanceof OperationExpressionNode o)) {
+            listener.operand((OperandExpressionNode) root);
+            return;
+        }
+        if (!listener.enter(o)) return;
+        final ArrayDeque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(o));
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.peek();
+            final OperationExpressionNode node = (OperationExpressionNode) frame.node;
+            if (frame.index == node.getOperandCount()) {
+                stack.pop();
+                listener.exit(node);
+                continue;
+            }
+            final ArithmeticExpressionNode operand = node.getOperand(frame.index++);
+            if (operand instanceof OperationExpressionNode op) {
+                if (listener.enter(op)) stack.push(new Frame(op));
+            } else listener.operand((OperandExpressionNode) operand);
+        }
+    }
+
+    /**
+     * Returns a sequential or parallel stream of the nodes of the tree in pre-order.
+     *
+     * @param root     the root node of the arithmetic expression tree
+     * @param parallel {@code true} for a parallel stream
+     * @return a stream of the nodes in pre-order
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public static Stream<ArithmeticExpressionNode> stream(ArithmeticExpressionNode root, boolean parallel) {
+        return StreamSupport.stream(spliterator(root), parallel);
+    }
+
+    /**
+     * Returns a spliterator over the nodes of the tree in pre-order. The spliterator splits at
+     * subtree boundaries: the prefix it splits off covers whole subtrees (or an operation without
+     * its operands), so both halves can be traversed independently.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return a spliterator over the nodes in pre-order
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public static Spliterator<ArithmeticExpressionNode> spliterator(ArithmeticExpressionNode root) {
+        final ArrayDeque<ArithmeticExpressionNode> pending = new ArrayDeque<>();
+        pending.push(Objects.requireNonNull(root, "root null"));
+        return new SubtreeSpliterator(null, pending, Long.MAX_VALUE);
+    }
+
+    private static void pushOperands(ArithmeticExpressionNode node, ArrayDeque<ArithmeticExpressionNode> stack) {
+        if (node instanceof OperationExpressionNode o)
+            for (int i = o.getOperandCount() - 1; i >= 0; i--) stack.push(o.getOperand(i));
+    }
+
+    /**
+     * Receives the parts of an arithmetic expression tree from {@link #walk(ArithmeticExpressionNode, Listener)}.
+     *
+     * @param <X> the type of the exceptions thrown by the listener
+     */
+    public interface Listener<X extends Exception> {
+
+        /**
+         * Receives the start of an operation.
+         *
+         * @param node the operation
+         * @return {@code true} to visit the operands of the operation, {@code false} to skip them
+         * (then {@link #exit(OperationExpressionNode)} is not called for this operation)
+         * @throws X if the listener throws an exception
+         */
+        boolean enter(OperationExpressionNode node) throws X;
+
+        /**
+         * Receives an operand.
+         *
+         * @param node the operand
+         * @throws X if the listener throws an exception
+         */
+        void operand(OperandExpressionNode node) throws X;
+
+        /**
+         * Receives the end of an operation after all its operands.
+         *
+         * @param node the operation
+         * @throws X if the listener throws an exception
+         */
+        void exit(OperationExpressionNode node) throws X;
+    }
+
+    /**
+     * A node on a traversal stack and the index of its next operand.
+     */
+    private static final class Frame {
+
+        /**
+         * The node.
+         */
+        private final ArithmeticExpressionNode node;
+
+        /**
+         * The index of the next operand to visit.
+         */
+        private int index;
+
+        private Frame(ArithmeticExpressionNode node) {
+            this.node = node;
+        }
+    }
+
+    /**
+     * A spliterator over an optional single node followed by a sequence of whole subtrees, all in
+     * pre-order.
+     */
+    private static final class SubtreeSpliterator implements Spliterator<ArithmeticExpressionNode> {
+
+        /**
+         * The node to report before the subtrees (without its operands) or {@code null}.
+         */
+        private ArithmeticExpressionNode head;
+
+        /**
+         * The pending subtrees, the first one on top.
+         */
+        private final ArrayDeque<ArithmeticExpressionNode> pending;
+
+        /**
+         * The estimated number of remaining nodes.
+         */
+        private long estimate;
+
+        private SubtreeSpliterator(ArithmeticExpressionNode head, ArrayDeque<ArithmeticExpressionNode> pending, long estimate) {
+            this.head = head;
+            this.pending = pending;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ArithmeticExpressionNode> action) {
+            final ArithmeticExpressionNode node;
+            if (head != null) {
+                node = head;
+                head = null;
+            } else if (!pending.isEmpty()) pushOperands(node = pending.pop(), pending);
+            else return false;
+            action.accept(node);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super ArithmeticExpressionNode> action) {
+            while (tryAdvance(action)) ;
+        }
+
+        @Override
+        public Spliterator<ArithmeticExpressionNode> trySplit() {
+            final ArrayDeque<ArithmeticExpressionNode> prefix = new ArrayDeque<>();
+            final ArithmeticExpressionNode prefixHead;
+            if (head != null) {
+                // Split off the single node, the subtrees remain.
+                prefixHead = head;
+                head = null;
+            } else if (pending.size() > 1) {
+                prefixHead = null;
+                for (int n = pending.size() / 2; n > 0; n--) prefix.addLast(pending.pop());
+            } else if (pending.peek() instanceof OperationExpressionNode o && o.getOperandCount() > 0) {
+                // Split off the operation and the first half of its operands, the other half remains.
+                prefixHead = pending.pop();
+                final int count = o.getOperandCount(), half = count / 2;
+                for (int i = 0; i < half; i++) prefix.addLast(o.getOperand(i));
+                for (int i = count - 1; i >= half; i--) pending.push(o.getOperand(i));
+            } else return null;
+            estimate >>>= 1;
+            return new SubtreeSpliterator(prefixHead, prefix, estimate);
+        }
+
+        @Override
+        public long estimateSize() {
+            return head == null && pending.isEmpty() ? 0 : estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+}
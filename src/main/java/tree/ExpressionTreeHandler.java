@@ -1,23 +1,45 @@
 package tree;
 
 import exception.*;
+import math.DecimalConversion;
 import math.MyInteger;
 import math.MyRational;
 import math.MyReal;
 import math.Rational;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * This class is used to parse an expression and build a tree out of it.
  */
 public final class ExpressionTreeHandler {
 
+    /**
+     * The number of characters below which an expression is parsed sequentially by
+     * {@link #buildInParallel(CharSequence, ForkJoinPool)}.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /**
+     * The number of nested operations below which {@link #buildInParallel(CharSequence, ForkJoinPool)}
+     * splits operands; deeper operations are parsed sequentially.
+     */
+    private static final int PARALLEL_DEPTH = 32;
+
     /**
      * Don't let anyone instantiate this class.
      */
@@ -48,33 +70,33 @@ public final class ExpressionTreeHandler {
         final String op = expression.next();
         checkExpression(expression);
         final Operator operator = checkOperator(op);
-        final ListItem<ArithmeticExpressionNode> operands = new ListItem<>();
+        final ArrayList<ArithmeticExpressionNode> operands = new ArrayList<>();
         buildOperandsRecursively(expression, operands, operator, outerCall);
-        return new OperationExpressionNode(operator, operands.key == null ? null : operands);
+        return new OperationExpressionNode(operator, operands);
     }
 
-    private static void buildOperandsRecursively(Iterator<String> expression, ListItem<ArithmeticExpressionNode> operands, Operator operator, boolean outerCall) {
+    private static void buildOperandsRecursively(Iterator<String> expression, ArrayList<ArithmeticExpressionNode> operands, Operator operator, boolean outerCall) {
         final String s = expression.next();
         if (s.equals(")")) {
             if (expression.hasNext() && outerCall) throw new BadOperationException(expression.next());
             checkZeroOperands(operator);
             return;
         }
-        if (s.equals("(")) operands.addRecursively(buildOperationRecursively(expression, false));
-        else operands.addRecursively(identifierOrLiteral(s));
+        if (s.equals("(")) operands.add(buildOperationRecursively(expression, false));
+        else operands.add(identifierOrLiteral(s));
         checkExpression(expression);
         buildOperandsRecursivelyHelper(expression, operands, operator, outerCall, 1);
     }
 
-    private static void buildOperandsRecursivelyHelper(Iterator<String> expression, ListItem<ArithmeticExpressionNode> operands, Operator operator, boolean outerCall, int numberOfOperands) {
+    private static void buildOperandsRecursivelyHelper(Iterator<String> expression, ArrayList<ArithmeticExpressionNode> operands, Operator operator, boolean outerCall, int numberOfOperands) {
         final String s = expression.next();
         if (s.equals(")")) {
             if (expression.hasNext() && outerCall) throw new BadOperationException(expression.next());
             checkNumberOfOperands(operator, numberOfOperands);
             return;
         }
-        if (s.equals("(")) operands.addRecursively(buildOperationRecursively(expression, false));
-        else operands.addRecursively(identifierOrLiteral(s));
+        if (s.equals("(")) operands.add(buildOperationRecursively(expression, false));
+        else operands.add(identifierOrLiteral(s));
         checkExpression(expression);
         buildOperandsRecursivelyHelper(expression, operands, operator, outerCall, ++numberOfOperands);
     }
@@ -110,23 +132,38 @@ public final class ExpressionTreeHandler {
     }
 
     private static ArithmeticExpressionNode identifierOrLiteral(String s) {
-        try {
-            return new IdentifierExpressionNode(s);
-        } catch (IllegalIdentifierExceptions e) {
+        // Tokens starting with a digit are no identifiers, and tokens with a decimal point,
+        // exponent or slash no integers, so the common literals are parsed without an exception.
+        int start = 0;
+        while (start < s.length() && s.charAt(start) == '-') start++;
+        if (start == s.length() || !Character.isDigit(s.charAt(start))) {
             try {
-                return new LiteralExpressionNode(new MyInteger(new BigInteger(s)));
-            } catch (NumberFormatException ex) {
-                try {
-                    return new LiteralExpressionNode(new MyReal(new BigDecimal(s)));
-                } catch (NumberFormatException exc) {
-                    if (s.matches("-?\\d+/\\d+")) {
-                        final String[] a = s.split("/");
-                        return new LiteralExpressionNode(new MyRational(new Rational(new BigInteger(a[0]), new BigInteger(a[1]))));
-                    }
-                    throw new IllegalIdentifierExceptions(s);
-                }
+                return new IdentifierExpressionNode(s);
+            } catch (IllegalIdentifierExceptions e) {
+                // Not an identifier, maybe a literal.
+            }
+        }
+        final boolean slash = s.indexOf('/') >= 0;
+        if (!slash && s.indexOf('.') < 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            try {
+                return new LiteralExpressionNode(new MyInteger(DecimalConversion.parseInteger(s, 0, s.length())));
+            } catch (NumberFormatException e) {
+                // Not an integer, maybe a decimal number.
+            }
+        }
+        if (!slash) {
+            try {
+                return new LiteralExpressionNode(new MyReal(DecimalConversion.parseDecimal(s, 0, s.length())));
+            } catch (NumberFormatException e) {
+                // Not a decimal number, maybe a fraction.
             }
         }
+        if (s.matches("-?\\d+/\\d+")) {
+            final int i = s.indexOf('/');
+            final BigInteger numerator = DecimalConversion.parseInteger(s, 0, i);
+            return new LiteralExpressionNode(new MyRational(new Rational(numerator, DecimalConversion.parseInteger(s, i + 1, s.length()))));
+        }
+        throw new IllegalIdentifierExceptions(s);
     }
 
     private static Operator checkOperator(String s) {
@@ -168,21 +205,21 @@ public final class ExpressionTreeHandler {
         operatorStack.push(checkOperator(op));
         final Stack<Integer> integerStack = new Stack<>();
         integerStack.push(0);
-        final Stack<ListItem<ArithmeticExpressionNode>> stack = new Stack<>();
-        stack.push(new ListItem<>());
+        final Stack<ArrayList<ArithmeticExpressionNode>> stack = new Stack<>();
+        stack.push(new ArrayList<>());
         buildOperandsIteratively(expression, stack, operatorStack, integerStack);
-        final ListItem<ArithmeticExpressionNode> l = stack.pop();
-        return new OperationExpressionNode(operatorStack.pop(), l.key == null ? null : l);
+        return new OperationExpressionNode(operatorStack.pop(), stack.pop());
     }
 
-    private static void buildOperandsIteratively(Iterator<String> expression, Stack<ListItem<ArithmeticExpressionNode>> stack, Stack<Operator> operatorStack, Stack<Integer> integerStack) {
+    private static void buildOperandsIteratively(Iterator<String> expression, Stack<ArrayList<ArithmeticExpressionNode>> stack, Stack<Operator> operatorStack, Stack<Integer> integerStack) {
         while (true) {
             final String s = expression.next();
             if (s.equals(")")) {
                 final int size = stack.size();
                 if (size > 1) {
-                    ListItem<ArithmeticExpressionNode> list = stack.pop();
-                    stack.peek().add(new OperationExpressionNode(operatorStack.pop(), list.key == null ? null : list));
+                    checkNumberOfOperands(operatorStack.peek(), integerStack.pop());
+                    final ArrayList<ArithmeticExpressionNode> list = stack.pop();
+                    stack.peek().add(new OperationExpressionNode(operatorStack.pop(), list));
                     checkExpression(expression);
                     continue;
                 }
@@ -197,20 +234,20 @@ public final class ExpressionTreeHandler {
                 checkExpression(expression);
                 operatorStack.push(checkOperator(op));
                 integerStack.push(0);
-                stack.push(new ListItem<>());
+                stack.push(new ArrayList<>());
                 buildOperandsIterativelyHelper(expression, stack, operatorStack, integerStack);
             } else stack.peek().add(identifierOrLiteral(s));
             checkExpression(expression);
         }
     }
 
-    private static void buildOperandsIterativelyHelper(Iterator<String> expression, Stack<ListItem<ArithmeticExpressionNode>> stack, Stack<Operator> operatorStack, Stack<Integer> integerStack) {
+    private static void buildOperandsIterativelyHelper(Iterator<String> expression, Stack<ArrayList<ArithmeticExpressionNode>> stack, Stack<Operator> operatorStack, Stack<Integer> integerStack) {
         while (true) {
             final String s = expression.next();
             if (s.equals(")")) {
                 checkNumberOfOperands(operatorStack.peek(), integerStack.pop());
-                final ListItem<ArithmeticExpressionNode> list = stack.pop();
-                stack.peek().add(new OperationExpressionNode(operatorStack.pop(), list.key == null ? null : list));
+                final ArrayList<ArithmeticExpressionNode> list = stack.pop();
+                stack.peek().add(new OperationExpressionNode(operatorStack.pop(), list));
                 return;
             }
             integerStack.set(integerStack.size() - 1, integerStack.peek() + 1);
@@ -220,7 +257,7 @@ public final class ExpressionTreeHandler {
                 checkExpression(expression);
                 operatorStack.push(checkOperator(op));
                 integerStack.push(0);
-                stack.push(new ListItem<>());
+                stack.push(new ArrayList<>());
             } else {
                 stack.peek().add(identifierOrLiteral(s));
                 checkExpression(expression);
@@ -228,6 +265,278 @@ public final class ExpressionTreeHandler {
         }
     }
 
+    /**
+     * Splits the given characters into the tokens of an expression: parentheses and the runs of
+     * other characters between them and whitespace. The characters are not copied, every token is
+     * created when it is returned.
+     *
+     * @param expression the string representation of the arithmetic expression
+     * @return an iterator over the tokens
+     */
+    public static Iterator<String> tokenize(CharSequence expression) {
+        return tokenize(expression, 0, expression.length());
+    }
+
+    private static Iterator<String> tokenize(CharSequence s, int from, int to) {
+        return new Iterator<>() {
+            private int position = from;
+
+            @Override
+            public boolean hasNext() {
+                position = skipWhitespace(s, position, to);
+                return position < to;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                final int start = position;
+                position = endOfToken(s, position, to);
+                return s.subSequence(start, position).toString();
+            }
+        };
+    }
+
+    private static int skipWhitespace(CharSequence s, int from, int to) {
+        while (from < to && Character.isWhitespace(s.charAt(from))) from++;
+        return from;
+    }
+
+    private static int endOfToken(CharSequence s, int from, int to) {
+        final char c = s.charAt(from);
+        if (c == '(' || c == ')') return from + 1;
+        int i = from + 1;
+        while (i < to && !Character.isWhitespace(s.charAt(i)) && s.charAt(i) != '(' && s.charAt(i) != ')') i++;
+        return i;
+    }
+
+    /**
+     * Builds an arithmetic expression tree from a string in parallel on the common fork-join pool.
+     *
+     * @param expression the string representation of the arithmetic expression to parse
+     * @return the root node of the arithmetic expression tree
+     * @throws BadOperationException        if the expression is empty
+     * @throws ParenthesesMismatchException if the parentheses are mismatched
+     * @throws UndefinedOperatorException   if the operator is not defined
+     * @see #buildInParallel(CharSequence, ForkJoinPool)
+     */
+    public static ArithmeticExpressionNode buildInParallel(CharSequence expression) {
+        return buildInParallel(expression, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Builds an arithmetic expression tree from a string in parallel on the given fork-join pool.
+     * A scan of the bracket depth finds the operands of the root operation, which are parsed
+     * concurrently and, if they are large operations themselves, split the same way. Expressions
+     * shorter than {@value #PARALLEL_THRESHOLD} characters, operations whose operands besides the
+     * largest one are shorter than that (e.g. a deeply nested chain, which offers no parallelism)
+     * and operations nested more than {@value #PARALLEL_DEPTH} levels deep are parsed by
+     * {@link #buildIteratively(Iterator)}, so the recursion and the rescanning of nested operations
+     * stay bounded.
+     *
+     * <p>The tree and the exceptions are the same as those of {@link #buildIteratively(Iterator)}
+     * with the tokens of the expression: the operands are checked like the operands of the
+     * sequential builders, and if several operands are malformed, the exception of the first one is
+     * thrown. Expressions whose brackets do not match are parsed sequentially to report the error.
+     *
+     * @param expression the string representation of the arithmetic expression to parse
+     * @param pool       the fork-join pool
+     * @return the root node of the arithmetic expression tree
+     * @throws NullPointerException         if an argument is {@code null}
+     * @throws BadOperationException        if the expression is empty
+     * @throws ParenthesesMismatchException if the parentheses are mismatched
+     * @throws UndefinedOperatorException   if the operator is not defined
+     */
+    public static ArithmeticExpressionNode buildInParallel(CharSequence expression, ForkJoinPool pool) {
+        Objects.requireNonNull(expression, "expression null");
+        return pool.invoke(new ParallelBuild(expression, 0, expression.length(), 0));
+    }
+
+    /**
+     * Builds the tree of a range of characters, splitting the operands of large operations.
+     */
+    private static final class ParallelBuild extends RecursiveTask<ArithmeticExpressionNode> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The characters of the expression.
+         */
+        private final transient CharSequence s;
+
+        /**
+         * The range of characters to build (from inclusive, to exclusive).
+         */
+        private final int from, to;
+
+        /**
+         * The number of operations enclosing the range.
+         */
+        private final int depth;
+
+        private ParallelBuild(CharSequence s, int from, int to, int depth) {
+            this.s = s;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        @Override
+        protected ArithmeticExpressionNode compute() {
+            if (to - from < PARALLEL_THRESHOLD || depth >= PARALLEL_DEPTH)
+                return buildIteratively(tokenize(s, from, to));
+            // The operator and the start and end of every operand of the root operation.
+            int i = skipWhitespace(s, from, to);
+            if (i == to || s.charAt(i) != '(') return buildIteratively(tokenize(s, from, to));
+            i = skipWhitespace(s, i + 1, to);
+            if (i == to) return buildIteratively(tokenize(s, from, to));
+            final int operatorEnd = endOfToken(s, i, to);
+            final String op = s.subSequence(i, operatorEnd).toString();
+            int[] bounds = new int[64];
+            int n = 0;
+            i = operatorEnd;
+            while (true) {
+                i = skipWhitespace(s, i, to);
+                if (i == to) return buildIteratively(tokenize(s, from, to));
+                final char c = s.charAt(i);
+                if (c == ')') break;
+                final int start = i;
+                if (c == '(') {
+                    int depth = 0;
+                    do {
+                        final char d = s.charAt(i++);
+                        if (d == '(') depth++;
+                        else if (d == ')') depth--;
+                    } while (depth > 0 && i < to);
+                    if (depth > 0) return buildIteratively(tokenize(s, from, to));
+                } else i = endOfToken(s, i, to);
+                if (n == bounds.length) bounds = Arrays.copyOf(bounds, n * 2);
+                bounds[n++] = start;
+                bounds[n++] = i;
+            }
+            // Tokens after the root operation and invalid operators are reported sequentially.
+            if (skipWhitespace(s, i + 1, to) < to || op.equals("(") || op.equals(")"))
+                return buildIteratively(tokenize(s, from, to));
+            // A single large operand, e.g. in a nested chain, is parsed sequentially with the rest.
+            int total = 0, largest = 0;
+            for (int k = 0; k < n; k += 2) {
+                total += bounds[k + 1] - bounds[k];
+                largest = Math.max(largest, bounds[k + 1] - bounds[k]);
+            }
+            if (total - largest < PARALLEL_THRESHOLD) return buildIteratively(tokenize(s, from, to));
+            final Operator operator = checkOperator(op);
+            final int count = n / 2;
+            final ArithmeticExpressionNode[] operands = new ArithmeticExpressionNode[count];
+            final RuntimeException[] errors = new RuntimeException[count];
+            final AtomicInteger firstError = new AtomicInteger(count);
+            new Operands(s, bounds, 0, count, depth + 1, operands, errors, firstError).invoke();
+            if (firstError.get() < count) throw errors[firstError.get()];
+            checkNumberOfOperands(operator, count);
+            return new OperationExpressionNode(operator, operands);
+        }
+    }
+
+    /**
+     * Builds the trees of a range of operands, keeping the exceptions of malformed operands.
+     */
+    private static final class Operands extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The characters of the expression.
+         */
+        private final transient CharSequence s;
+
+        /**
+         * The start and end of every operand.
+         */
+        private final int[] bounds;
+
+        /**
+         * The range of operands to build (from inclusive, to exclusive).
+         */
+        private final int from, to;
+
+        /**
+         * The number of operations enclosing the operands.
+         */
+        private final int depth;
+
+        /**
+         * The trees of the operands.
+         */
+        private final transient ArithmeticExpressionNode[] operands;
+
+        /**
+         * The exceptions of the malformed operands.
+         */
+        private final RuntimeException[] errors;
+
+        /**
+         * The index of the first malformed operand, the operands after it are not built.
+         */
+        private final AtomicInteger firstError;
+
+        private Operands(CharSequence s, int[] bounds, int from, int to, int depth,
+                         ArithmeticExpressionNode[] operands, RuntimeException[] errors, AtomicInteger firstError) {
+            this.s = s;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+            this.operands = operands;
+            this.errors = errors;
+            this.firstError = firstError;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && bounds[2 * to - 1] - bounds[2 * from] >= PARALLEL_THRESHOLD) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new Operands(s, bounds, from, mid, depth, operands, errors, firstError),
+                        new Operands(s, bounds, mid, to, depth, operands, errors, firstError));
+                return;
+            }
+            for (int i = from; i < to && i < firstError.get(); i++) {
+                try {
+                    operands[i] = new ParallelBuild(s, bounds[2 * i], bounds[2 * i + 1], depth).compute();
+                } catch (RuntimeException e) {
+                    errors[i] = e;
+                    firstError.accumulateAndGet(i, Math::min);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the arithmetic expression tree with the node at the given path replaced. The path
+     * lists the indices of the operands to descend into from the root, the empty path denotes the
+     * root itself. Only the operations on the path are copied, all other subtrees are shared with
+     * the given tree, which is not changed.
+     *
+     * @param root        the root node of the arithmetic expression tree
+     * @param path        the indices of the operands leading to the node to replace
+     * @param replacement the new node
+     * @return the root node of the new arithmetic expression tree
+     * @throws NullPointerException      if the root, path or replacement is {@code null}
+     * @throws IllegalArgumentException  if the path descends into an operand
+     * @throws IndexOutOfBoundsException if an index of the path is out of range
+     */
+    public static ArithmeticExpressionNode replace(ArithmeticExpressionNode root, int[] path, ArithmeticExpressionNode replacement) {
+        Objects.requireNonNull(root, "root null");
+        Objects.requireNonNull(replacement, "replacement null");
+        final OperationExpressionNode[] nodes = new OperationExpressionNode[path.length];
+        ArithmeticExpressionNode node = root;
+        for (int i = 0; i < path.length; i++) {
+            if (!(node instanceof OperationExpressionNode o)) throw new IllegalArgumentException("Path descends into an operand");
+            node = (nodes[i] = o).getOperand(path[i]);
+        }
+        node = replacement;
+        for (int i = path.length - 1; i >= 0; i--) node = nodes[i].withOperand(path[i], node);
+        return node;
+    }
+
     /**
      * Reconstructs the string representation of the arithmetic expression tree.
      *
@@ -236,23 +545,96 @@ public final class ExpressionTreeHandler {
      */
     public static List<String> reconstruct(ArithmeticExpressionNode root) {
         final ArrayList<String> l = new ArrayList<>();
-        if (root instanceof OperationExpressionNode o) addOperator(l, o);
-        else l.add(root.toString());
+        reconstruct(root, l::add);
         return l;
     }
 
-    private static void addOperator(ArrayList<String> l, OperationExpressionNode o) {
-        l.add("(");
-        l.add(o.getOperator().getSymbol());
-        addOperands(l, o.getOperands());
+    /**
+     * Reconstructs the string representation of the arithmetic expression tree and passes the
+     * tokens to the given consumer one by one, in the order of {@link #reconstruct(ArithmeticExpressionNode)}.
+     * The tree is traversed iteratively, so the memory used is proportional to the depth of the
+     * tree and not to the number of tokens.
+     *
+     * @param root   the root node of the arithmetic expression tree
+     * @param tokens the consumer of the tokens
+     */
+    public static void reconstruct(ArithmeticExpressionNode root, Consumer<? super String> tokens) {
+        ExpressionTraversal.walk(root, new ExpressionTraversal.Listener<RuntimeException>() {
+            @Override
+            public boolean enter(OperationExpressionNode node) {
+                tokens.accept(ArithmeticExpressionNode.LEFT_BRACKET);
+                tokens.accept(node.getOperator().getSymbol());
+                return true;
+            }
+
+            @Override
+            public void operand(OperandExpressionNode node) {
+                tokens.accept(node.toString());
+            }
+
+            @Override
+            public void exit(OperationExpressionNode node) {
+                tokens.accept(ArithmeticExpressionNode.RIGHT_BRACKET);
+            }
+        });
     }
 
-    private static void addOperands(ArrayList<String> l, ListItem<ArithmeticExpressionNode> o) {
-        for (; o != null; o = o.next) {
-            final ArithmeticExpressionNode a = o.key;
-            if (a instanceof OperationExpressionNode op) addOperator(l, op);
-            else l.add(a.toString());
+    /**
+     * Writes the string representation of the arithmetic expression tree (the same as
+     * {@code root.toString()}) to the given output, for example a {@link StringBuilder},
+     * {@link java.io.Writer} or {@link java.nio.CharBuffer}. The tree is traversed iteratively
+     * and numbers are written digit by digit, so no string is created per node and the memory used
+     * is proportional to the depth of the tree and not to the length of the output.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @param out  the output
+     * @throws IOException if the output throws an exception
+     */
+    public static void write(ArithmeticExpressionNode root, Appendable out) throws IOException {
+        ExpressionTraversal.walk(root, new ExpressionTraversal.Listener<IOException>() {
+            private boolean first = true;
+
+            @Override
+            public boolean enter(OperationExpressionNode node) throws IOException {
+                separate();
+                out.append(ArithmeticExpressionNode.LEFT_BRACKET).append(node.getOperator().getSymbol());
+                return true;
+            }
+
+            @Override
+            public void operand(OperandExpressionNode node) throws IOException {
+                separate();
+                if (node instanceof LiteralExpressionNode l) l.getValue().appendTo(out);
+                else if (node instanceof IdentifierExpressionNode i) out.append(i.getValue());
+                else out.append(node.toString());
+            }
+
+            @Override
+            public void exit(OperationExpressionNode node) throws IOException {
+                out.append(ArithmeticExpressionNode.RIGHT_BRACKET);
+            }
+
+            private void separate() throws IOException {
+                if (!first) out.append(' ');
+                first = false;
+            }
+        });
+    }
+
+    /**
+     * Returns the string representation of the arithmetic expression tree written by
+     * {@link #write(ArithmeticExpressionNode, Appendable)}.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return the string representation of the arithmetic expression tree
+     */
+    static String toString(ArithmeticExpressionNode root) {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            write(root, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        l.add(")");
+        return sb.toString();
     }
 }
@@ -0,0 +1,40 @@
+package tree;
+
+import java.util.List;
+
+/**
+ * A visitor computing a result for every node of an arithmetic expression tree from the results
+ * of its operands. The nodes are visited bottom-up by {@link ExpressionTraversal#fold(ArithmeticExpressionNode, ExpressionVisitor)}
+ * (or {@link ArithmeticExpressionNode#accept(ExpressionVisitor)}) with an explicit stack, so trees
+ * of any depth can be visited.
+ *
+ * @param <R> the type of the results
+ */
+public interface ExpressionVisitor<R> {
+
+    /**
+     * Returns the result of a literal.
+     *
+     * @param node the literal
+     * @return the result of the literal
+     */
+    R visitLiteral(LiteralExpressionNode node);
+
+    /**
+     * Returns the result of an identifier.
+     *
+     * @param node the identifier
+     * @return the result of the identifier
+     */
+    R visitIdentifier(IdentifierExpressionNode node);
+
+    /**
+     * Returns the result of an operation from the results of its operands.
+     *
+     * @param node     the operation
+     * @param operands the results of the operands in the order of the operands; the list is
+     *                 unmodifiable and only valid during this call
+     * @return the result of the operation
+     */
+    R visitOperation(OperationExpressionNode node, List<R> operands);
+}
@@ -0,0 +1,323 @@
+package tree;
+
+import math.MyInteger;
+import math.MyNumber;
+import math.MyRational;
+import math.MyReal;
+import math.Rational;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Computes fingerprints of arithmetic expression trees to find trees which are equal as rational
+ * functions of their identifiers, for example {@code (* (+ x 1) (- x 1))} and
+ * {@code (- (* x x) 1)}.
+ *
+ * <p>A tree is evaluated exactly modulo several random primes of 31 bits, every identifier
+ * (including the predefined constants) replaced by a random residue which depends only on its
+ * name, the prime and the seed of the fingerprinter. Equal rational functions have equal
+ * fingerprints; different rational functions have equal fingerprints only with a probability of
+ * about {@code (d / 2^30)^k} for {@code k} primes and expressions of degree {@code d}. Grouping
+ * trees by fingerprint therefore finds the equal ones in linear time instead of comparing all
+ * pairs.
+ *
+ * <p>Only {@code +}, {@code -}, {@code *}, {@code /} and {@code expt} with a literal non-negative
+ * integer exponent can be evaluated modulo a prime. Trees containing other operators are
+ * <em>ineligible</em>, their fingerprint reports the operators and is equal only to itself. The
+ * same holds for trees dividing by a residue of 0, which happens for divisions by zero and, very
+ * rarely, by chance. Real literals are treated as the exact decimal fractions they represent.
+ *
+ * <p>Fingerprints of different fingerprinters are never equal. A fingerprinter with a fixed seed
+ * computes the same hashes in every run, so {@link Fingerprint#getHash() hashes} can be stored.
+ */
+public final class Fingerprinter {
+
+    /**
+     * The default number of primes.
+     */
+    public static final int DEFAULT_PRIMES = 2;
+
+    /**
+     * The primes, distinct and between 2^30 and 2^31.
+     */
+    private final long[] primes;
+
+    /**
+     * The seed of the residues of the identifiers.
+     */
+    private final long seed;
+
+    /**
+     * Constructs and initializes a fingerprinter with the default number of primes and a random
+     * seed.
+     */
+    public Fingerprinter() {
+        this(DEFAULT_PRIMES, new SecureRandom().nextLong());
+    }
+
+    /**
+     * Constructs and initializes a fingerprinter with the given number of primes and seed.
+     *
+     * @param primes the number of primes
+     * @param seed   the seed of the primes and the residues of the identifiers
+     * @throws IllegalArgumentException if the number of primes is not positive
+     */
+    public Fingerprinter(int primes, long seed) {
+        if (primes <= 0) throw new IllegalArgumentException("Number of primes not positive");
+        this.primes = new long[primes];
+        this.seed = seed;
+        final SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < primes; ) {
+            final long p = random.nextLong(1L << 30, 1L << 31) | 1;
+            if (BigInteger.valueOf(p).isProbablePrime(64) && Arrays.stream(this.primes, 0, i).noneMatch(q -> q == p))
+                this.primes[i++] = p;
+        }
+    }
+
+    /**
+     * Returns the fingerprint of the given tree.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return the fingerprint of the tree
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public Fingerprint fingerprint(ArithmeticExpressionNode root) {
+        final Set<Operator> ineligible = EnumSet.noneOf(Operator.class);
+        final boolean[] undefined = {false};
+        final Map<String, long[]> points = new HashMap<>();
+        final long[] residues = root.accept(new ExpressionVisitor<long[]>() {
+            @Override
+            public long[] visitLiteral(LiteralExpressionNode node) {
+                final MyNumber value = node.getValue();
+                if (!(value instanceof MyInteger || value instanceof MyRational || value instanceof MyReal)) {
+                    undefined[0] = true;
+                    return new long[primes.length];
+                }
+                final Rational r = value.toRational();
+                final long[] result = new long[primes.length];
+                for (int i = 0; i < primes.length; i++) {
+                    final BigInteger p = BigInteger.valueOf(primes[i]);
+                    result[i] = divide(r.getNumerator().mod(p).longValue(), r.getDenominator().mod(p).longValue(), i);
+                }
+                return result;
+            }
+
+            @Override
+            public long[] visitIdentifier(IdentifierExpressionNode node) {
+                return points.computeIfAbsent(node.getValue(), Fingerprinter.this::point);
+            }
+
+            @Override
+            public long[] visitOperation(OperationExpressionNode node, List<long[]> operands) {
+                final Operator operator = node.getOperator();
+                final long[] result = new long[primes.length];
+                switch (operator) {
+                    case ADD, MUL -> {
+                        for (int i = 0; i < primes.length; i++) {
+                            long r = operator == Operator.ADD ? 0 : 1;
+                            for (long[] operand : operands)
+                                r = operator == Operator.ADD ? (r + operand[i]) % primes[i] : r * operand[i] % primes[i];
+                            result[i] = r;
+                        }
+                    }
+                    case SUB, DIV -> {
+                        for (int i = 0; i < primes.length; i++) {
+                            final long p = primes[i];
+                            final boolean sub = operator == Operator.SUB;
+                            long r = sub ? 0 : 1;
+                            for (int k = 1; k < operands.size(); k++)
+                                r = sub ? (r + operands.get(k)[i]) % p : r * operands.get(k)[i] % p;
+                            final long first = operands.get(0)[i];
+                            if (operands.size() == 1) result[i] = sub ? (p - first) % p : divide(1, first, i);
+                            else result[i] = sub ? (first - r + p) % p : divide(first, r, i);
+                        }
+                    }
+                    case EXPT -> {
+                        if (node.getOperand(1) instanceof LiteralExpressionNode l && l.getValue() instanceof MyInteger
+                                && l.getValue().toInteger().signum() >= 0) {
+                            final BigInteger e = l.getValue().toInteger();
+                            for (int i = 0; i < primes.length; i++)
+                                result[i] = BigInteger.valueOf(operands.get(0)[i]).modPow(e, BigInteger.valueOf(primes[i])).longValue();
+                        } else ineligible.add(operator);
+                    }
+                    default -> ineligible.add(operator);
+                }
+                return result;
+            }
+
+            private long divide(long a, long b, int i) {
+                if (b == 0) {
+                    undefined[0] = true;
+                    return 0;
+                }
+                return a * inverse(b, primes[i]) % primes[i];
+            }
+        });
+        return new Fingerprint(this, ineligible.isEmpty() && !undefined[0] ? residues : null, ineligible, !undefined[0]);
+    }
+
+    /**
+     * Groups the given trees by their fingerprints. Every group contains the trees which are equal
+     * as rational functions with high probability; ineligible trees form groups of their own.
+     *
+     * @param trees the trees
+     * @param <T>   the type of the trees
+     * @return the groups of trees in the order of their first tree
+     */
+    public <T extends ArithmeticExpressionNode> List<List<T>> deduplicate(Collection<? extends T> trees) {
+        final Map<Fingerprint, List<T>> groups = new HashMap<>();
+        final List<List<T>> result = new ArrayList<>();
+        for (T tree : trees)
+            groups.computeIfAbsent(fingerprint(tree), f -> {
+                final List<T> group = new ArrayList<>();
+                result.add(group);
+                return group;
+            }).add(tree);
+        return result;
+    }
+
+    /**
+     * Returns the residues of the identifier with the given name.
+     *
+     * @param name the name of the identifier
+     * @return the residues of the identifier modulo the primes
+     */
+    private long[] point(String name) {
+        long h = seed;
+        for (int i = 0; i < name.length(); i++) h = mix(h + name.charAt(i));
+        final long[] point = new long[primes.length];
+        for (int i = 0; i < primes.length; i++) point[i] = Math.floorMod(h = mix(h + i), primes[i]);
+        return point;
+    }
+
+    /**
+     * Mixes the bits of the given value (the finalizer of SplitMix64).
+     *
+     * @param z the value
+     * @return the mixed value
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the inverse of the given residue modulo the given prime.
+     *
+     * @param a the residue, not 0
+     * @param p the prime
+     * @return the inverse of the residue
+     */
+    private static long inverse(long a, long p) {
+        long result = 1, base = a, e = p - 2;
+        for (; e > 0; e >>= 1, base = base * base % p) if ((e & 1) == 1) result = result * base % p;
+        return result;
+    }
+
+    /**
+     * The fingerprint of an arithmetic expression tree.
+     */
+    public static final class Fingerprint {
+
+        /**
+         * The fingerprinter which computed this fingerprint.
+         */
+        private final Fingerprinter fingerprinter;
+
+        /**
+         * The residues of the tree modulo the primes or {@code null} if the tree is ineligible.
+         */
+        private final long[] residues;
+
+        /**
+         * The operators which make the tree ineligible.
+         */
+        private final Set<Operator> ineligibleOperators;
+
+        /**
+         * {@code false} if the tree divides by a residue of 0 or contains a literal which is not
+         * rational.
+         */
+        private final boolean defined;
+
+        private Fingerprint(Fingerprinter fingerprinter, long[] residues, Set<Operator> ineligibleOperators, boolean defined) {
+            this.fingerprinter = fingerprinter;
+            this.residues = residues;
+            this.ineligibleOperators = Collections.unmodifiableSet(ineligibleOperators);
+            this.defined = defined;
+        }
+
+        /**
+         * Returns {@code true} if the tree could be evaluated modulo the primes, so this
+         * fingerprint is equal to the fingerprints of equal trees.
+         *
+         * @return {@code true} if the tree is eligible
+         */
+        public boolean isEligible() {
+            return residues != null;
+        }
+
+        /**
+         * Returns the operators which cannot be evaluated modulo a prime and make the tree
+         * ineligible.
+         *
+         * @return the operators which make the tree ineligible
+         */
+        public Set<Operator> getIneligibleOperators() {
+            return ineligibleOperators;
+        }
+
+        /**
+         * Returns {@code false} if the tree divides by a residue of 0 (usually a division by zero)
+         * or contains a literal which is not rational, which also makes the tree ineligible.
+         *
+         * @return {@code false} if the tree is undefined modulo a prime
+         */
+        public boolean isDefined() {
+            return defined;
+        }
+
+        /**
+         * Returns a hash of the residues to bucket trees by.
+         *
+         * @return a hash of the residues
+         * @throws IllegalStateException if the tree is ineligible
+         */
+        public long getHash() {
+            if (residues == null) throw new IllegalStateException("Ineligible tree");
+            long h = fingerprinter.seed;
+            for (long residue : residues) h = mix(h ^ residue);
+            return h;
+        }
+
+        @Override
+        public int hashCode() {
+            return residues == null ? System.identityHashCode(this) : Long.hashCode(getHash());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Fingerprint f) || residues == null) return false;
+            return fingerprinter == f.fingerprinter && Arrays.equals(residues, f.residues);
+        }
+
+        @Override
+        public String toString() {
+            if (residues != null) return String.format("%016x", getHash());
+            return "ineligible" + ineligibleOperators + (defined ? "" : " undefined");
+        }
+    }
+}
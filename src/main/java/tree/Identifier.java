@@ -1,26 +1,32 @@
 package tree;
 
+import math.BigDecimalMath;
+import math.ConstructiveReal;
+import math.EvaluationContext;
+import math.MyConstructiveReal;
 import math.MyNumber;
 import math.MyReal;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.function.Function;
 
 /**
- * Represents predefined identifiers (constants).
+ * Represents predefined identifiers (constants). The value of a constant is computed to the
+ * precision requested by the evaluation context and cached, so the digits are only computed once.
  */
 public enum Identifier {
 
     /**
-     * The {@code MyNumber} value that is closer than any other to <i>e</i>, the base of the natural
-     * logarithms.
+     * The {@code MyNumber} value of <i>e</i>, the base of the natural logarithms.
      */
-    E("e", new MyReal(BigDecimal.valueOf(Math.E))),
+    E("e", BigDecimalMath::e, ConstructiveReal.E),
 
     /**
-     * The {@code MyNumber} value that is closer than any other to <i>pi</i>, the ratio of the
-     * circumference of a circle to its diameter.
+     * The {@code MyNumber} value of <i>pi</i>, the ratio of the circumference of a circle to its
+     * diameter.
      */
-    PI("pi", new MyReal(BigDecimal.valueOf(Math.PI)));
+    PI("pi", BigDecimalMath::pi, ConstructiveReal.PI);
 
     /**
      * The name of this identifier.
@@ -28,19 +34,37 @@ public enum Identifier {
     private final String name;
 
     /**
-     * The value of this identifier.
+     * The computation of the value of this identifier to a given number of significant digits.
      */
-    private final MyNumber value;
+    private final Function<MathContext, BigDecimal> value;
+
+    /**
+     * The exact value of this identifier.
+     */
+    private final ConstructiveReal exact;
 
     /**
      * Constructs and initializes an identifier with the given name and value.
      *
      * @param name  the name of the identifier
-     * @param value the value of the identifier
+     * @param value the computation of the value of the identifier
+     * @param exact the exact value of the identifier
      */
-    Identifier(String name, MyNumber value) {
+    Identifier(String name, Function<MathContext, BigDecimal> value, ConstructiveReal exact) {
         this.name = name;
         this.value = value;
+        this.exact = exact;
+    }
+
+    /**
+     * Returns the predefined identifier with the given name.
+     *
+     * @param name the name of the identifier
+     * @return the predefined identifier with the given name or {@code null} if there is none
+     */
+    public static Identifier fromName(String name) {
+        for (Identifier identifier : values()) if (identifier.name.equals(name)) return identifier;
+        return null;
     }
 
     /**
@@ -58,6 +82,19 @@ public enum Identifier {
      * @return the value of this identifier
      */
     public MyNumber getValue() {
-        return value;
+        return getValue(EvaluationContext.DEFAULT);
+    }
+
+    /**
+     * Returns the value of this identifier to the scale of the given evaluation context, or its
+     * exact value if the context evaluates with exact reals.
+     *
+     * @param context the evaluation context
+     * @return the value of this identifier
+     */
+    public MyNumber getValue(EvaluationContext context) {
+        if (context.isExact()) return new MyConstructiveReal(exact, context);
+        final MathContext mc = new MathContext(context.getScale() + 1, context.getRoundingMode());
+        return new MyReal(value.apply(mc), context);
     }
 }
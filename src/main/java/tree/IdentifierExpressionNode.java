@@ -2,6 +2,7 @@ package tree;
 
 import exception.IllegalIdentifierExceptions;
 import exception.UndefinedIdentifierException;
+import math.EvaluationContext;
 import math.MyNumber;
 
 import java.util.Map;
@@ -9,14 +10,19 @@ import java.util.Objects;
 
 /**
  * This class represents an identifier operand arithmetic expression node. An identifier operand is
- * a variable name.
+ * a variable name. Identifier nodes are immutable.
  */
-public class IdentifierExpressionNode extends OperandExpressionNode {
+public final class IdentifierExpressionNode extends OperandExpressionNode {
     /**
      * The identifier name.
      */
     private final String value;
 
+    /**
+     * The predefined identifier (constant) with this name or {@code null} if it is a variable.
+     */
+    private final Identifier constant;
+
     /**
      * Constructs and initializes an identifier expression node with the given value.
      *
@@ -41,10 +47,7 @@ public class IdentifierExpressionNode extends OperandExpressionNode {
         }
         if (!b) throw new IllegalIdentifierExceptions(value);
         this.value = value;
-    }
-
-    private IdentifierExpressionNode(String s, boolean ignored) {
-        value = s;
+        constant = Identifier.fromName(value);
     }
 
     private static boolean b(char c) {
@@ -60,18 +63,26 @@ public class IdentifierExpressionNode extends OperandExpressionNode {
         return value;
     }
 
+    /**
+     * Returns the predefined identifier (constant) with this name.
+     *
+     * @return the predefined identifier with this name or {@code null} if it is a variable
+     */
+    public Identifier getConstant() {
+        return constant;
+    }
+
     @Override
-    public MyNumber evaluate(Map<String, MyNumber> identifiers) {
-        if (value.equals(Identifier.E.getName()) || value.equals(Identifier.PI.getName()))
-            throw new IllegalIdentifierExceptions(value);
+    public MyNumber evaluate(Map<String, MyNumber> identifiers, EvaluationContext context) {
+        if (constant != null) return constant.getValue(context);
         final MyNumber n;
         if ((n = identifiers.get(value)) == null) throw new UndefinedIdentifierException(value);
-        return n;
+        return context.identifier(n);
     }
 
     @Override
     public ArithmeticExpressionNode clone() {
-        return new IdentifierExpressionNode(value, false);
+        return this;
     }
 
     @Override
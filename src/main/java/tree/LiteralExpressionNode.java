@@ -2,16 +2,14 @@ package tree;
 
 import math.*;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.Map;
 import java.util.Objects;
 
 /**
  * This class represents a literal operand arithmetic expression node. A literal operand is a {@link
- * MyNumber}.
+ * MyNumber}. Literal nodes are immutable.
  */
-public class LiteralExpressionNode extends OperandExpressionNode {
+public final class LiteralExpressionNode extends OperandExpressionNode {
 
     /**
      * The literal operand.
@@ -29,10 +27,6 @@ public class LiteralExpressionNode extends OperandExpressionNode {
         this.value = Objects.requireNonNull(value, "value null");
     }
 
-    private LiteralExpressionNode(MyNumber n, boolean ignored) {
-        value = n;
-    }
-
     /**
      * Returns the literal operand.
      *
@@ -43,20 +37,13 @@ public class LiteralExpressionNode extends OperandExpressionNode {
     }
 
     @Override
-    public MyNumber evaluate(Map<String, MyNumber> identifiers) {
-        return value;
+    public MyNumber evaluate(Map<String, MyNumber> identifiers, EvaluationContext context) {
+        return context.operand(value);
     }
 
     @Override
     public ArithmeticExpressionNode clone() {
-        final MyNumber n;
-        if (value instanceof MyInteger) n = new MyInteger(new BigInteger(String.valueOf(value.toInteger())));
-        else if (value instanceof MyReal) n = new MyReal(new BigDecimal(String.valueOf(value.toReal())));
-        else {
-            final Rational r = value.toRational();
-            n = new MyRational(new Rational(new BigInteger(String.valueOf(r.getNumerator())), new BigInteger(String.valueOf(r.getDenominator()))));
-        }
-        return new LiteralExpressionNode(n, false);
+        return this;
     }
 
     @Override
@@ -1,17 +1,33 @@
 package tree;
 
 import exception.WrongNumberOfOperandsException;
+import math.EvaluationContext;
 import math.MyInteger;
 import math.MyNumber;
+import math.NumericTower;
+import math.ProductAccumulator;
+import math.SumAccumulator;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 /**
  * This class represents an operation arithmetic expression node. An operation expression node
- * contains and operator followed by n operands depending on its arity.
+ * contains and operator followed by n operands depending on its arity. The operands are stored
+ * in an array, so their number and each operand by index are available in constant time.
+ *
+ * <p>Operation nodes are immutable. Changed trees are derived by path copying: only the nodes on
+ * the path to a change are copied, all other subtrees are shared with the original tree.
  */
-public class OperationExpressionNode implements ArithmeticExpressionNode {
+public final class OperationExpressionNode implements ArithmeticExpressionNode {
+
+    /**
+     * The empty operand array shared by all operation nodes without operands.
+     */
+    private static final ArithmeticExpressionNode[] NO_OPERANDS = new ArithmeticExpressionNode[0];
 
     /**
      * The operator of this node.
@@ -19,40 +35,90 @@ public class OperationExpressionNode implements ArithmeticExpressionNode {
     private final Operator operator;
 
     /**
-     * The operands of this node.
+     * The operands of this node. Apart from the shared empty array {@link #NO_OPERANDS}, the array
+     * is never shared with or exposed to other objects.
      */
-    private final ListItem<ArithmeticExpressionNode> operands;
+    private final ArithmeticExpressionNode[] operands;
 
     /**
      * Contracts and initializes an operation expression node with the given operator and operands.
      *
      * @param operator the operator of this node
      * @param operands the operands of this node
-     * @throws NullPointerException if the operator is {@code null}
+     * @throws NullPointerException           if the operator, the array or an operand is {@code null}
+     * @throws WrongNumberOfOperandsException if the number of operands does not match the arity of
+     *                                        the operator
+     */
+    public OperationExpressionNode(Operator operator, ArithmeticExpressionNode... operands) {
+        this(operator, operands.length == 0 ? NO_OPERANDS : operands.clone(), true);
+    }
+
+    /**
+     * Contracts and initializes an operation expression node with the given operator and operands.
+     *
+     * @param operator the operator of this node
+     * @param operands the operands of this node
+     * @throws NullPointerException           if the operator, the list or an operand is {@code null}
+     * @throws WrongNumberOfOperandsException if the number of operands does not match the arity of
+     *                                        the operator
+     */
+    public OperationExpressionNode(Operator operator, List<? extends ArithmeticExpressionNode> operands) {
+        this(operator, operands.isEmpty() ? NO_OPERANDS : operands.toArray(NO_OPERANDS), true);
+    }
+
+    /**
+     * Contracts and initializes an operation expression node with the given operator and operands.
+     * The operands are copied from the list, later changes to the list do not affect this node.
+     *
+     * @param operator the operator of this node
+     * @param operands the operands of this node or {@code null} if it has no operands
+     * @throws NullPointerException           if the operator or an operand is {@code null}
+     * @throws WrongNumberOfOperandsException if the number of operands does not match the arity of
+     *                                        the operator
+     * @deprecated use {@link #OperationExpressionNode(Operator, ArithmeticExpressionNode...)} or
+     * {@link #OperationExpressionNode(Operator, List)}
      */
+    @Deprecated
     public OperationExpressionNode(Operator operator, ListItem<ArithmeticExpressionNode> operands) {
-        Objects.requireNonNull(operator, "operator null");
-        final int sequenceLength = ListItem.getSequenceLength(operands);
-        switch (operator.getSymbol()) {
-            case "+", "*" -> {
-            }
-            case "-", "/" -> {
-                if (sequenceLength == 0) throw new WrongNumberOfOperandsException(0, 1, Integer.MAX_VALUE);
-            }
-            case "ln", "exp", "sqrt" -> {
-                if (sequenceLength != 1) throw new WrongNumberOfOperandsException(sequenceLength, 1, 1);
-            }
-            case "expt", "log" -> {
-                if (sequenceLength != 2) throw new WrongNumberOfOperandsException(sequenceLength, 2, 2);
+        this(operator, toArray(operands), true);
+    }
+
+    /**
+     * Contracts and initializes an operation expression node with the given operator and operands,
+     * checking the operands if {@code checked} is {@code true}. The array is used as is.
+     *
+     * @param operator the operator of this node
+     * @param operands the operands of this node
+     * @param checked  {@code true} to check the operator and operands
+     */
+    private OperationExpressionNode(Operator operator, ArithmeticExpressionNode[] operands, boolean checked) {
+        if (checked) {
+            Objects.requireNonNull(operator, "operator null");
+            for (ArithmeticExpressionNode operand : operands) Objects.requireNonNull(operand, "operand null");
+            switch (operator.getSymbol()) {
+                case "+", "*" -> {
+                }
+                case "-", "/" -> {
+                    if (operands.length == 0) throw new WrongNumberOfOperandsException(0, 1, Integer.MAX_VALUE);
+                }
+                case "ln", "exp", "sqrt" -> {
+                    if (operands.length != 1) throw new WrongNumberOfOperandsException(operands.length, 1, 1);
+                }
+                case "expt", "log" -> {
+                    if (operands.length != 2) throw new WrongNumberOfOperandsException(operands.length, 2, 2);
+                }
             }
         }
         this.operator = operator;
         this.operands = operands;
     }
 
-    private OperationExpressionNode(Operator o, ListItem<ArithmeticExpressionNode> op, boolean ignored) {
-        operator = o;
-        operands = op;
+    private static ArithmeticExpressionNode[] toArray(ListItem<ArithmeticExpressionNode> l) {
+        final int length = ListItem.getSequenceLength(l);
+        if (length == 0) return NO_OPERANDS;
+        final ArithmeticExpressionNode[] a = new ArithmeticExpressionNode[length];
+        for (int i = 0; l != null; l = l.next) a[i++] = l.key;
+        return a;
     }
 
     /**
@@ -65,44 +131,136 @@ public class OperationExpressionNode implements ArithmeticExpressionNode {
     }
 
     /**
-     * Returns the operands of this node.
+     * Returns the number of operands of this node.
+     *
+     * @return the number of operands of this node
+     */
+    public int getOperandCount() {
+        return operands.length;
+    }
+
+    /**
+     * Returns the operand of this node at the given index.
+     *
+     * @param index the index of the operand
+     * @return the operand at the given index
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public ArithmeticExpressionNode getOperand(int index) {
+        return operands[Objects.checkIndex(index, operands.length)];
+    }
+
+    /**
+     * Returns an unmodifiable view of the operands of this node.
      *
      * @return the operands of this node
      */
+    public List<ArithmeticExpressionNode> getOperandList() {
+        return Collections.unmodifiableList(Arrays.asList(operands));
+    }
+
+    /**
+     * Returns a node with the given operand at the given index and the operator and all other
+     * operands of this node. This node is not changed, the new node shares its other operands.
+     *
+     * @param index   the index of the operand to replace
+     * @param operand the new operand
+     * @return the new node
+     * @throws NullPointerException      if the operand is {@code null}
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public OperationExpressionNode withOperand(int index, ArithmeticExpressionNode operand) {
+        Objects.requireNonNull(operand, "operand null");
+        if (operands[Objects.checkIndex(index, operands.length)] == operand) return this;
+        final ArithmeticExpressionNode[] a = operands.clone();
+        a[index] = operand;
+        return new OperationExpressionNode(operator, a, false);
+    }
+
+    /**
+     * Returns a node with the given operator and the operands of this node. This node is not
+     * changed, the new node shares its operands.
+     *
+     * @param operator the new operator
+     * @return the new node
+     * @throws NullPointerException           if the operator is {@code null}
+     * @throws WrongNumberOfOperandsException if the number of operands does not match the arity of
+     *                                        the operator
+     */
+    public OperationExpressionNode withOperator(Operator operator) {
+        return operator == this.operator ? this : new OperationExpressionNode(operator, operands, true);
+    }
+
+    /**
+     * Returns the operands of this node as a new linked list. Changes to the list do not affect
+     * this node.
+     *
+     * @return the operands of this node or {@code null} if it has no operands
+     * @deprecated use {@link #getOperandCount()} and {@link #getOperand(int)} or
+     * {@link #getOperandList()}, which do not copy the operands
+     */
+    @Deprecated
     public ListItem<ArithmeticExpressionNode> getOperands() {
-        return operands;
+        ListItem<ArithmeticExpressionNode> l = null;
+        for (int i = operands.length - 1; i >= 0; i--) {
+            final ListItem<ArithmeticExpressionNode> item = new ListItem<>(operands[i]);
+            item.next = l;
+            l = item;
+        }
+        return l;
     }
 
     @SuppressWarnings("all")
     @Override
-    public MyNumber evaluate(Map<String, MyNumber> identifiers) {
+    public MyNumber evaluate(Map<String, MyNumber> identifiers, EvaluationContext context) {
+        if (context.isDeferred()) return context.round(evaluate(identifiers, context.intermediate()));
+        final MyNumber[] values = new MyNumber[operands.length];
+        for (int i = 0; i < values.length; i++) values[i] = operands[i].evaluate(identifiers, context);
+        return apply(operator, values, 0, values.length, context);
+    }
+
+    /**
+     * Applies the operator to the values of its operands, which have already been evaluated in the
+     * given context. The values are read from a range of an array, so the values of several
+     * operations can share one stack.
+     *
+     * @param operator the operator
+     * @param values   the array containing the values of the operands
+     * @param from     the index of the value of the first operand (inclusive)
+     * @param to       the index of the value of the last operand (exclusive)
+     * @param context  the evaluation context
+     * @return the result of the operation
+     */
+    static MyNumber apply(Operator operator, MyNumber[] values, int from, int to, EvaluationContext context) {
         final String symbol = operator.getSymbol();
-        if (operands == null) return symbol.equals("+") ? MyInteger.ZERO : MyInteger.ONE;
-        final MyNumber n = operands.key.evaluate(identifiers);
-        final ListItem<ArithmeticExpressionNode> next = operands.next;
+        if (from == to) return context.operand(symbol.equals("+") ? MyInteger.ZERO : MyInteger.ONE);
+        if (symbol.equals("+")) return add(values, from, to, context);
+        if (symbol.equals("*")) return multiply(values, from, to, context);
+        final MyNumber n = values[from];
+        final boolean unary = to - from == 1;
         return switch (symbol) {
-            case "+" -> addRecursively(identifiers, operands);
-            case "*" -> multiplyRecursively(identifiers, operands);
-            case "-" -> next == null ? n.minus() : n.minus(addRecursively(identifiers, next));
-            case "/" -> next == null ? n.divide() : n.divide(multiplyRecursively(identifiers, next));
-            case "exp" -> n.exp();
-            case "expt" -> n.expt(next.key.evaluate(identifiers));
-            case "ln" -> n.ln();
-            case "log" -> n.log(next.key.evaluate(identifiers));
-            default -> n.sqrt();
+            case "-" -> unary ? n.minus() : NumericTower.minus(n, add(values, from + 1, to, context), context);
+            case "/" -> unary ? n.divide(context) : NumericTower.divide(n, multiply(values, from + 1, to, context), context);
+            case "exp" -> n.exp(context);
+            case "expt" -> n.expt(values[from + 1], context);
+            case "ln" -> n.ln(context);
+            case "log" -> n.log(values[from + 1], context);
+            default -> n.sqrt(context);
         };
     }
 
-    private MyNumber addRecursively(Map<String, MyNumber> i, ListItem<ArithmeticExpressionNode> o) {
-        final MyNumber n = o.key.evaluate(i);
-        final ListItem<ArithmeticExpressionNode> next = o.next;
-        return next == null ? n : n.plus(addRecursively(i, next));
+    private static MyNumber add(MyNumber[] values, int from, int to, EvaluationContext c) {
+        if (to - from == 1) return values[from];
+        final SumAccumulator sum = new SumAccumulator(c);
+        for (int i = to - 1; i >= from; i--) sum.add(values[i]);
+        return sum.result();
     }
 
-    private MyNumber multiplyRecursively(Map<String, MyNumber> i, ListItem<ArithmeticExpressionNode> o) {
-        final MyNumber n = o.key.evaluate(i);
-        final ListItem<ArithmeticExpressionNode> next = o.next;
-        return next == null ? n : n.times(multiplyRecursively(i, next));
+    private static MyNumber multiply(MyNumber[] values, int from, int to, EvaluationContext c) {
+        if (to - from == 1) return values[from];
+        final ProductAccumulator product = new ProductAccumulator(c);
+        for (int i = to - 1; i >= from; i--) product.multiply(values[i]);
+        return product.result();
     }
 
     @Override
@@ -115,25 +273,13 @@ public class OperationExpressionNode implements ArithmeticExpressionNode {
         return true;
     }
 
-    @SuppressWarnings("all")
     @Override
     public ArithmeticExpressionNode clone() {
-        final Operator o = Operator.valueOf(operator.name());
-        if (operands == null) return new OperationExpressionNode(o, null, false);
-        final ListItem<ArithmeticExpressionNode> l = new ListItem<>(operands.key.clone());
-        for (ListItem<ArithmeticExpressionNode> p1 = l, p2 = operands.next; p2 != null; p2 = p2.next)
-            p1 = p1.next = new ListItem<>(p2.key.clone());
-        return new OperationExpressionNode(o, l, false);
+        return this;
     }
 
     @Override
     public String toString() {
-        final StringBuilder sb = new StringBuilder();
-        sb.append(LEFT_BRACKET);
-        sb.append(operator);
-        for (ListItem<ArithmeticExpressionNode> node = operands; node != null; node = node.next)
-            sb.append(" ").append(node.key);
-        sb.append(RIGHT_BRACKET);
-        return sb.toString();
+        return ExpressionTreeHandler.toString(this);
     }
 }
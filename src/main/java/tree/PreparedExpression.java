@@ -0,0 +1,356 @@
+package tree;
+
+import exception.UndefinedIdentifierException;
+import math.EvaluationContext;
+import math.MyNumber;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An arithmetic expression compiled once into a postfix program and shared by any number of
+ * threads. A prepared expression is immutable and thread-safe; the values of the identifiers and
+ * the stack of intermediate values live in a {@link Scope}, which every thread creates once and
+ * reuses for all its evaluations:
+ *
+ * <pre>{@code
+ * PreparedExpression expression = new PreparedExpression(root);
+ * ThreadLocal<PreparedExpression.Scope> scopes = ThreadLocal.withInitial(expression::newScope);
+ * ...
+ * PreparedExpression.Scope scope = scopes.get().bind("x", x).bind("y", y);
+ * MyNumber result = expression.evaluate(scope, context);
+ * }</pre>
+ *
+ * <p>The identifiers which are not predefined constants are numbered by slots in the order of
+ * their first occurrence, so a scope binds them without hashing their names. An evaluation
+ * allocates nothing but the numbers it computes and takes no lock. The results are equal to the
+ * results of {@link ArithmeticExpressionNode#evaluate(Map, EvaluationContext)}.
+ */
+public final class PreparedExpression {
+
+    /**
+     * The kinds of the instructions.
+     */
+    private static final byte LITERAL = 0, IDENTIFIER = 1, CONSTANT = 2, OPERATION = 3;
+
+    /**
+     * The operators indexed by their ordinal.
+     */
+    private static final Operator[] OPERATORS = Operator.values();
+
+    /**
+     * The constants indexed by their ordinal.
+     */
+    private static final Identifier[] CONSTANTS = Identifier.values();
+
+    /**
+     * The root node of the expression.
+     */
+    private final ArithmeticExpressionNode root;
+
+    /**
+     * The kind of every instruction.
+     */
+    private final byte[] kinds;
+
+    /**
+     * The argument of every instruction: the index of a literal, the slot of an identifier, the
+     * ordinal of a constant or the ordinal of the operator and the number of operands of an
+     * operation (in the upper bits).
+     */
+    private final long[] arguments;
+
+    /**
+     * The literals of the expression.
+     */
+    private final MyNumber[] literals;
+
+    /**
+     * The names of the identifiers by slot.
+     */
+    private final String[] identifiers;
+
+    /**
+     * The slots of the identifiers by name.
+     */
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    /**
+     * The maximum size of the stack of intermediate values.
+     */
+    private final int maxStack;
+
+    /**
+     * Compiles the given arithmetic expression tree. The tree is traversed iteratively, so it may
+     * be of any depth.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @throws NullPointerException if the root is {@code null}
+     */
+    public PreparedExpression(ArithmeticExpressionNode root) {
+        this.root = Objects.requireNonNull(root, "root null");
+        final List<MyNumber> literals = new ArrayList<>();
+        final List<String> identifiers = new ArrayList<>();
+        byte[] kinds = new byte[16];
+        long[] arguments = new long[16];
+        int size = 0, depth = 0, maxStack = 0;
+        for (Iterator<ArithmeticExpressionNode> i = ExpressionTraversal.postOrder(root); i.hasNext(); size++) {
+            final ArithmeticExpressionNode node = i.next();
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                arguments = Arrays.copyOf(arguments, size * 2);
+            }
+            if (node instanceof OperationExpressionNode o) {
+                kinds[size] = OPERATION;
+                arguments[size] = (long) o.getOperandCount() << 8 | o.getOperator().ordinal();
+                depth -= o.getOperandCount();
+            } else if (node instanceof IdentifierExpressionNode id) {
+                if (id.getConstant() != null) {
+                    kinds[size] = CONSTANT;
+                    arguments[size] = id.getConstant().ordinal();
+                } else {
+                    kinds[size] = IDENTIFIER;
+                    arguments[size] = slots.computeIfAbsent(id.getValue(), name -> {
+                        identifiers.add(name);
+                        return identifiers.size() - 1;
+                    });
+                }
+            } else {
+                kinds[size] = LITERAL;
+                arguments[size] = literals.size();
+                literals.add(((LiteralExpressionNode) node).getValue());
+            }
+            maxStack = Math.max(maxStack, ++depth);
+        }
+        this.kinds = Arrays.copyOf(kinds, size);
+        this.arguments = Arrays.copyOf(arguments, size);
+        this.literals = literals.toArray(new MyNumber[0]);
+        this.identifiers = identifiers.toArray(new String[0]);
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * Returns the root node of the expression.
+     *
+     * @return the root node of the expression
+     */
+    public ArithmeticExpressionNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the number of identifiers of the expression which are not constants.
+     *
+     * @return the number of identifiers
+     */
+    public int getIdentifierCount() {
+        return identifiers.length;
+    }
+
+    /**
+     * Returns the name of the identifier in the given slot.
+     *
+     * @param slot the slot
+     * @return the name of the identifier
+     * @throws IndexOutOfBoundsException if the slot is out of range
+     */
+    public String getIdentifier(int slot) {
+        return identifiers[Objects.checkIndex(slot, identifiers.length)];
+    }
+
+    /**
+     * Returns the slot of the identifier with the given name.
+     *
+     * @param name the name of the identifier
+     * @return the slot of the identifier or -1 if the expression contains no such identifier (or
+     * the identifier is a constant)
+     */
+    public int getSlot(String name) {
+        final Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Returns a new scope for evaluations of this expression, with all identifiers unbound.
+     *
+     * @return a new scope
+     */
+    public Scope newScope() {
+        return new Scope(this);
+    }
+
+    /**
+     * Evaluates this expression with the values of the identifiers bound in the given scope.
+     *
+     * @param scope   the scope of this expression
+     * @param context the evaluation context
+     * @return the value of this expression
+     * @throws NullPointerException         if an argument is {@code null}
+     * @throws IllegalArgumentException     if the scope belongs to another expression
+     * @throws UndefinedIdentifierException if an identifier is not bound
+     */
+    public MyNumber evaluate(Scope scope, EvaluationContext context) {
+        if (Objects.requireNonNull(scope, "scope null").expression != this)
+            throw new IllegalArgumentException("Scope of another expression");
+        if (context.isDeferred() && root instanceof OperationExpressionNode)
+            return context.round(run(scope, context.intermediate()));
+        return run(scope, context);
+    }
+
+    /**
+     * Evaluates this expression with the given values of the identifiers in a new scope.
+     *
+     * @param identifiers the values of the identifiers
+     * @param context     the evaluation context
+     * @return the value of this expression
+     * @throws NullPointerException         if an argument is {@code null}
+     * @throws UndefinedIdentifierException if an identifier is not defined
+     */
+    public MyNumber evaluate(Map<String, MyNumber> identifiers, EvaluationContext context) {
+        return evaluate(newScope().bindAll(identifiers), context);
+    }
+
+    /**
+     * Runs the program of this expression.
+     *
+     * @param scope   the scope
+     * @param context the evaluation context
+     * @return the value of this expression
+     */
+    private MyNumber run(Scope scope, EvaluationContext context) {
+        final MyNumber[] stack = scope.stack;
+        try {
+            int top = 0;
+            for (int pc = 0; pc < kinds.length; pc++) {
+                final long argument = arguments[pc];
+                switch (kinds[pc]) {
+                    case LITERAL -> stack[top++] = context.operand(literals[(int) argument]);
+                    case IDENTIFIER -> {
+                        final MyNumber value = scope.values[(int) argument];
+                        if (value == null) throw new UndefinedIdentifierException(identifiers[(int) argument]);
+                        stack[top++] = context.identifier(value);
+                    }
+                    case CONSTANT -> stack[top++] = CONSTANTS[(int) argument].getValue(context);
+                    default -> {
+                        final int from = top - (int) (argument >>> 8);
+                        final MyNumber result = OperationExpressionNode.apply(OPERATORS[(int) argument & 0xff], stack, from, top, context);
+                        stack[from] = result;
+                        top = from + 1;
+                    }
+                }
+            }
+            return stack[0];
+        } finally {
+            Arrays.fill(stack, null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    /**
+     * The values of the identifiers and the stack of intermediate values of the evaluations of a
+     * prepared expression. A scope is not thread-safe, every thread uses its own scope. Bindings
+     * stay in place between evaluations until they are changed or cleared.
+     */
+    public static final class Scope {
+
+        /**
+         * The expression of this scope.
+         */
+        private final PreparedExpression expression;
+
+        /**
+         * The values of the identifiers by slot.
+         */
+        private final MyNumber[] values;
+
+        /**
+         * The stack of intermediate values.
+         */
+        private final MyNumber[] stack;
+
+        private Scope(PreparedExpression expression) {
+            this.expression = expression;
+            this.values = new MyNumber[expression.identifiers.length];
+            this.stack = new MyNumber[Math.max(expression.maxStack, 1)];
+        }
+
+        /**
+         * Returns the expression of this scope.
+         *
+         * @return the expression of this scope
+         */
+        public PreparedExpression getExpression() {
+            return expression;
+        }
+
+        /**
+         * Returns the value bound to the identifier in the given slot.
+         *
+         * @param slot the slot of the identifier
+         * @return the value or {@code null} if the identifier is not bound
+         * @throws IndexOutOfBoundsException if the slot is out of range
+         */
+        public MyNumber get(int slot) {
+            return values[Objects.checkIndex(slot, values.length)];
+        }
+
+        /**
+         * Binds the identifier in the given slot to the given value.
+         *
+         * @param slot  the slot of the identifier
+         * @param value the value or {@code null} to unbind the identifier
+         * @return this scope
+         * @throws IndexOutOfBoundsException if the slot is out of range
+         */
+        public Scope bind(int slot, MyNumber value) {
+            values[Objects.checkIndex(slot, values.length)] = value;
+            return this;
+        }
+
+        /**
+         * Binds the identifier with the given name to the given value. Names which are not
+         * identifiers of the expression are ignored.
+         *
+         * @param name  the name of the identifier
+         * @param value the value or {@code null} to unbind the identifier
+         * @return this scope
+         */
+        public Scope bind(String name, MyNumber value) {
+            final int slot = expression.getSlot(name);
+            if (slot >= 0) values[slot] = value;
+            return this;
+        }
+
+        /**
+         * Binds every identifier to its value in the given map, or unbinds it if the map contains
+         * no value.
+         *
+         * @param identifiers the values of the identifiers
+         * @return this scope
+         * @throws NullPointerException if the map is {@code null}
+         */
+        public Scope bindAll(Map<String, ? extends MyNumber> identifiers) {
+            for (int i = 0; i < values.length; i++) values[i] = identifiers.get(expression.identifiers[i]);
+            return this;
+        }
+
+        /**
+         * Unbinds all identifiers.
+         *
+         * @return this scope
+         */
+        public Scope clear() {
+            Arrays.fill(values, null);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package tree;
+
+import exception.UndefinedIdentifierException;
+import math.EvaluationContext;
+import math.MyInteger;
+import math.MyNumber;
+import math.MyRational;
+import math.MyReal;
+import math.Rational;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An opt-in cache of the results of {@link PreparedExpression prepared expressions}. A result is
+ * keyed on the prepared expression (by identity), the evaluation context and the values of the
+ * identifiers the expression uses, so bindings of other identifiers do not matter.
+ *
+ * <p>Values are compared by their exact value and kind: an integer and a rational number are equal
+ * if they have the same value, for example {@code 2} and {@code 2/1}, since evaluation normalizes
+ * both to the integer (see {@link EvaluationContext#identifier(MyNumber)}), while a real number is
+ * only equal to a real number of the same value, since evaluating with a real number rounds.
+ * Values which are constructive reals are never cached, they are evaluated every time.
+ *
+ * <p>The cache is split into stripes of their own lock, chosen by the hash of the key, so
+ * threads working on different keys rarely contend. Every stripe holds at most its share of the
+ * maximum number of entries and of the maximum weight, the approximate size of the numbers of an
+ * entry in bytes. When a stripe is full, the entry with the lowest evaluation time among its
+ * {@value #SAMPLE} least recently used entries is evicted, so expensive results survive longer
+ * than cheap ones. Concurrent misses of the same key may evaluate it more than once.
+ */
+public final class ResultCache {
+
+    /**
+     * The default number of stripes.
+     */
+    public static final int DEFAULT_STRIPES = 16;
+
+    /**
+     * The number of least recently used entries among which the cheapest one is evicted.
+     */
+    private static final int SAMPLE = 4;
+
+    /**
+     * The weight of an entry without its numbers.
+     */
+    private static final long ENTRY_WEIGHT = 96;
+
+    /**
+     * The stripes.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * The maximum number of entries of a stripe.
+     */
+    private final long maxEntries;
+
+    /**
+     * The maximum weight of a stripe.
+     */
+    private final long maxWeight;
+
+    /**
+     * The metrics.
+     */
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder(),
+            uncacheable = new LongAdder(), evaluationTime = new LongAdder();
+
+    /**
+     * Constructs and initializes a cache with the default number of stripes.
+     *
+     * @param maxEntries the maximum number of entries
+     * @param maxWeight  the maximum weight of the entries in bytes
+     * @throws IllegalArgumentException if a maximum is not positive
+     */
+    public ResultCache(long maxEntries, long maxWeight) {
+        this(maxEntries, maxWeight, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructs and initializes a cache with the given number of stripes. The maxima are divided
+     * evenly between the stripes.
+     *
+     * @param maxEntries the maximum number of entries
+     * @param maxWeight  the maximum weight of the entries in bytes
+     * @param stripes    the number of stripes, rounded up to a power of two
+     * @throws IllegalArgumentException if an argument is not positive
+     */
+    public ResultCache(long maxEntries, long maxWeight, int stripes) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("Maximum number of entries not positive");
+        if (maxWeight <= 0) throw new IllegalArgumentException("Maximum weight not positive");
+        if (stripes <= 0 || stripes > 1 << 16) throw new IllegalArgumentException("Number of stripes out of range");
+        final int n = Integer.highestOneBit(stripes) == stripes ? stripes : Integer.highestOneBit(stripes) << 1;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) this.stripes[i] = new Stripe();
+        this.maxEntries = Math.max(1, maxEntries / n);
+        this.maxWeight = Math.max(1, maxWeight / n);
+    }
+
+    /**
+     * Returns the result of the expression with the values bound in the given scope, from the
+     * cache if possible.
+     *
+     * @param scope   the scope of the expression
+     * @param context the evaluation context
+     * @return the result of the expression
+     * @throws NullPointerException         if an argument is {@code null}
+     * @throws UndefinedIdentifierException if an identifier is not bound
+     */
+    public MyNumber evaluate(PreparedExpression.Scope scope, EvaluationContext context) {
+        final PreparedExpression expression = scope.getExpression();
+        final Key key = key(expression, scope, Objects.requireNonNull(context, "context null"));
+        if (key == null) {
+            uncacheable.increment();
+            return expression.evaluate(scope, context);
+        }
+        final Stripe stripe = stripes[key.hash & (stripes.length - 1)];
+        synchronized (stripe) {
+            final Entry entry = stripe.entries.get(key);
+            if (entry != null) {
+                hits.increment();
+                return entry.result;
+            }
+        }
+        misses.increment();
+        final long start = System.nanoTime();
+        final MyNumber result = expression.evaluate(scope, context);
+        final long cost = System.nanoTime() - start;
+        evaluationTime.add(cost);
+        final Entry entry = new Entry(result, cost, key.weight + weigh(result));
+        synchronized (stripe) {
+            if (stripe.entries.putIfAbsent(key, entry) == null) {
+                stripe.weight += entry.weight;
+                evict(stripe);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the result of the expression with the given values of the identifiers, from the
+     * cache if possible.
+     *
+     * @param expression  the expression
+     * @param identifiers the values of the identifiers
+     * @param context     the evaluation context
+     * @return the result of the expression
+     * @throws NullPointerException         if an argument is {@code null}
+     * @throws UndefinedIdentifierException if an identifier is not defined
+     */
+    public MyNumber evaluate(PreparedExpression expression, Map<String, MyNumber> identifiers, EvaluationContext context) {
+        return evaluate(expression.newScope().bindAll(identifiers), context);
+    }
+
+    /**
+     * Returns the key of an evaluation.
+     *
+     * @return the key or {@code null} if the evaluation cannot be cached
+     */
+    private static Key key(PreparedExpression expression, PreparedExpression.Scope scope, EvaluationContext context) {
+        final Object[] values = new Object[expression.getIdentifierCount()];
+        long weight = ENTRY_WEIGHT;
+        for (int i = 0; i < values.length; i++) {
+            final MyNumber value = scope.get(i);
+            if (value instanceof MyInteger || value instanceof MyRational) values[i] = value.toRational();
+            else if (value instanceof MyReal || value == null) values[i] = value;
+            else return null;
+            weight += weigh(value);
+        }
+        return new Key(expression, context, values, weight);
+    }
+
+    /**
+     * Returns the approximate size of a number in bytes.
+     *
+     * @param n the number
+     * @return the approximate size of the number
+     */
+    private static long weigh(MyNumber n) {
+        if (n instanceof MyInteger) return 32 + n.toInteger().bitLength() / 8;
+        if (n instanceof MyRational) {
+            final Rational r = n.toRational();
+            return 64 + (r.getNumerator().bitLength() + r.getDenominator().bitLength()) / 8;
+        }
+        if (n instanceof MyReal) return 48 + n.toReal().unscaledValue().bitLength() / 8;
+        return n == null ? 0 : 64;
+    }
+
+    /**
+     * Evicts entries of a stripe until it is within its maxima.
+     *
+     * @param stripe the stripe, locked by the caller
+     */
+    private void evict(Stripe stripe) {
+        while (stripe.entries.size() > maxEntries || stripe.weight > maxWeight && !stripe.entries.isEmpty()) {
+            final Iterator<Map.Entry<Key, Entry>> i = stripe.entries.entrySet().iterator();
+            Map.Entry<Key, Entry> victim = i.next();
+            for (int k = 1; k < SAMPLE && i.hasNext(); k++) {
+                final Map.Entry<Key, Entry> e = i.next();
+                if (e.getValue().cost < victim.getValue().cost) victim = e;
+            }
+            stripe.entries.remove(victim.getKey());
+            stripe.weight -= victim.getValue().weight;
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                stripe.entries.clear();
+                stripe.weight = 0;
+            }
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        return size;
+    }
+
+    /**
+     * Returns the weight of the entries in bytes.
+     *
+     * @return the weight of the entries
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                weight += stripe.weight;
+            }
+        return weight;
+    }
+
+    /**
+     * Returns the number of evaluations answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of evaluations not found in the cache, excluding those which cannot be
+     * cached.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of evicted entries.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of evaluations which could not be cached since a value is a constructive
+     * real.
+     *
+     * @return the number of evaluations which could not be cached
+     */
+    public long getUncacheableCount() {
+        return uncacheable.sum();
+    }
+
+    /**
+     * Returns the total time of the evaluations of misses in nanoseconds.
+     *
+     * @return the total time of the evaluations of misses
+     */
+    public long getEvaluationTime() {
+        return evaluationTime.sum();
+    }
+
+    /**
+     * Returns the ratio of hits to hits and misses.
+     *
+     * @return the hit rate, or 0 if there have been no evaluations
+     */
+    public double getHitRate() {
+        final long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Resets the metrics to 0.
+     */
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        uncacheable.reset();
+        evaluationTime.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResultCache[size=%d, weight=%d, hits=%d, misses=%d, evictions=%d, uncacheable=%d]",
+                size(), getWeight(), getHitCount(), getMissCount(), getEvictionCount(), getUncacheableCount());
+    }
+
+    /**
+     * A stripe of the cache: the entries in the order of their last access and their weight.
+     */
+    private static final class Stripe {
+
+        /**
+         * The entries, the least recently used first.
+         */
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * The weight of the entries.
+         */
+        private long weight;
+    }
+
+    /**
+     * The key of a result: the expression, the evaluation context and the normalized values of the
+     * identifiers by slot.
+     */
+    private static final class Key {
+
+        /**
+         * The expression, compared by identity.
+         */
+        private final PreparedExpression expression;
+
+        /**
+         * The evaluation context.
+         */
+        private final EvaluationContext context;
+
+        /**
+         * The values of the identifiers: rational numbers for integers and rational numbers, real
+         * numbers or {@code null} for unbound identifiers.
+         */
+        private final Object[] values;
+
+        /**
+         * The weight of the key.
+         */
+        private final long weight;
+
+        /**
+         * The hash of the key, spread over all bits.
+         */
+        private final int hash;
+
+        private Key(PreparedExpression expression, EvaluationContext context, Object[] values, long weight) {
+            this.expression = expression;
+            this.context = context;
+            this.values = values;
+            this.weight = weight;
+            final int h = (System.identityHashCode(expression) * 31 + context.hashCode()) * 31 + Arrays.hashCode(values);
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key key)) return false;
+            return expression == key.expression && hash == key.hash && context.equals(key.context) && Arrays.equals(values, key.values);
+        }
+    }
+
+    /**
+     * A cached result with its evaluation time and weight.
+     */
+    private static final class Entry {
+
+        /**
+         * The result.
+         */
+        private final MyNumber result;
+
+        /**
+         * The evaluation time of the result in nanoseconds.
+         */
+        private final long cost;
+
+        /**
+         * The weight of the entry.
+         */
+        private final long weight;
+
+        private Entry(MyNumber result, long cost, long weight) {
+            this.result = result;
+            this.cost = cost;
+            this.weight = weight;
+        }
+    }
+}
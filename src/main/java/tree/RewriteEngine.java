@@ -0,0 +1,392 @@
+package tree;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rewrites arithmetic expression trees with a list of {@link RewriteRule rewrite rules} until no
+ * rule applies any more.
+ *
+ * <p>The patterns of the rules are compiled into a discrimination net: a trie over the nodes of
+ * the patterns in pre-order, keyed on the operator and number of operands of operations, the
+ * value of literals and the predefined constants, with a wildcard edge for variables. Looking up
+ * the rules which may match a node only follows the edges matching the node and its operands,
+ * so its cost depends on the rules sharing a prefix with the node and not on the number of
+ * rules. The candidates are then matched completely (binding variables and checking conditions)
+ * in the order of the rule list, and the first matching rule is applied.
+ *
+ * <p>A tree is rewritten in a single bottom-up pass with an explicit stack: the operands of a node
+ * are rewritten before the node itself, and the result of a rule is rewritten again until no rule
+ * applies. Subtrees already known to be in normal form (for example the trees bound to variables)
+ * are not visited again. Unchanged subtrees are shared with the original tree.
+ *
+ * <p>The engine is thread-safe: it can rewrite any number of trees concurrently. It counts how
+ * often every rule is applied.
+ */
+public final class RewriteEngine {
+
+    /**
+     * The default maximal number of rules applied while rewriting one tree.
+     */
+    public static final int DEFAULT_MAX_REWRITES = 1 << 20;
+
+    /**
+     * The rules in the order of their priority.
+     */
+    private final List<RewriteRule> rules;
+
+    /**
+     * The root of the discrimination net.
+     */
+    private final Net net = new Net();
+
+    /**
+     * The number of applications of every rule.
+     */
+    private final AtomicLongArray hits;
+
+    /**
+     * The maximal number of rules applied while rewriting one tree.
+     */
+    private final int maxRewrites;
+
+    /**
+     * Constructs and initializes a rewrite engine with the given rules and the default maximal
+     * number of rewrites.
+     *
+     * @param rules the rules in the order of their priority
+     * @throws NullPointerException     if the list or a rule is {@code null}
+     * @throws IllegalArgumentException if two rules have the same name
+     */
+    public RewriteEngine(List<RewriteRule> rules) {
+        this(rules, DEFAULT_MAX_REWRITES);
+    }
+
+    /**
+     * Constructs and initializes a rewrite engine with the given rules.
+     *
+     * @param rules       the rules in the order of their priority
+     * @param maxRewrites the maximal number of rules applied while rewriting one tree, protecting
+     *                    against rules which do not terminate
+     * @throws NullPointerException     if the list or a rule is {@code null}
+     * @throws IllegalArgumentException if two rules have the same name or the maximal number of
+     *                                  rewrites is negative
+     */
+    public RewriteEngine(List<RewriteRule> rules, int maxRewrites) {
+        if (maxRewrites < 0) throw new IllegalArgumentException("Negative maximal number of rewrites");
+        this.rules = List.copyOf(rules);
+        this.maxRewrites = maxRewrites;
+        hits = new AtomicLongArray(this.rules.size());
+        final Set<String> names = new HashSet<>();
+        for (int i = 0; i < this.rules.size(); i++) {
+            final RewriteRule rule = this.rules.get(i);
+            if (!names.add(rule.getName())) throw new IllegalArgumentException("Duplicate rule " + rule.getName());
+            Net n = net;
+            for (Iterator<ArithmeticExpressionNode> it = ExpressionTraversal.preOrder(rule.getPattern()); it.hasNext(); ) {
+                final ArithmeticExpressionNode node = it.next();
+                if (RewriteRule.isVariable(node)) {
+                    if (n.wildcard == null) n.wildcard = new Net();
+                    n = n.wildcard;
+                } else n = n.children.computeIfAbsent(key(node), k -> new Net());
+            }
+            n.rules.set(i);
+        }
+    }
+
+    /**
+     * Returns the rules of this engine in the order of their priority.
+     *
+     * @return the rules of this engine
+     */
+    public List<RewriteRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Returns how often every rule has been applied since this engine was created or the counts
+     * were reset.
+     *
+     * @return the number of applications by rule name, in the order of the rules
+     */
+    public Map<String, Long> getHitCounts() {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < rules.size(); i++) counts.put(rules.get(i).getName(), hits.get(i));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Resets the number of applications of every rule to 0.
+     */
+    public void resetHitCounts() {
+        for (int i = 0; i < rules.size(); i++) hits.set(i, 0);
+    }
+
+    /**
+     * Rewrites the tree until no rule applies to any of its nodes.
+     *
+     * @param root the root node of the arithmetic expression tree
+     * @return the root node of the rewritten tree
+     * @throws NullPointerException  if the root is {@code null}
+     * @throws IllegalStateException if more than the maximal number of rules are applied
+     */
+    public ArithmeticExpressionNode rewrite(ArithmeticExpressionNode root) {
+        if (!(Objects.requireNonNull(root, "root null") instanceof OperationExpressionNode o)) return root;
+        final Set<ArithmeticExpressionNode> normal = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Lookup lookup = new Lookup();
+        final ArrayDeque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(o));
+        int rewrites = 0;
+        while (true) {
+            final Frame frame = stack.peek();
+            if (frame.index < frame.operands.length) {
+                final ArithmeticExpressionNode operand = frame.operands[frame.index];
+                if (operand instanceof OperationExpressionNode op && !normal.contains(op)) stack.push(new Frame(op));
+                else frame.index++;
+                continue;
+            }
+            stack.pop();
+            final OperationExpressionNode node = frame.changed ? new OperationExpressionNode(frame.node.getOperator(), frame.operands) : frame.node;
+            final ArithmeticExpressionNode result = apply(node, lookup);
+            if (result == null) normal.add(node);
+            else {
+                if (++rewrites > maxRewrites) throw new IllegalStateException("More than " + maxRewrites + " rewrites");
+                if (result instanceof OperationExpressionNode r && !normal.contains(r)) {
+                    stack.push(new Frame(r));
+                    continue;
+                }
+            }
+            final ArithmeticExpressionNode value = result == null ? node : result;
+            final Frame parent = stack.peek();
+            if (parent == null) return value;
+            if (parent.operands[parent.index] != value) {
+                parent.operands[parent.index] = value;
+                parent.changed = true;
+            }
+            parent.index++;
+        }
+    }
+
+    /**
+     * Applies the first matching rule to the given node.
+     *
+     * @param node   the node, whose operands are in normal form
+     * @param lookup the buffers of the rewrite
+     * @return the result of the rule or {@code null} if no rule matches
+     */
+    private ArithmeticExpressionNode apply(OperationExpressionNode node, Lookup lookup) {
+        final BitSet candidates = lookup.candidates;
+        candidates.clear();
+        lookup.terms[0] = node;
+        retrieve(net, lookup, 1);
+        final Map<String, ArithmeticExpressionNode> bindings = lookup.bindings;
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final RewriteRule rule = rules.get(i);
+            bindings.clear();
+            if (match(rule.getPattern(), node, lookup) && rule.test(lookup.view)) {
+                hits.incrementAndGet(i);
+                return instantiate(rule.getReplacement(), bindings);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the rules of the patterns which may match the given sequence of trees from the given
+     * node of the discrimination net on to the candidates. The trees still to match are the first
+     * {@code size} entries of the term stack of the lookup, the next one on top; they are the same
+     * again when the method returns, the entries above them are overwritten. The depth of the
+     * search is bounded by the size of the patterns.
+     *
+     * @param n      the node of the discrimination net
+     * @param lookup the term stack and the candidates
+     * @param size   the number of trees still to match
+     */
+    private static void retrieve(Net n, Lookup lookup, int size) {
+        if (size == 0) {
+            lookup.candidates.or(n.rules);
+            return;
+        }
+        final ArithmeticExpressionNode term = lookup.terms[size - 1];
+        if (n.wildcard != null) retrieve(n.wildcard, lookup, size - 1);
+        final Object key = key(term);
+        final Net child = key == null ? null : n.children.get(key);
+        if (child == null) return;
+        int top = size - 1;
+        if (term instanceof OperationExpressionNode o) {
+            final int count = o.getOperandCount();
+            if (top + count > lookup.terms.length) lookup.terms = Arrays.copyOf(lookup.terms, Math.max(top + count, 2 * lookup.terms.length));
+            for (int i = count - 1; i >= 0; i--) lookup.terms[top++] = o.getOperand(i);
+        }
+        retrieve(child, lookup, top);
+        lookup.terms[size - 1] = term;
+    }
+
+    /**
+     * Returns the key of the given node in the discrimination net.
+     *
+     * @param node the node
+     * @return the key of the node or {@code null} if it only matches variables
+     */
+    private static Object key(ArithmeticExpressionNode node) {
+        if (node instanceof OperationExpressionNode o) return ((long) o.getOperandCount() << 8) | o.getOperator().ordinal();
+        if (node instanceof LiteralExpressionNode l) return l.getValue();
+        return node instanceof IdentifierExpressionNode i ? i.getConstant() : null;
+    }
+
+    /**
+     * Matches the tree against the pattern, binding the variables of the pattern.
+     *
+     * @param pattern the pattern
+     * @param tree    the tree
+     * @param lookup  the trees bound to the variables and the stacks of the nodes still to match
+     * @return {@code true} if the tree matches the pattern
+     */
+    private static boolean match(ArithmeticExpressionNode pattern, ArithmeticExpressionNode tree, Lookup lookup) {
+        final Map<String, ArithmeticExpressionNode> bindings = lookup.bindings;
+        final ArrayDeque<ArithmeticExpressionNode> patterns = lookup.patterns, trees = lookup.trees;
+        patterns.clear();
+        trees.clear();
+        patterns.push(pattern);
+        trees.push(tree);
+        while (!patterns.isEmpty()) {
+            final ArithmeticExpressionNode p = patterns.pop(), t = trees.pop();
+            if (RewriteRule.isVariable(p)) {
+                final ArithmeticExpressionNode bound = bindings.putIfAbsent(((IdentifierExpressionNode) p).getValue(), t);
+                if (bound != null && !Canonicalizer.structurallyEqual(bound, t)) return false;
+                continue;
+            }
+            if (!Objects.equals(key(p), key(t))) return false;
+            if (p instanceof OperationExpressionNode po) {
+                final OperationExpressionNode to = (OperationExpressionNode) t;
+                for (int i = 0; i < po.getOperandCount(); i++) {
+                    patterns.push(po.getOperand(i));
+                    trees.push(to.getOperand(i));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the replacement with its variables replaced by the trees bound to them.
+     *
+     * @param replacement the replacement
+     * @param bindings    the trees bound to the variables
+     * @return the instantiated replacement
+     */
+    private static ArithmeticExpressionNode instantiate(ArithmeticExpressionNode replacement, Map<String, ArithmeticExpressionNode> bindings) {
+        return replacement.accept(new ExpressionVisitor<ArithmeticExpressionNode>() {
+            @Override
+            public ArithmeticExpressionNode visitLiteral(LiteralExpressionNode node) {
+                return node;
+            }
+
+            @Override
+            public ArithmeticExpressionNode visitIdentifier(IdentifierExpressionNode node) {
+                return RewriteRule.isVariable(node) ? bindings.get(node.getValue()) : node;
+            }
+
+            @Override
+            public ArithmeticExpressionNode visitOperation(OperationExpressionNode node, List<ArithmeticExpressionNode> operands) {
+                return new OperationExpressionNode(node.getOperator(), operands);
+            }
+        });
+    }
+
+    /**
+     * A node of the discrimination net.
+     */
+    private static final class Net {
+
+        /**
+         * The successors by the key of the next node of a pattern.
+         */
+        private final Map<Object, Net> children = new HashMap<>();
+
+        /**
+         * The successor if the next node of a pattern is a variable or {@code null}.
+         */
+        private Net wildcard;
+
+        /**
+         * The rules whose patterns end at this node.
+         */
+        private final BitSet rules = new BitSet();
+    }
+
+    /**
+     * The buffers of the rule lookups of one rewrite, reused for every node so looking up and
+     * matching the rules of a node allocates nothing.
+     */
+    private static final class Lookup {
+
+        /**
+         * The stack of the trees still to match in the discrimination net.
+         */
+        private ArithmeticExpressionNode[] terms = new ArithmeticExpressionNode[16];
+
+        /**
+         * The rules which may match the current node.
+         */
+        private final BitSet candidates = new BitSet();
+
+        /**
+         * The trees bound to the variables of the rule being matched.
+         */
+        private final Map<String, ArithmeticExpressionNode> bindings = new HashMap<>();
+
+        /**
+         * The unmodifiable view of the bindings passed to the conditions of the rules.
+         */
+        private final Map<String, ArithmeticExpressionNode> view = Collections.unmodifiableMap(bindings);
+
+        /**
+         * The nodes of the pattern and the tree still to match.
+         */
+        private final ArrayDeque<ArithmeticExpressionNode> patterns = new ArrayDeque<>(), trees = new ArrayDeque<>();
+    }
+
+    /**
+     * An operation being rewritten and its operands rewritten so far.
+     */
+    private static final class Frame {
+
+        /**
+         * The operation.
+         */
+        private final OperationExpressionNode node;
+
+        /**
+         * The operands of the operation, rewritten up to the index.
+         */
+        private final ArithmeticExpressionNode[] operands;
+
+        /**
+         * The index of the next operand to rewrite.
+         */
+        private int index;
+
+        /**
+         * {@code true} if an operand has been rewritten to a different tree.
+         */
+        private boolean changed;
+
+        private Frame(OperationExpressionNode node) {
+            this.node = node;
+            operands = new ArithmeticExpressionNode[node.getOperandCount()];
+            for (int i = 0; i < operands.length; i++) operands[i] = node.getOperand(i);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package tree;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A rule rewriting every tree matching a pattern to a replacement, for example
+ * {@code (log x x) -> 1} or {@code (expt (sqrt x) 2) -> x}.
+ *
+ * <p>Patterns and replacements are ordinary arithmetic expression trees:
+ *
+ * <ul>
+ *     <li>an identifier which is not a predefined constant is a variable, it matches any tree
+ *     and all occurrences of the same variable must match equal trees,</li>
+ *     <li>a literal matches an equal literal and a predefined constant matches itself,</li>
+ *     <li>an operation matches an operation with the same operator and number of operands whose
+ *     operands match.</li>
+ * </ul>
+ *
+ * <p>The root of a pattern must be an operation. A condition may restrict the trees bound to the
+ * variables, for example to distribute only literal factors.
+ */
+public final class RewriteRule {
+
+    /**
+     * The name of this rule.
+     */
+    private final String name;
+
+    /**
+     * The pattern of this rule.
+     */
+    private final OperationExpressionNode pattern;
+
+    /**
+     * The replacement of this rule.
+     */
+    private final ArithmeticExpressionNode replacement;
+
+    /**
+     * The condition on the trees bound to the variables of the pattern.
+     */
+    private final Predicate<? super Map<String, ArithmeticExpressionNode>> condition;
+
+    /**
+     * Constructs and initializes a rewrite rule without a condition.
+     *
+     * @param name        the name of the rule
+     * @param pattern     the pattern
+     * @param replacement the replacement
+     * @throws NullPointerException     if an argument is {@code null}
+     * @throws IllegalArgumentException if the pattern is not an operation or the replacement
+     *                                  contains a variable not contained in the pattern
+     */
+    public RewriteRule(String name, ArithmeticExpressionNode pattern, ArithmeticExpressionNode replacement) {
+        this(name, pattern, replacement, bindings -> true);
+    }
+
+    /**
+     * Constructs and initializes a rewrite rule which is only applied if the trees bound to the
+     * variables of the pattern satisfy the given condition.
+     *
+     * @param name        the name of the rule
+     * @param pattern     the pattern
+     * @param replacement the replacement
+     * @param condition   the condition on the trees bound to the variables by their names
+     * @throws NullPointerException     if an argument is {@code null}
+     * @throws IllegalArgumentException if the pattern is not an operation or the replacement
+     *                                  contains a variable not contained in the pattern
+     */
+    public RewriteRule(String name, ArithmeticExpressionNode pattern, ArithmeticExpressionNode replacement,
+                       Predicate<? super Map<String, ArithmeticExpressionNode>> condition) {
+        this.name = Objects.requireNonNull(name, "name null");
+        if (!(Objects.requireNonNull(pattern, "pattern null") instanceof OperationExpressionNode o))
+            throw new IllegalArgumentException("Pattern is not an operation: " + pattern);
+        this.pattern = o;
+        this.replacement = Objects.requireNonNull(replacement, "replacement null");
+        this.condition = Objects.requireNonNull(condition, "condition null");
+        final Set<String> variables = variables(pattern);
+        for (String variable : variables(replacement))
+            if (!variables.contains(variable)) throw new IllegalArgumentException("Unbound variable " + variable);
+    }
+
+    /**
+     * Returns {@code true} if the given node is a variable of a pattern.
+     *
+     * @param node the node
+     * @return {@code true} if the node is a variable
+     */
+    static boolean isVariable(ArithmeticExpressionNode node) {
+        return node instanceof IdentifierExpressionNode i && i.getConstant() == null;
+    }
+
+    private static Set<String> variables(ArithmeticExpressionNode node) {
+        final Set<String> variables = new HashSet<>();
+        for (Iterator<ArithmeticExpressionNode> i = ExpressionTraversal.preOrder(node); i.hasNext(); ) {
+            final ArithmeticExpressionNode n = i.next();
+            if (isVariable(n)) variables.add(((IdentifierExpressionNode) n).getValue());
+        }
+        return variables;
+    }
+
+    /**
+     * Returns the name of this rule.
+     *
+     * @return the name of this rule
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the pattern of this rule.
+     *
+     * @return the pattern of this rule
+     */
+    public OperationExpressionNode getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns the replacement of this rule.
+     *
+     * @return the replacement of this rule
+     */
+    public ArithmeticExpressionNode getReplacement() {
+        return replacement;
+    }
+
+    /**
+     * Returns {@code true} if the trees bound to the variables satisfy the condition of this rule.
+     *
+     * @param bindings the trees bound to the variables by their names
+     * @return {@code true} if the condition is satisfied
+     */
+    boolean test(Map<String, ArithmeticExpressionNode> bindings) {
+        return condition.test(bindings);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s -> %s", name, pattern, replacement);
+    }
+}